@@ -1,10 +1,12 @@
 package su.thepeople.carstereo.android.database;
 
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.annotation.NonNull;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import java.io.File;
@@ -12,6 +14,8 @@ import java.util.stream.Stream;
 
 import su.thepeople.carstereo.lib.backend.Backend;
 import su.thepeople.carstereo.lib.data.NoLibraryException;
+import su.thepeople.carstereo.lib.platform_interface.UINotificationAPI;
+import su.thepeople.carstereo.lib.util.SortKeys;
 
 /**
  * Room-based interface to an SQL database holding information about on-disk music files.
@@ -20,19 +24,143 @@ import su.thepeople.carstereo.lib.data.NoLibraryException;
  * inconsistencies unless you very meticulously maintain all of your media file tags. We use our own simplified
  * database to avoid those inconsistencies, and to cut out a lot of code complexity that would otherwise be required.
  */
-@androidx.room.Database(entities = {DBBand.class, DBAlbum.class, DBSong.class}, version = 2)
+@androidx.room.Database(entities = {DBBand.class, DBAlbum.class, DBSong.class, DBDirectory.class, DBSongRoot.class, DBScanCheckpoint.class}, version = AndroidDatabase.SCHEMA_VERSION)
 public abstract class AndroidDatabase extends RoomDatabase {
+    // QueryPlanTest keeps its own copy of this version's schema, and checks this number to make sure it is up to date.
+    static final int SCHEMA_VERSION = 8;
+
     public abstract DBBandDAO bandDAO();
     public abstract DBAlbumDAO albumDAO();
     public abstract DBSongDAO songDAO();
+    public abstract DBDirectoryDAO directoryDAO();
+    public abstract DBSongRootDAO songRootDAO();
+    public abstract DBScanCheckpointDAO scanCheckpointDAO();
+
+    /*
+     * Version 3 adds the scan manifest. A version 2 library has no manifest, so an incremental rescan would think that
+     * every band was brand new. Instead, we throw the old library away, and let the next startup do a full scan.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `DBDirectory` (`path` TEXT NOT NULL, `parentPath` TEXT NOT NULL, `lastModified` INTEGER NOT NULL, `entryCount` INTEGER NOT NULL, `bandId` INTEGER, `albumId` INTEGER, PRIMARY KEY(`path`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBDirectory_parentPath` ON `DBDirectory` (`parentPath`)");
+            db.execSQL("DELETE FROM DBSong");
+            db.execSQL("DELETE FROM DBAlbum");
+            db.execSQL("DELETE FROM DBBand");
+        }
+    };
+
+    /*
+     * Version 4 stops storing each song's full path. Instead, each distinct song directory gets a DBSongRoot, and songs
+     * store a root ID plus their file name. Existing songs are converted in place, so no rescan is needed.
+     *
+     * SQLite has no "last index of" function. Instead, rtrim() strips every trailing character that is not a "/",
+     * which leaves the directory part of the path (with its trailing "/").
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            String dirWithSlash = "rtrim(fullPath, replace(fullPath, '/', ''))";
+            db.execSQL("CREATE TABLE IF NOT EXISTS `DBSongRoot` (`uid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `path` TEXT NOT NULL)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_DBSongRoot_path` ON `DBSongRoot` (`path`)");
+            db.execSQL("INSERT OR IGNORE INTO DBSongRoot (path) SELECT DISTINCT substr(" + dirWithSlash + ", 1, length(" + dirWithSlash + ") - 1) FROM DBSong");
+            db.execSQL("CREATE TABLE `DBSong_new` (`uid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT NOT NULL, `rootId` INTEGER NOT NULL, `relativePath` TEXT NOT NULL, `bandId` INTEGER NOT NULL, `albumId` INTEGER, `year` INTEGER)");
+            db.execSQL("INSERT INTO DBSong_new (uid, name, rootId, relativePath, bandId, albumId, year) "
+                    + "SELECT DBSong.uid, DBSong.name, DBSongRoot.uid, substr(fullPath, length(DBSongRoot.path) + 2), bandId, albumId, year "
+                    + "FROM DBSong JOIN DBSongRoot ON DBSongRoot.path = substr(" + dirWithSlash + ", 1, length(" + dirWithSlash + ") - 1)");
+            db.execSQL("DROP TABLE DBSong");
+            db.execSQL("ALTER TABLE DBSong_new RENAME TO DBSong");
+        }
+    };
+
+    /*
+     * Version 5 adds the scan checkpoint. An existing library has no checkpoint, which is treated the same as a
+     * finished scan.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `DBScanCheckpoint` (`id` INTEGER NOT NULL, `generation` INTEGER NOT NULL, `complete` INTEGER NOT NULL, `lastCompletedBand` TEXT, `pendingBandPath` TEXT, `pendingBandId` INTEGER, PRIMARY KEY(`id`))");
+        }
+    };
+
+    /*
+     * Version 6 adds song fingerprints. Existing songs don't have one yet, so we make every directory in the manifest
+     * look changed. The next rescan then reads every directory once, and fills in the fingerprints of the songs it
+     * finds (without creating or deleting anything, if nothing has changed on disk).
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE DBSong ADD COLUMN `fingerprint` TEXT");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBSong_fingerprint` ON `DBSong` (`fingerprint`)");
+            db.execSQL("UPDATE DBDirectory SET lastModified = -1");
+        }
+    };
+
+    /*
+     * Version 7 adds indexes for every way that we look up bands, albums and songs. Without them, fetching a single
+     * band's songs (or albums) meant reading through the entire table.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBBand_name` ON `DBBand` (`name`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBAlbum_bandId_year_name` ON `DBAlbum` (`bandId`, `year`, `name`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBSong_bandId_year` ON `DBSong` (`bandId`, `year`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBSong_albumId_relativePath` ON `DBSong` (`albumId`, `relativePath`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBSong_year` ON `DBSong` (`year`)");
+        }
+    };
+
+    /*
+     * Version 8 sorts bands and albums by a precomputed key, which ignores case and any leading "The", "A" or "An".
+     * The keys for existing bands and albums are worked out here, using the same code as the scanner.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        private void fillSortKeys(SupportSQLiteDatabase db, String table) {
+            try (Cursor cursor = db.query(String.format("SELECT uid, name FROM %s", table))) {
+                while (cursor.moveToNext()) {
+                    Object[] args = {SortKeys.forName(cursor.getString(1)), cursor.getLong(0)};
+                    db.execSQL(String.format("UPDATE %s SET sortKey = ? WHERE uid = ?", table), args);
+                }
+            }
+        }
+
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE DBBand ADD COLUMN `sortKey` TEXT NOT NULL DEFAULT ''");
+            db.execSQL("ALTER TABLE DBAlbum ADD COLUMN `sortKey` TEXT NOT NULL DEFAULT ''");
+            fillSortKeys(db, "DBBand");
+            fillSortKeys(db, "DBAlbum");
+            db.execSQL("DROP INDEX IF EXISTS `index_DBBand_name`");
+            db.execSQL("DROP INDEX IF EXISTS `index_DBAlbum_bandId_year_name`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBBand_sortKey` ON `DBBand` (`sortKey`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_DBAlbum_bandId_year_sortKey` ON `DBAlbum` (`bandId`, `year`, `sortKey`)");
+        }
+    };
 
     private static volatile AndroidDatabase instance = null;
 
-    public synchronized void initializeIfNecessary(Backend backend, File[] mediaDirs) throws NoLibraryException {
+    /**
+     * A first-time scan reports its progress to the given notifier, so that music can start playing as soon as there
+     * is something to play.
+     *
+     * If Android killed us part-way through a scan, then the library is only partly built. Rather than keep that
+     * partial library forever (or throw it away and start over), we pick up the scan where it left off.
+     */
+    public synchronized void initializeIfNecessary(Backend backend, File[] mediaDirs, UINotificationAPI uiNotifier) throws NoLibraryException {
         int bandCount = instance.bandDAO().getAll().size();
-        if (bandCount == 0) {
+        DBScanCheckpoint checkpoint = instance.scanCheckpointDAO().get();
+        if (checkpoint != null && !checkpoint.isComplete()) {
+            backend.resumeScan(() -> Stream.of(mediaDirs), uiNotifier);
+        } else if (bandCount == 0) {
             // Database has not been initialized yet!
-            backend.scanCollection(() -> Stream.of(mediaDirs));
+            backend.scanCollection(() -> Stream.of(mediaDirs), uiNotifier);
+        } else {
+            // Pick up any songs that have been added/removed since the last time we ran.
+            backend.rescanCollection(() -> Stream.of(mediaDirs));
         }
         if (instance.bandDAO().getAll().size() == 0) {
             // Although we've already completed the scan, we still have no bands!
@@ -48,10 +176,7 @@ public abstract class AndroidDatabase extends RoomDatabase {
 
                     /*
                      * If we don't already have a database, then we need to scan the on-disk collection to build up
-                     * the database from scratch.
-                     *
-                     * TODO: We should also be checking for on-disk updates, in case songs are added/deleted after we've
-                     *  already created the database.
+                     * the database from scratch. Otherwise, we only need to look for on-disk updates.
                      */
                     RoomDatabase.Callback callback = new RoomDatabase.Callback() {
                         @Override
@@ -62,6 +187,7 @@ public abstract class AndroidDatabase extends RoomDatabase {
 
                     instance = Room.databaseBuilder(context.getApplicationContext(), AndroidDatabase.class, "dbotp")
                             .addCallback(callback)
+                            .addMigrations(MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8)
                             .build();
                 }
             }
@@ -3,6 +3,7 @@ package su.thepeople.carstereo.android.database;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import java.io.Serializable;
@@ -10,8 +11,10 @@ import java.io.Serializable;
 
 /**
  * A simple POJO representing an Album
+ *
+ * A band's albums are always fetched in (year, sortKey) order, so the index matches that ordering.
  */
-@Entity
+@Entity(indices = {@Index({"bandId", "year", "sortKey"})})
 public class DBAlbum implements Serializable {
 
     @PrimaryKey(autoGenerate = true)
@@ -25,10 +28,14 @@ public class DBAlbum implements Serializable {
 
     private final long bandId;
 
-    public DBAlbum(@NonNull String name, long bandId, @Nullable Integer year) {
+    @NonNull
+    private final String sortKey;
+
+    public DBAlbum(@NonNull String name, long bandId, @Nullable Integer year, @NonNull String sortKey) {
         this.name = name;
         this.bandId = bandId;
         this.year = year;
+        this.sortKey = sortKey;
     }
 
     public long getUid() {
@@ -52,4 +59,9 @@ public class DBAlbum implements Serializable {
     public long getBandId() {
         return bandId;
     }
+
+    @NonNull
+    public String getSortKey() {
+        return sortKey;
+    }
 }
@@ -5,21 +5,35 @@ import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import java.util.Collection;
 import java.util.List;
 
 @Dao
 public interface DBAlbumDAO {
 
     // TODO: This query not guaranteed to correctly sort multiple albums from the same year
-    @Query("SELECT * FROM DBAlbum WHERE bandId = :bandId ORDER BY year, name")
+    @Query("SELECT * FROM DBAlbum WHERE bandId = :bandId ORDER BY year, sortKey")
     List<DBAlbum> getAllForBand(long bandId);
 
     @Query("SELECT * FROM DBAlbum WHERE uid = :albumId")
     DBAlbum lookup(long albumId);
 
-    @Query("SELECT * FROM DBAlbum ORDER BY random() LIMIT 1")
-    DBAlbum getRandom();
+    @Query("SELECT * FROM DBAlbum WHERE uid IN (:albumIds)")
+    List<DBAlbum> lookupAll(Collection<Long> albumIds);
+
+    @Query("SELECT uid FROM DBAlbum")
+    List<Long> getAllIds();
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insert(DBAlbum album);
+
+    // Room inserts the entire list inside a single transaction.
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    List<Long> insertAll(List<DBAlbum> albums);
+
+    @Query("DELETE FROM DBAlbum WHERE uid = :albumId")
+    void delete(long albumId);
+
+    @Query("DELETE FROM DBAlbum WHERE bandId = :bandId")
+    void deleteAllForBand(long bandId);
 }
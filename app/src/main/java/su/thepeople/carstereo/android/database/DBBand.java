@@ -2,14 +2,17 @@ package su.thepeople.carstereo.android.database;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import java.io.Serializable;
 
 /**
  * Simple POJO class representing a Band
+ *
+ * Bands are always listed in sortKey order (see SortKeys), so the index matches that ordering.
  */
-@Entity
+@Entity(indices = {@Index("sortKey")})
 public class DBBand implements Serializable {
 
     @PrimaryKey(autoGenerate = true)
@@ -18,8 +21,12 @@ public class DBBand implements Serializable {
     @NonNull
     public final String name;
 
-    public DBBand(@NonNull String name) {
+    @NonNull
+    public final String sortKey;
+
+    public DBBand(@NonNull String name, @NonNull String sortKey) {
         this.name = name;
+        this.sortKey = sortKey;
     }
 
     public long getUid() {
@@ -0,0 +1,10 @@
+package su.thepeople.carstereo.android.database;
+
+/**
+ * Song and album counts for a single band. This is not a table, just the shape of a query result.
+ */
+public class DBBandCounts {
+    public long bandId;
+    public int songCount;
+    public int albumCount;
+}
@@ -5,6 +5,7 @@ import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -13,15 +14,25 @@ import java.util.List;
 @Dao
 public interface DBBandDAO {
 
-    @Query("SELECT * FROM DBBand ORDER BY name")
+    @Query("SELECT * FROM DBBand ORDER BY sortKey")
     List<DBBand> getAll();
 
     @Query("SELECT * FROM DBBand WHERE uid = :bandId")
     DBBand lookup(long bandId);
 
-    @Query("SELECT * FROM DBBand ORDER BY random() LIMIT 1")
-    DBBand getRandom();
+    @Query("SELECT * FROM DBBand WHERE uid IN (:bandIds)")
+    List<DBBand> lookupAll(Collection<Long> bandIds);
+
+    // Each subquery is answered from the bandId index on its table, without reading any rows.
+    @Query("SELECT uid AS bandId, (SELECT COUNT(*) FROM DBSong WHERE DBSong.bandId = DBBand.uid) AS songCount, (SELECT COUNT(*) FROM DBAlbum WHERE DBAlbum.bandId = DBBand.uid) AS albumCount FROM DBBand")
+    List<DBBandCounts> getCounts();
+
+    @Query("SELECT uid FROM DBBand")
+    List<Long> getAllIds();
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insert(DBBand band);
+
+    @Query("DELETE FROM DBBand WHERE uid = :bandId")
+    void delete(long bandId);
 }
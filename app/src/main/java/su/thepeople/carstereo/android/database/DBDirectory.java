@@ -0,0 +1,68 @@
+package su.thepeople.carstereo.android.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Simple POJO type representing the state of an on-disk directory, as of the last time it was scanned.
+ */
+@Entity(indices = {@Index("parentPath")})
+public class DBDirectory {
+
+    @PrimaryKey
+    @NonNull
+    private final String path;
+
+    @NonNull
+    private final String parentPath;
+
+    private final long lastModified;
+
+    private final int entryCount;
+
+    @Nullable
+    private final Long bandId;
+
+    @Nullable
+    private final Long albumId;
+
+    public DBDirectory(@NonNull String path, @NonNull String parentPath, long lastModified, int entryCount, @Nullable Long bandId, @Nullable Long albumId) {
+        this.path = path;
+        this.parentPath = parentPath;
+        this.lastModified = lastModified;
+        this.entryCount = entryCount;
+        this.bandId = bandId;
+        this.albumId = albumId;
+    }
+
+    @NonNull
+    public String getPath() {
+        return path;
+    }
+
+    @NonNull
+    public String getParentPath() {
+        return parentPath;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Nullable
+    public Long getBandId() {
+        return bandId;
+    }
+
+    @Nullable
+    public Long getAlbumId() {
+        return albumId;
+    }
+}
@@ -0,0 +1,28 @@
+package su.thepeople.carstereo.android.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * CRUD methods for the scan manifest in the database.
+ */
+@Dao
+public interface DBDirectoryDAO {
+
+    @Query("SELECT * FROM DBDirectory WHERE path = :path")
+    DBDirectory lookup(String path);
+
+    @Query("SELECT * FROM DBDirectory WHERE parentPath = :parentPath")
+    List<DBDirectory> getChildren(String parentPath);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(DBDirectory directory);
+
+    // Deletes the given directory, plus every directory whose path is in the given range (which must cover its descendants).
+    @Query("DELETE FROM DBDirectory WHERE path = :path OR (path >= :descendantStart AND path < :descendantEnd)")
+    void deleteTree(String path, String descendantStart, String descendantEnd);
+}
@@ -0,0 +1,66 @@
+package su.thepeople.carstereo.android.database;
+
+import androidx.annotation.Nullable;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Simple POJO type representing how far the most recent scan got. There is only ever one row in this table.
+ */
+@Entity
+public class DBScanCheckpoint {
+
+    public static final int SINGLETON_ID = 0;
+
+    @PrimaryKey
+    private final int id;
+
+    private final long generation;
+
+    private final boolean complete;
+
+    @Nullable
+    private final String lastCompletedBand;
+
+    @Nullable
+    private final String pendingBandPath;
+
+    @Nullable
+    private final Long pendingBandId;
+
+    public DBScanCheckpoint(int id, long generation, boolean complete, @Nullable String lastCompletedBand, @Nullable String pendingBandPath, @Nullable Long pendingBandId) {
+        this.id = id;
+        this.generation = generation;
+        this.complete = complete;
+        this.lastCompletedBand = lastCompletedBand;
+        this.pendingBandPath = pendingBandPath;
+        this.pendingBandId = pendingBandId;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Nullable
+    public String getLastCompletedBand() {
+        return lastCompletedBand;
+    }
+
+    @Nullable
+    public String getPendingBandPath() {
+        return pendingBandPath;
+    }
+
+    @Nullable
+    public Long getPendingBandId() {
+        return pendingBandId;
+    }
+}
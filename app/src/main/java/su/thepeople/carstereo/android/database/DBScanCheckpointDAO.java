@@ -0,0 +1,19 @@
+package su.thepeople.carstereo.android.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+/**
+ * CRUD methods for the scan checkpoint in the database.
+ */
+@Dao
+public interface DBScanCheckpointDAO {
+
+    @Query("SELECT * FROM DBScanCheckpoint WHERE id = " + DBScanCheckpoint.SINGLETON_ID)
+    DBScanCheckpoint get();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(DBScanCheckpoint checkpoint);
+}
@@ -3,12 +3,20 @@ package su.thepeople.carstereo.android.database;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 /**
  * Simple POJO type representing a Song, as backed by an on-disk file.
+ *
+ * The file's location is stored as a DBSongRoot ID plus a path relative to that root. The root's path is shared by
+ * every song in the same directory, so it is only stored once.
+ *
+ * The fingerprint is indexed, so that the scanner can quickly find out whether a "new" file is really an old file that
+ * has been moved or renamed. The other indexes match the ways that songs are looked up: by band (in year order), by
+ * album (in file name order), and by year.
  */
-@Entity
+@Entity(indices = {@Index("fingerprint"), @Index({"bandId", "year"}), @Index({"albumId", "relativePath"}), @Index("year")})
 public class DBSong {
     @PrimaryKey(autoGenerate = true)
     private long uid;
@@ -16,8 +24,10 @@ public class DBSong {
     @NonNull
     private final String name;
 
+    private final long rootId;
+
     @NonNull
-    private final String fullPath;
+    private final String relativePath;
 
     @NonNull
     private final Long bandId;
@@ -26,12 +36,17 @@ public class DBSong {
 
     public final Integer year;
 
-    public DBSong(@NonNull String name, @NonNull String fullPath, @NonNull Long bandId, @Nullable Long albumId, @Nullable Integer year) {
+    @Nullable
+    private final String fingerprint;
+
+    public DBSong(@NonNull String name, long rootId, @NonNull String relativePath, @NonNull Long bandId, @Nullable Long albumId, @Nullable Integer year, @Nullable String fingerprint) {
         this.name = name;
-        this.fullPath = fullPath;
+        this.rootId = rootId;
+        this.relativePath = relativePath;
         this.bandId = bandId;
         this.albumId = albumId;
         this.year = year;
+        this.fingerprint = fingerprint;
     }
 
     public long getUid() {
@@ -47,9 +62,13 @@ public class DBSong {
         return name;
     }
 
+    public long getRootId() {
+        return rootId;
+    }
+
     @NonNull
-    public String getFullPath() {
-        return fullPath;
+    public String getRelativePath() {
+        return relativePath;
     }
 
     @NonNull
@@ -64,4 +83,9 @@ public class DBSong {
     public final Integer getYear() {
         return year;
     }
+
+    @Nullable
+    public String getFingerprint() {
+        return fingerprint;
+    }
 }
@@ -5,6 +5,7 @@ import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -13,20 +14,23 @@ import java.util.List;
 @Dao
 public interface DBSongDAO {
 
-    @Query("SELECT * FROM DBSong WHERE bandId = :bandId ORDER BY random()")
-    List<DBSong> getAllForBandShuffled(Long bandId);
-
-    @Query("SELECT * FROM DBSong WHERE bandId = :bandId ORDER BY year, fullPath")
+    @Query("SELECT DBSong.* FROM DBSong JOIN DBSongRoot ON DBSong.rootId = DBSongRoot.uid WHERE bandId = :bandId ORDER BY year, DBSongRoot.path, relativePath")
     List<DBSong> getAllForBandOrdered(Long bandId);
 
     @Query("SELECT * FROM DBSong WHERE bandId = :bandId ORDER BY random() LIMIT :maxSize")
     List<DBSong> getSomeForBand(Long bandId, Integer maxSize);
 
-    @Query("SELECT * FROM DBSong WHERE albumId = :albumId ORDER BY fullPath")
+    @Query("SELECT * FROM DBSong WHERE albumId = :albumId ORDER BY relativePath")
     List<DBSong> getAllForAlbum(Long albumId);
 
-    @Query("SELECT * FROM DBSong ORDER BY random() LIMIT :batchSize")
-    List<DBSong> getRandomBatch(int batchSize);
+    @Query("SELECT uid FROM DBSong")
+    List<Long> getAllIds();
+
+    @Query("SELECT * FROM DBSong WHERE uid IN (:songIds)")
+    List<DBSong> lookupAll(Collection<Long> songIds);
+
+    @Query("SELECT uid FROM DBSong WHERE bandId = :bandId")
+    List<Long> getIdsForBand(Long bandId);
 
     @Query("SELECT DISTINCT year FROM DBSong WHERE year IS NOT NULL ORDER BY year")
     List<Integer> getYears();
@@ -34,6 +38,29 @@ public interface DBSongDAO {
     @Query("SELECT * FROM DBSong WHERE year >= :startYear AND year <= :endYear ORDER BY random() LIMIT :batchSize")
     List<DBSong> getRandomBatchForEra(int startYear, int endYear, int batchSize);
 
+    @Query("SELECT MIN(year) FROM DBSong WHERE year > :year")
+    Integer getNextYear(int year);
+
+    @Query("SELECT MAX(year) FROM DBSong WHERE year < :year")
+    Integer getPreviousYear(int year);
+
+    // Returns every song whose fingerprint is in the given range.
+    @Query("SELECT * FROM DBSong WHERE fingerprint >= :start AND fingerprint < :end")
+    List<DBSong> getByFingerprintRange(String start, String end);
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insert(DBSong song);
+
+    // Room inserts the entire list inside a single transaction.
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    List<Long> insertAll(List<DBSong> songs);
+
+    @Query("DELETE FROM DBSong WHERE uid = :songId")
+    void delete(long songId);
+
+    @Query("DELETE FROM DBSong WHERE albumId = :albumId")
+    void deleteAllForAlbum(long albumId);
+
+    @Query("DELETE FROM DBSong WHERE bandId = :bandId")
+    void deleteAllForBand(long bandId);
 }
@@ -0,0 +1,35 @@
+package su.thepeople.carstereo.android.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Simple POJO type representing a directory that holds songs. Songs store their location relative to one of these.
+ */
+@Entity(indices = {@Index(value = "path", unique = true)})
+public class DBSongRoot {
+    @PrimaryKey(autoGenerate = true)
+    private long uid;
+
+    @NonNull
+    private final String path;
+
+    public DBSongRoot(@NonNull String path) {
+        this.path = path;
+    }
+
+    public long getUid() {
+        return uid;
+    }
+
+    public void setUid(long uid) {
+        this.uid = uid;
+    }
+
+    @NonNull
+    public String getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,23 @@
+package su.thepeople.carstereo.android.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * CRUD methods for song root directories in the database.
+ */
+@Dao
+public interface DBSongRootDAO {
+
+    @Query("SELECT * FROM DBSongRoot")
+    List<DBSongRoot> getAll();
+
+    @Query("SELECT * FROM DBSongRoot WHERE path = :path")
+    DBSongRoot lookup(String path);
+
+    @Insert
+    long insert(DBSongRoot root);
+}
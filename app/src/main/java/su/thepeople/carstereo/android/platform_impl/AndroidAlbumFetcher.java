@@ -1,6 +1,7 @@
 package su.thepeople.carstereo.android.platform_impl;
 
 import androidx.annotation.Nullable;
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -15,9 +16,16 @@ import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
 public class AndroidAlbumFetcher implements AlbumFetcher {
 
     private final DBAlbumDAO dbDao;
+    private final IdSampler sampler;
 
     public AndroidAlbumFetcher(DBAlbumDAO dbDao) {
         this.dbDao = dbDao;
+        this.sampler = new IdSampler(dbDao::getAllIds);
+    }
+
+    // Must be called whenever albums are added or removed.
+    void onTableChanged() {
+        sampler.invalidate();
     }
 
     @Nullable
@@ -38,9 +46,14 @@ public class AndroidAlbumFetcher implements AlbumFetcher {
         return fromDB(dbDao.lookup(albumId));
     }
 
+    public List<Album> lookupAll(Collection<Long> albumIds) {
+        return dbDao.lookupAll(albumIds).stream().map(AndroidAlbumFetcher::fromDB).collect(Collectors.toList());
+    }
+
     @Nullable
     public Album getRandom() {
-        return fromDB(dbDao.getRandom());
+        List<Long> picked = sampler.pick(1);
+        return picked.isEmpty() ? null : lookup(picked.get(0));
     }
 
 }
@@ -2,12 +2,14 @@ package su.thepeople.carstereo.android.platform_impl;
 
 import androidx.annotation.Nullable;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import su.thepeople.carstereo.android.database.DBBand;
 import su.thepeople.carstereo.android.database.DBBandDAO;
 import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
 import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
 
 /**
@@ -16,6 +18,7 @@ import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
 public class AndroidBandFetcher implements BandFetcher {
 
     private final DBBandDAO dbDao;
+    private final IdSampler sampler;
 
     @Nullable
     private static Band fromDB(@Nullable DBBand dbBand) {
@@ -28,6 +31,12 @@ public class AndroidBandFetcher implements BandFetcher {
 
     public AndroidBandFetcher(DBBandDAO dbDao) {
         this.dbDao = dbDao;
+        this.sampler = new IdSampler(dbDao::getAllIds);
+    }
+
+    // Must be called whenever bands are added or removed.
+    void onTableChanged() {
+        sampler.invalidate();
     }
 
     public List<Band> getAll() {
@@ -38,7 +47,17 @@ public class AndroidBandFetcher implements BandFetcher {
         return fromDB(dbDao.lookup(bandId));
     }
 
+    public List<Band> lookupAll(Collection<Long> bandIds) {
+        return dbDao.lookupAll(bandIds).stream().map(AndroidBandFetcher::fromDB).collect(Collectors.toList());
+    }
+
+    @Nullable
     public Band getRandom() {
-        return fromDB(dbDao.getRandom());
+        List<Long> picked = sampler.pick(1);
+        return picked.isEmpty() ? null : lookup(picked.get(0));
+    }
+
+    public List<BandCounts> getCounts() {
+        return dbDao.getCounts().stream().map(counts -> new BandCounts(counts.bandId, counts.songCount, counts.albumCount)).collect(Collectors.toList());
     }
 }
@@ -0,0 +1,65 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import android.os.FileObserver;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import su.thepeople.carstereo.lib.platform_interface.DirectoryWatcher;
+
+/**
+ * Watches directories using Android's FileObserver, which is a thin wrapper around Linux's inotify.
+ *
+ * Each watched directory gets its own observer. Android delivers all observer events on a single shared thread, so
+ * the listener must not do any real work when it is called.
+ */
+public class AndroidDirectoryWatcher implements DirectoryWatcher {
+
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+            | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private final Listener listener;
+
+    // Observers stop working if they are garbage-collected, so we must hold on to every one of them.
+    private final Map<String, FileObserver> observers = new HashMap<>();
+
+    public AndroidDirectoryWatcher(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void watch(@NonNull String path) {
+        if (observers.containsKey(path)) {
+            return;
+        }
+        // The File-based constructor would be nicer, but it needs API 29.
+        @SuppressWarnings("deprecation")
+        FileObserver observer = new FileObserver(path, EVENTS) {
+            @Override
+            public void onEvent(int event, String name) {
+                // The kernel also sends some housekeeping events that we never asked for.
+                if ((event & EVENTS) != 0) {
+                    listener.onDirectoryChanged(path);
+                }
+            }
+        };
+        observer.startWatching();
+        observers.put(path, observer);
+    }
+
+    @Override
+    public synchronized void unwatch(@NonNull String path) {
+        FileObserver observer = observers.remove(path);
+        if (observer != null) {
+            observer.stopWatching();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        observers.values().forEach(FileObserver::stopWatching);
+        observers.clear();
+    }
+}
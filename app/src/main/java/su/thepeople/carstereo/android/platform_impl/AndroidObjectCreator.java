@@ -3,33 +3,103 @@ package su.thepeople.carstereo.android.platform_impl;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 import su.thepeople.carstereo.android.database.AndroidDatabase;
 import su.thepeople.carstereo.android.database.DBAlbum;
 import su.thepeople.carstereo.android.database.DBBand;
 import su.thepeople.carstereo.android.database.DBSong;
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
 import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.util.SortKeys;
 
 /**
  * This class handles object creation via our AndroidDatabase object, which persists to an sqlite database.
+ *
+ * The given callback is run after every change, so that anything holding onto a copy of a table's contents (such as
+ * the fetchers' random samplers) can throw it away.
  */
 public class AndroidObjectCreator implements ObjectCreator {
     private final AndroidDatabase database;
+    private final Runnable onTablesChanged;
 
-    public AndroidObjectCreator(AndroidDatabase database) {
+    public AndroidObjectCreator(AndroidDatabase database, Runnable onTablesChanged) {
         this.database = database;
+        this.onTablesChanged = onTablesChanged;
     }
 
     public long createBand(String bandName) {
-        return database.bandDAO().insert(new DBBand(bandName));
+        long bandId = database.bandDAO().insert(new DBBand(bandName, SortKeys.forName(bandName)));
+        onTablesChanged.run();
+        return bandId;
     }
 
     public long createAlbum(@NonNull String name, long bandId, @Nullable Integer year) {
-        DBAlbum newAlbum = new DBAlbum(name, bandId, year);
-        return database.albumDAO().insert(newAlbum);
+        DBAlbum newAlbum = new DBAlbum(name, bandId, year, SortKeys.forName(name));
+        long albumId = database.albumDAO().insert(newAlbum);
+        onTablesChanged.run();
+        return albumId;
+    }
+
+    public long createSong(@NonNull String name, long rootId, @NonNull String relativePath, long bandId, @Nullable Long albumId, @Nullable Integer year) {
+        DBSong newSong = new DBSong(name, rootId, relativePath, bandId, albumId, year, null);
+        long songId = database.songDAO().insert(newSong);
+        onTablesChanged.run();
+        return songId;
+    }
+
+    /*
+     * Each bulk creation costs a single sqlite transaction (and a single flush to storage), no matter how many objects
+     * are created.
+     */
+    public List<Long> createAlbums(List<NewAlbum> albums) {
+        List<DBAlbum> newAlbums = albums.stream()
+                .map(a -> new DBAlbum(a.name, a.bandId, a.year, SortKeys.forName(a.name)))
+                .collect(Collectors.toList());
+        List<Long> albumIds = database.albumDAO().insertAll(newAlbums);
+        onTablesChanged.run();
+        return albumIds;
+    }
+
+    // Songs that already have an ID replace the existing row, so they keep their ID.
+    public List<Long> createSongs(List<NewSong> songs) {
+        List<DBSong> newSongs = songs.stream()
+                .map(AndroidObjectCreator::toDB)
+                .collect(Collectors.toList());
+        List<Long> songIds = database.songDAO().insertAll(newSongs);
+        onTablesChanged.run();
+        return songIds;
+    }
+
+    private static DBSong toDB(NewSong song) {
+        DBSong dbSong = new DBSong(song.name, song.rootId, song.relativePath, song.bandId, song.albumId, song.year, song.fingerprint);
+        if (song.uid != null) {
+            dbSong.setUid(song.uid);
+        }
+        return dbSong;
+    }
+
+    public void deleteBand(long bandId) {
+        database.runInTransaction(() -> {
+            database.songDAO().deleteAllForBand(bandId);
+            database.albumDAO().deleteAllForBand(bandId);
+            database.bandDAO().delete(bandId);
+        });
+        onTablesChanged.run();
+    }
+
+    public void deleteAlbum(long albumId) {
+        database.runInTransaction(() -> {
+            database.songDAO().deleteAllForAlbum(albumId);
+            database.albumDAO().delete(albumId);
+        });
+        onTablesChanged.run();
     }
 
-    public long createSong(@NonNull String name, @NonNull String fullPath, long bandId, @Nullable Long albumId, @Nullable Integer year) {
-        DBSong newSong = new DBSong(name, fullPath, bandId, albumId, year);
-        return database.songDAO().insert(newSong);
+    public void deleteSong(long songId) {
+        database.songDAO().delete(songId);
+        onTablesChanged.run();
     }
 }
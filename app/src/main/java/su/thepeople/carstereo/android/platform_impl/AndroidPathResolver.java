@@ -0,0 +1,67 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import su.thepeople.carstereo.android.database.DBSongRoot;
+import su.thepeople.carstereo.android.database.DBSongRootDAO;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
+
+/**
+ * Android-specific methods for translating song locations, backed by our sqlite database.
+ *
+ * Every root is cached in memory the first time it is needed. So, resolving a song's path is usually just a map lookup.
+ */
+public class AndroidPathResolver implements PathResolver {
+
+    private final DBSongRootDAO dbDao;
+    private final Map<String, Long> idsByPath = new HashMap<>();
+    private final Map<Long, String> pathsById = new HashMap<>();
+
+    public AndroidPathResolver(DBSongRootDAO dbDao) {
+        this.dbDao = dbDao;
+    }
+
+    private void remember(DBSongRoot root) {
+        idsByPath.put(root.getPath(), root.getUid());
+        pathsById.put(root.getUid(), root.getPath());
+    }
+
+    @Override
+    public synchronized long getRootId(@NonNull String rootPath) {
+        Long id = idsByPath.get(rootPath);
+        if (id == null) {
+            DBSongRoot root = dbDao.lookup(rootPath);
+            if (root == null) {
+                root = new DBSongRoot(rootPath);
+                root.setUid(dbDao.insert(root));
+            }
+            remember(root);
+            id = root.getUid();
+        }
+        return id;
+    }
+
+    @Nullable
+    @Override
+    public synchronized String getRootPath(long rootId) {
+        String rootPath = pathsById.get(rootId);
+        if (rootPath == null) {
+            // Most likely, we have just started up. Roots are small, so we might as well load all of them at once.
+            dbDao.getAll().forEach(this::remember);
+            rootPath = pathsById.get(rootId);
+        }
+        return rootPath;
+    }
+
+    @NonNull
+    @Override
+    public String getFullPath(@NonNull Song song) {
+        return getRootPath(song.getRootId()) + File.separator + song.getRelativePath();
+    }
+}
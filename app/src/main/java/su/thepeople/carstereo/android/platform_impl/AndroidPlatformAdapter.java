@@ -2,35 +2,64 @@ package su.thepeople.carstereo.android.platform_impl;
 
 import android.os.Looper;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import su.thepeople.carstereo.android.database.AndroidDatabase;
 import su.thepeople.carstereo.lib.backend.MusicControllerThread;
+import su.thepeople.carstereo.lib.platform_interface.DirectoryWatcher;
 import su.thepeople.carstereo.lib.platform_interface.MessagingSystem;
 import su.thepeople.carstereo.lib.platform_interface.LogProvider;
 import su.thepeople.carstereo.lib.platform_interface.MusicPlayer;
 import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
 import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
 import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.platform_interface.ScanManifest;
 import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
 import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
 
 public class AndroidPlatformAdapter implements PlatformAdapter {
 
     private final AndroidObjectCreator objectCreator;
+    private final AndroidScanManifest scanManifest;
+    private final AndroidPathResolver pathResolver;
     private final AndroidBandFetcher bandFetcher;
     private final AndroidAlbumFetcher albumFetcher;
     private final AndroidSongFetcher songFetcher;
     private final AndroidLogProvider logProvider;
+    private final AtomicLong generation = new AtomicLong();
+
+    // Whether to keep the next song loaded in a second system player, so that there is no gap between songs.
+    private final boolean gaplessPlayback;
 
-    public AndroidPlatformAdapter(AndroidDatabase database) {
-        this.objectCreator = new AndroidObjectCreator(database);
+    public AndroidPlatformAdapter(AndroidDatabase database, boolean gaplessPlayback) {
+        this.gaplessPlayback = gaplessPlayback;
         this.bandFetcher = new AndroidBandFetcher(database.bandDAO());
         this.albumFetcher = new AndroidAlbumFetcher(database.albumDAO());
         this.songFetcher = new AndroidSongFetcher(database.songDAO());
+        this.objectCreator = new AndroidObjectCreator(database, this::onTablesChanged);
+        this.scanManifest = new AndroidScanManifest(database.directoryDAO(), database.scanCheckpointDAO(), database.songDAO());
+        this.pathResolver = new AndroidPathResolver(database.songRootDAO());
         this.logProvider = new AndroidLogProvider();
     }
 
+    private void onTablesChanged() {
+        generation.incrementAndGet();
+        bandFetcher.onTableChanged();
+        albumFetcher.onTableChanged();
+        songFetcher.onTableChanged();
+    }
+
     @Override public ObjectCreator getObjectCreator() { return objectCreator; }
 
+    @Override public ScanManifest getScanManifest() { return scanManifest; }
+
+    @Override public PathResolver getPathResolver() { return pathResolver; }
+
+    @Override public DirectoryWatcher createDirectoryWatcher(DirectoryWatcher.Listener listener) {
+        return new AndroidDirectoryWatcher(listener);
+    }
+
     @Override public BandFetcher getBandFetcher() {
         return bandFetcher;
     }
@@ -41,8 +70,8 @@ public class AndroidPlatformAdapter implements PlatformAdapter {
         return songFetcher;
     }
 
-    @Override public MusicPlayer createMusicPlayer(MusicControllerThread controller) {
-        return new AndroidMusicPlayer(controller);
+    @Override public MusicPlayer createMusicPlayer(MusicControllerThread controller, PathResolver pathResolver) {
+        return new AndroidMusicPlayer(controller, pathResolver, gaplessPlayback);
     }
 
     @Override public LogProvider getLogProvider() { return logProvider; }
@@ -55,4 +84,10 @@ public class AndroidPlatformAdapter implements PlatformAdapter {
         return new AndroidMessagingSystem(Looper.myLooper());
     }
 
+    @Override public long getLibraryGeneration() { return generation.get(); }
+
+    @Override public void onLibraryChanged() {
+        // The fetchers' random samplers are already refreshed as each change is written, so there is nothing to update.
+    }
+
 }
@@ -0,0 +1,99 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.android.database.DBDirectory;
+import su.thepeople.carstereo.android.database.DBDirectoryDAO;
+import su.thepeople.carstereo.android.database.DBScanCheckpoint;
+import su.thepeople.carstereo.android.database.DBScanCheckpointDAO;
+import su.thepeople.carstereo.android.database.DBSong;
+import su.thepeople.carstereo.android.database.DBSongDAO;
+import su.thepeople.carstereo.lib.data.DirectoryRecord;
+import su.thepeople.carstereo.lib.data.ScanCheckpoint;
+import su.thepeople.carstereo.lib.data.SongFile;
+import su.thepeople.carstereo.lib.platform_interface.ScanManifest;
+
+/**
+ * Android-specific methods for persisting the scan manifest in our sqlite database.
+ */
+public class AndroidScanManifest implements ScanManifest {
+
+    private final DBDirectoryDAO dbDao;
+    private final DBScanCheckpointDAO checkpointDao;
+    private final DBSongDAO songDao;
+
+    public AndroidScanManifest(DBDirectoryDAO dbDao, DBScanCheckpointDAO checkpointDao, DBSongDAO songDao) {
+        this.dbDao = dbDao;
+        this.checkpointDao = checkpointDao;
+        this.songDao = songDao;
+    }
+
+    @Nullable
+    private static DirectoryRecord fromDB(@Nullable DBDirectory dbDir) {
+        if (dbDir == null) {
+            return null;
+        } else {
+            return new DirectoryRecord(dbDir.getPath(), dbDir.getParentPath(), dbDir.getLastModified(), dbDir.getEntryCount(), dbDir.getBandId(), dbDir.getAlbumId());
+        }
+    }
+
+    @Nullable
+    public DirectoryRecord lookup(@NonNull String path) {
+        return fromDB(dbDao.lookup(path));
+    }
+
+    public List<DirectoryRecord> getChildren(@NonNull String parentPath) {
+        return dbDao.getChildren(parentPath).stream().map(AndroidScanManifest::fromDB).collect(Collectors.toList());
+    }
+
+    public void record(@NonNull DirectoryRecord record) {
+        dbDao.insert(new DBDirectory(record.getPath(), record.getParentPath(), record.getLastModified(), record.getEntryCount(), record.getBandId(), record.getAlbumId()));
+    }
+
+    // Every descendant's path starts with the directory's path plus a separator, so this is a range scan over the primary key.
+    public void forget(@NonNull String path) {
+        dbDao.deleteTree(path, path + File.separatorChar, path + (char) (File.separatorChar + 1));
+    }
+
+    /*
+     * Every string that starts with the prefix sorts between the prefix itself, and the prefix with its last character
+     * bumped up by one. So, this is a range scan over the fingerprint index.
+     */
+    public List<SongFile> findSongsByFingerprint(@NonNull String fingerprintPrefix) {
+        int last = fingerprintPrefix.length() - 1;
+        String end = fingerprintPrefix.substring(0, last) + (char) (fingerprintPrefix.charAt(last) + 1);
+        return fromDBs(() -> songDao.getByFingerprintRange(fingerprintPrefix, end));
+    }
+
+    public List<SongFile> getSongFilesForBand(long bandId) {
+        return fromDBs(() -> songDao.getAllForBandOrdered(bandId));
+    }
+
+    public List<SongFile> getSongFilesForAlbum(long albumId) {
+        return fromDBs(() -> songDao.getAllForAlbum(albumId));
+    }
+
+    private static List<SongFile> fromDBs(Supplier<List<DBSong>> supplier) {
+        return supplier.get().stream().map(s -> new SongFile(AndroidSongFetcher.fromDB(s), s.getFingerprint())).collect(Collectors.toList());
+    }
+
+    @Nullable
+    public ScanCheckpoint getCheckpoint() {
+        DBScanCheckpoint dbCheckpoint = checkpointDao.get();
+        if (dbCheckpoint == null) {
+            return null;
+        } else {
+            return new ScanCheckpoint(dbCheckpoint.getGeneration(), dbCheckpoint.isComplete(), dbCheckpoint.getLastCompletedBand(), dbCheckpoint.getPendingBandPath(), dbCheckpoint.getPendingBandId());
+        }
+    }
+
+    public void saveCheckpoint(@NonNull ScanCheckpoint checkpoint) {
+        checkpointDao.insert(new DBScanCheckpoint(DBScanCheckpoint.SINGLETON_ID, checkpoint.getGeneration(), checkpoint.isComplete(), checkpoint.getLastCompletedBand(), checkpoint.getPendingBandPath(), checkpoint.getPendingBandId()));
+    }
+}
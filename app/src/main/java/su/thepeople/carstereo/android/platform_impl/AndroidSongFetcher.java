@@ -2,7 +2,12 @@ package su.thepeople.carstereo.android.platform_impl;
 
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -17,17 +22,24 @@ import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
 public class AndroidSongFetcher implements SongFetcher {
 
     private final DBSongDAO dbDao;
+    private final IdSampler sampler;
 
     public AndroidSongFetcher(DBSongDAO dbDao) {
         this.dbDao = dbDao;
+        this.sampler = new IdSampler(dbDao::getAllIds);
+    }
+
+    // Must be called whenever songs are added or removed.
+    void onTableChanged() {
+        sampler.invalidate();
     }
 
     @Nullable
-    private static Song fromDB(DBSong song) {
+    static Song fromDB(DBSong song) {
         if (song == null) {
             return null;
         } else {
-            return new Song(song.getUid(), song.getName(), song.getFullPath(), song.getBandId(), song.getAlbumId(), song.getYear());
+            return new Song(song.getUid(), song.getName(), song.getRootId(), song.getRelativePath(), song.getBandId(), song.getAlbumId(), song.getYear());
         }
     }
 
@@ -35,14 +47,22 @@ public class AndroidSongFetcher implements SongFetcher {
         return supplier.get().stream().map(AndroidSongFetcher::fromDB).collect(Collectors.toList());
     }
 
-    public List<Song> getAllForBandShuffled(Long bandId) {
-        return fromDBs(() -> dbDao.getAllForBandShuffled(bandId));
-    }
-
     public List<Song> getAllForBandOrdered(Long bandId) {
         return fromDBs(() -> dbDao.getAllForBandOrdered(bandId));
     }
 
+    public List<Long> getAllIds() {
+        return dbDao.getAllIds();
+    }
+
+    public List<Long> getIdsForBand(Long bandId) {
+        return dbDao.getIdsForBand(bandId);
+    }
+
+    public List<Song> lookupAll(Collection<Long> songIds) {
+        return fromDBs(() -> dbDao.lookupAll(songIds));
+    }
+
     public List<Song> getSomeForBand(Long bandId, Integer maxSize) {
         return fromDBs(() -> dbDao.getSomeForBand(bandId, maxSize));
     }
@@ -51,8 +71,21 @@ public class AndroidSongFetcher implements SongFetcher {
         return fromDBs(() -> dbDao.getAllForAlbum(albumId));
     }
 
+    /**
+     * Only the chosen songs are read from the database. Sqlite hands them back in ID order, so we put them back into
+     * the order in which they were picked.
+     */
     public List<Song> getRandomBatch(int batchSize) {
-        return fromDBs(() -> dbDao.getRandomBatch(batchSize));
+        List<Long> picked = sampler.pick(batchSize);
+        if (picked.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Song> songsById = new HashMap<>();
+        fromDBs(() -> dbDao.lookupAll(picked)).forEach(song -> songsById.put(song.getUid(), song));
+        return picked.stream()
+                .map(songsById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
     public List<Integer> getYears() {
@@ -62,4 +95,14 @@ public class AndroidSongFetcher implements SongFetcher {
     public List<Song> getRandomBatchForEra(int startYear, int endYear, int batchSize) {
         return fromDBs(() -> dbDao.getRandomBatchForEra(startYear, endYear, batchSize));
     }
+
+    @Nullable
+    public Integer getNextYear(int year) {
+        return dbDao.getNextYear(year);
+    }
+
+    @Nullable
+    public Integer getPreviousYear(int year) {
+        return dbDao.getPreviousYear(year);
+    }
 }
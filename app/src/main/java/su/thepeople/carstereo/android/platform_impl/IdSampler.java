@@ -0,0 +1,74 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import su.thepeople.carstereo.lib.util.RandomSampling;
+
+/**
+ * Picks random IDs out of a database table, without asking sqlite to sort the whole table.
+ *
+ * "ORDER BY random() LIMIT n" makes sqlite generate a random number for every row, and then sort the entire table,
+ * just to return a handful of rows. Instead, we keep a dense array of every ID in the table, pick positions in that
+ * array, and let the caller look up only the chosen rows by primary key.
+ *
+ * The array is loaded on first use, and thrown away whenever the table changes. Each array remembers which version of
+ * the table it was loaded from, so that a load that was already running when the table changed is never used again.
+ */
+class IdSampler {
+
+    private final Supplier<List<Long>> idLoader;
+    private final Random random = new Random();
+
+    // Bumped every time the table changes.
+    private final AtomicLong generation = new AtomicLong();
+
+    private static class LoadedIds {
+        final long generation;
+        final long[] ids;
+
+        LoadedIds(long generation, long[] ids) {
+            this.generation = generation;
+            this.ids = ids;
+        }
+    }
+
+    private volatile LoadedIds loaded = null;
+
+    IdSampler(Supplier<List<Long>> idLoader) {
+        this.idLoader = idLoader;
+    }
+
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    private long[] getIds() {
+        LoadedIds current = loaded;
+        if (current == null || current.generation != generation.get()) {
+            synchronized (this) {
+                current = loaded;
+                long startGeneration = generation.get();
+                if (current == null || current.generation != startGeneration) {
+                    current = new LoadedIds(startGeneration, idLoader.get().stream().mapToLong(Long::longValue).toArray());
+                    loaded = current;
+                }
+            }
+        }
+        return current.ids;
+    }
+
+    // Returns up to count distinct IDs, in random order.
+    List<Long> pick(int count) {
+        long[] current = getIds();
+        int[] positions = RandomSampling.pickDistinct(random, current.length, count);
+        List<Long> picked = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            picked.add(current[position]);
+        }
+        return picked;
+    }
+}
@@ -0,0 +1,250 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import su.thepeople.carstereo.lib.data.SongInfo;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
+import su.thepeople.carstereo.lib.util.Log;
+
+/**
+ * Keeps track of which song is in which system player, and which songs are still to come.
+ *
+ * In gapless mode, there are two system players. While one plays the current song, the other (the "standby") loads
+ * the next song, and is chained to the first. The system then starts the next song the moment the current one ends,
+ * with no gap, and the two players swap roles. If the standby isn't ready in time (or can't load its song), we fall back
+ * to loading the next song into the current player, the same as without gapless mode.
+ */
+class PlaybackQueue {
+
+    private static final String LOG_ID = "Playback Queue";
+
+    // The player that is playing (or ready to play) the current song.
+    private SystemPlayer currentPlayer;
+
+    // In gapless mode, the player that is getting the next song ready. Null if we aren't in gapless mode.
+    private SystemPlayer standbyPlayer;
+
+    /**
+     * The system player will transition from playing to stopped and back (and other states too!) in the course of
+     * playing a series of songs. This boolean keeps track of whether we WANT the system player to be playing or not.
+     */
+    private boolean shouldBePlaying = false;
+
+    // Songs only know their location in compact form. This turns that into a real path, just before the song is loaded.
+    private final PathResolver pathResolver;
+
+    private final Runnable onSongAdvance;
+    private final Runnable onQueueEmpty;
+
+    // Which song is currently playing (or if we're paused, which song will play when we unpause)?
+    private SongInfo currentSong = null;
+    private boolean isCurrentPrepared = false;
+
+    // Which song is loaded into the standby player, and is it chained to the current player yet?
+    private SongInfo standbySong = null;
+    private boolean isStandbyChained = false;
+
+    /**
+     * Queued list of upcoming songs.
+     *
+     * Songs will be plucked from the front of this list and passed to a system player. If/when the list empties, we
+     * will ask for a new batch of songs.
+     */
+    private List<SongInfo> playlist = new ArrayList<>();
+
+    PlaybackQueue(SystemPlayer player, @Nullable SystemPlayer standbyPlayer, PathResolver pathResolver, Runnable onSongAdvance, Runnable onQueueEmpty) {
+        this.currentPlayer = player;
+        this.standbyPlayer = standbyPlayer;
+        this.pathResolver = pathResolver;
+        this.onSongAdvance = onSongAdvance;
+        this.onQueueEmpty = onQueueEmpty;
+    }
+
+    SongInfo getCurrentSong() {
+        return currentSong;
+    }
+
+    /**
+     * Called when a system player has loaded up a new song. The player will be stopped at this point, regardless of
+     * whether we want it to be stopped.
+     */
+    void onPrepared(SystemPlayer player) {
+        if (player == currentPlayer) {
+            isCurrentPrepared = true;
+            if (shouldBePlaying) {
+                Log.d(LOG_ID, "Starting playback of song that was recently loaded");
+                currentPlayer.start();
+            }
+            prepareStandby();
+        } else if (player == standbyPlayer && standbySong != null) {
+            Log.d(LOG_ID, "Next song is ready for gapless playback");
+            currentPlayer.setNext(standbyPlayer);
+            isStandbyChained = true;
+        }
+    }
+
+    /**
+     * Called when a system player has finished playing a song.
+     */
+    void onSongCompleted(SystemPlayer player) {
+        if (player != currentPlayer) {
+            return;
+        }
+        Log.d(LOG_ID, "Playback of song has completed");
+        if (shouldBePlaying) {
+            if (isStandbyChained) {
+                swapToStandby();
+            } else {
+                prepareNextSong();
+            }
+        }
+    }
+
+    /**
+     * A song that fails while it is the current song is treated as finished, which is the Android default (so this
+     * returns false, and the player goes on to report that the song completed). A song that fails to load into the
+     * standby player is skipped, without interrupting the current song.
+     */
+    boolean onError(SystemPlayer player, int what, int extra) {
+        if (player == standbyPlayer && standbySong != null) {
+            Log.w(LOG_ID, String.format("Unable to get next song ready (error %d, %d), skipping it", what, extra));
+            clearStandby();
+            prepareStandby();
+            return true;
+        }
+        return false;
+    }
+
+    void setPlaylist(List<SongInfo> playlist, boolean replaceCurrent) {
+        this.playlist = playlist;
+        Log.d(LOG_ID, "Replacing contents of playlist");
+        // Any song in the standby player came from the old playlist.
+        clearStandby();
+        if (replaceCurrent) {
+            prepareNextSong();
+        } else {
+            prepareStandby();
+        }
+    }
+
+    int getQueuedSongCount() {
+        return playlist.size() + ((standbySong == null) ? 0 : 1);
+    }
+
+    void prepareNextSong() {
+        if (isStandbyChained) {
+            swapToStandby();
+            return;
+        }
+        if (standbySong != null) {
+            // Still loading, so it's quicker to start again with the current player. The song goes back in the queue.
+            playlist.add(0, standbySong);
+            clearStandby();
+        }
+
+        if (!playlist.isEmpty()) {
+
+            // Pop off the first item in the to-play queue and play it.
+            SongInfo songInfo = playlist.remove(0);
+            String fullPath = pathResolver.getFullPath(songInfo.song);
+            Log.d(LOG_ID, String.format("Loading new song into system player: %s", fullPath));
+            isCurrentPrepared = false;
+            currentSong = songInfo;
+            try {
+                currentPlayer.load(fullPath);
+                onSongAdvance.run();
+            } catch (IOException e) {
+                Log.e(LOG_ID, String.format("Previously-available song was not readable from disk: %s", fullPath), e);
+                Log.d(LOG_ID, "Refusing to load system player with new song. Audio will pause until user intervenes");
+            }
+
+            // In gapless mode, we wait until the standby player needs a song before asking for more.
+            if (playlist.isEmpty() && standbyPlayer == null) {
+                Log.v(LOG_ID, "Playlist has been depleted. Notifying controller.");
+                onQueueEmpty.run();
+            }
+        } else {
+            Log.w(LOG_ID, "Playlist is empty. No song to load into system player.");
+        }
+    }
+
+    /**
+     * Makes the standby player the current one. The old current player becomes the new standby, and starts loading the
+     * song after that.
+     *
+     * When a song ends normally, the system has already started the standby player. But it doesn't do that when the
+     * song ended because of an error, or when we skip ahead, so we check rather than assume.
+     */
+    private void swapToStandby() {
+        SystemPlayer finishedPlayer = currentPlayer;
+        finishedPlayer.reset();
+        currentPlayer = standbyPlayer;
+        standbyPlayer = finishedPlayer;
+        currentSong = standbySong;
+        isCurrentPrepared = true;
+        standbySong = null;
+        isStandbyChained = false;
+        if (shouldBePlaying && !currentPlayer.isPlaying()) {
+            currentPlayer.start();
+        }
+        onSongAdvance.run();
+        prepareStandby();
+    }
+
+    private void clearStandby() {
+        if (standbySong != null) {
+            if (isStandbyChained) {
+                currentPlayer.setNext(null);
+                isStandbyChained = false;
+            }
+            standbyPlayer.reset();
+            standbySong = null;
+        }
+    }
+
+    /**
+     * In gapless mode, starts loading the next song into the standby player. This waits until the current song has been
+     * loaded, so that the two don't compete with each other.
+     */
+    private void prepareStandby() {
+        if (standbyPlayer == null || standbySong != null || !isCurrentPrepared) {
+            return;
+        }
+        while (!playlist.isEmpty()) {
+            SongInfo songInfo = playlist.remove(0);
+            String fullPath = pathResolver.getFullPath(songInfo.song);
+            try {
+                standbyPlayer.load(fullPath);
+                standbySong = songInfo;
+                return;
+            } catch (IOException e) {
+                // Not worth interrupting the current song over. Try the one after instead.
+                Log.e(LOG_ID, String.format("Upcoming song was not readable from disk, skipping it: %s", fullPath), e);
+            }
+        }
+        Log.v(LOG_ID, "Playlist has been depleted. Notifying controller.");
+        onQueueEmpty.run();
+    }
+
+    void play() {
+        if (!currentPlayer.isPlaying()) {
+            currentPlayer.start();
+        }
+        shouldBePlaying = true;
+    }
+
+    void pause() {
+        if (currentPlayer.isPlaying()) {
+            currentPlayer.pause();
+        }
+        shouldBePlaying = false;
+    }
+
+    void restartCurrent() {
+        currentPlayer.restart();
+    }
+}
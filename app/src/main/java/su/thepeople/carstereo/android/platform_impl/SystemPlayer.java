@@ -0,0 +1,31 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * The few things that the playback queue needs from a system player. On Android this is a MediaPlayer, but keeping the
+ * queue's bookkeeping away from MediaPlayer means that it can be tested without one.
+ *
+ * Loading is asynchronous: once the song is ready, the player tells the queue with onPrepared().
+ */
+interface SystemPlayer {
+
+    // Throws away whatever song was loaded, and starts loading the given file.
+    void load(String fullPath) throws IOException;
+
+    // Throws away whatever song was loaded, and leaves the player idle.
+    void reset();
+
+    void start();
+
+    void pause();
+
+    boolean isPlaying();
+
+    void restart();
+
+    // Has the given player start as soon as this one finishes its song. Null means nothing follows.
+    void setNext(@Nullable SystemPlayer next);
+}
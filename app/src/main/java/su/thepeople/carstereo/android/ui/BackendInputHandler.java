@@ -4,6 +4,7 @@ package su.thepeople.carstereo.android.ui;
 import android.util.Log;
 
 import su.thepeople.carstereo.lib.data.BackendStatus;
+import su.thepeople.carstereo.lib.data.ScanProgress;
 import su.thepeople.carstereo.lib.interthread.BackendException;
 import su.thepeople.carstereo.lib.platform_interface.UINotificationAPI;
 
@@ -24,6 +25,11 @@ public class BackendInputHandler extends UINotificationAPI {
         mainUI.updateBackendStatus(newStatus);
     }
 
+    @Override
+    protected void onScanProgress(ScanProgress progress) {
+        mainUI.updateScanProgress(progress);
+    }
+
     @Override
     protected void onBandListResponse(BandListWrapper wrapper) {
         Log.d(LOG_ID, "Received band list from backend");
@@ -13,17 +13,21 @@ import android.widget.ToggleButton;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.List;
+import java.util.stream.Stream;
 
 import su.thepeople.carstereo.android.database.AndroidDatabase;
 import su.thepeople.carstereo.android.platform_impl.AndroidMessagingSystem;
 import su.thepeople.carstereo.android.platform_impl.AndroidPlatformAdapter;
 import su.thepeople.carstereo.lib.backend.Backend;
+import su.thepeople.carstereo.lib.backend.CollectionWatcher;
 import su.thepeople.carstereo.lib.data.Album;
 import su.thepeople.carstereo.lib.data.Band;
 import su.thepeople.carstereo.lib.data.BackendStatus;
 import su.thepeople.carstereo.lib.data.NoLibraryException;
+import su.thepeople.carstereo.lib.data.ScanProgress;
 import su.thepeople.carstereo.lib.interthread.BackendException;
 import su.thepeople.carstereo.lib.backend.MusicControllerThread;
 import su.thepeople.carstereo.lib.backend.MusicControllerThread.PlayModeEnum;
@@ -56,12 +60,12 @@ public class MainUI extends AppCompatActivity {
     private UserInputHandler userInputHandler;
     private BackendInputHandler backendInputHandler;
 
-    // Android-specific behavior needed for backend to work
-    private AndroidPlatformAdapter androidAdapter;
-
     // Other parts of the app that we need to communicate with.
     //private MusicControllerAPI controller;
     private MusicControllerThread musicThread;
+    private Backend backend;
+    // Only touched on the UI thread, so that onDestroy can't miss a watcher that is still being set up.
+    private CollectionWatcher collectionWatcher;
     private ScreenLocker screenLocker;
 
     // Activity IDs for the sub-activities that we expect to supply us with a result.
@@ -138,28 +142,68 @@ public class MainUI extends AppCompatActivity {
          * 2) We (might) need to initialize our Database. This may not be done on the main thread.
          * 3) We need to set up and run a music controller thread.  This setup can be done on the main thread.
          * 4) Once the music controller thread is spawned, finally we can set up callbacks for our UI widgets. This can also be done on the main thread
+         *
+         * A first-time scan can take a long time. So, step 3 happens as soon as the scan reports that there are songs to
+         * play (see updateScanProgress), rather than waiting for step 2 to finish. If we already have a library snapshot
+         * from last time, then we don't wait for step 2 at all.
          */
-        Runnable postDBInitTasks = () -> {
-            musicThread = backend.spawnMusicThread(backendInputHandler);
-            userInputHandler = new UserInputHandler(musicThread.getApi(), this);
-            hookupUICallbacks();
-        };
+        this.backend = backend;
+        Runnable postDBInitTasks = this::startMusicIfNecessary;
 
         Runnable tempThreadTask = () -> {
+            File[] mediaDirs = getApplicationContext().getExternalMediaDirs();
             try {
-                database.initializeIfNecessary(backend, getApplicationContext().getExternalMediaDirs());
+                database.initializeIfNecessary(backend, mediaDirs, backendInputHandler);
             } catch (NoLibraryException e) {
                 backendInputHandler.reportException(e);
                 return;
             }
-            runOnUiThread(postDBInitTasks);
+            backend.ensureSnapshot();
+            CollectionWatcher watcher = backend.watchCollection(() -> Stream.of(mediaDirs)).orElse(null);
+            runOnUiThread(() -> {
+                if (watcher != null && isDestroyed()) {
+                    watcher.stop();
+                } else {
+                    collectionWatcher = watcher;
+                }
+                postDBInitTasks.run();
+            });
 
         };
 
         initializeWidgets(backend);
+        if (backend.hasSnapshot()) {
+            startMusicIfNecessary();
+        }
         Thread tempThread = new Thread(tempThreadTask);
         tempThread.start();
     }
+
+    // This is only called on the main thread, so there is no danger of starting two music threads.
+    private void startMusicIfNecessary() {
+        if (musicThread == null) {
+            musicThread = backend.spawnMusicThread(backendInputHandler, new File(getFilesDir(), "shuffle.order"));
+            userInputHandler = new UserInputHandler(musicThread.getApi(), this);
+            hookupUICallbacks();
+        }
+    }
+
+    protected void updateScanProgress(ScanProgress progress) {
+        Log.d(LOG_ID, String.format("Scanned %d of %d bands", progress.bandsScanned, progress.bandsTotal));
+        if (progress.isComplete) {
+            messageWidget.setText(R.string.empty);
+        } else {
+            messageWidget.setText(getResources().getString(R.string.scan_progress, progress.bandsScanned, progress.bandsTotal));
+        }
+        if (progress.songsAdded > 0 || progress.isResumed) {
+            if (musicThread == null) {
+                startMusicIfNecessary();
+            } else {
+                musicThread.getApi().libraryGrew(progress.bandsScanned);
+            }
+        }
+    }
+
     @SuppressLint("InlinedApi")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -174,8 +218,9 @@ public class MainUI extends AppCompatActivity {
         backendInputHandler.initializeMessaging(mainThreadMessenger);
 
         AndroidDatabase database = AndroidDatabase.getDatabase(getApplicationContext());
-        androidAdapter = new AndroidPlatformAdapter(database);
-        Backend backend = Backend.initializePlatform(androidAdapter);
+        boolean gapless = getResources().getBoolean(R.bool.gapless_playback);
+        // The backend outlives this activity, so the Android-specific behavior that it needs is only set up the first time.
+        Backend backend = Backend.initializePlatform(() -> new AndroidPlatformAdapter(database, gapless), new File(getFilesDir(), "library.snapshot"));
 
         screenLocker = new ScreenLocker(this);
 
@@ -199,10 +244,23 @@ public class MainUI extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         Log.d(LOG_ID, "Main activity being destroyed");
-        musicThread.abandon();
+        if (collectionWatcher != null) {
+            collectionWatcher.stop();
+        }
+        if (musicThread != null) {
+            musicThread.abandon();
+        }
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW && backend != null) {
+            backend.trimMemory();
+        }
+    }
+
     public void onAudioConnectionMade() {
         Log.d(LOG_ID, "Now connected to audio device. Forcing screen to stay on");
         screenLocker.ensureScreenOn();
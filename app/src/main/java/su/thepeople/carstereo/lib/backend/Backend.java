@@ -1,6 +1,7 @@
 package su.thepeople.carstereo.lib.backend;
 
 import java.io.File;
+import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -11,31 +12,103 @@ import su.thepeople.carstereo.lib.util.Log;
 public class Backend {
     private static volatile Backend instance;
 
+    private final SnapshotPlatformAdapter snapshotAdapter;
+    private final CachingPlatformAdapter cachingAdapter;
     private final PlatformAdapter adapter;
 
-    private Backend(PlatformAdapter adapter) {
-        this.adapter = adapter;
+    private Backend(PlatformAdapter platform, File snapshotFile) {
+        // Lookups are served from a memory-mapped snapshot of the library, so that we can start playing without touching
+        // the platform's database. On top of that, the whole library is indexed in memory (built from the snapshot
+        // rather than the database), and the most recently used bands and albums are cached.
+        snapshotAdapter = new SnapshotPlatformAdapter(platform, snapshotFile);
+        cachingAdapter = new CachingPlatformAdapter(new IndexedPlatformAdapter(snapshotAdapter));
+        adapter = cachingAdapter;
     }
 
-    public static Backend initializePlatform(PlatformAdapter adapter) {
+    /**
+     * Sets up the backend the first time this is called, and returns the same backend every time after that. The UI can
+     * be destroyed and created again many times (every time the screen rotates, for example), but the library and its
+     * in-memory copies are only set up once, so the platform is only asked for the first time.
+     */
+    public static Backend initializePlatform(Supplier<PlatformAdapter> platform, File snapshotFile) {
         if (instance == null) {
             synchronized(Backend.class) {
                 if (instance == null) {
-                    Log.setProvider(adapter.getLogProvider());
-                    instance = new Backend(adapter);
+                    PlatformAdapter newPlatform = platform.get();
+                    Log.setProvider(newPlatform.getLogProvider());
+                    instance = new Backend(newPlatform, snapshotFile);
                 }
             }
         }
         return instance;
     }
 
+    // Returns true if there is a library snapshot with songs in it, in which case music can start before the database is ready.
+    public boolean hasSnapshot() {
+        return snapshotAdapter.hasSnapshot();
+    }
+
+    /**
+     * Writes a library snapshot if there isn't one yet. This should be called once the library is known to be complete.
+     */
+    public void ensureSnapshot() {
+        snapshotAdapter.ensureSnapshot();
+    }
+
+    /**
+     * Throws away whatever can be rebuilt later, because the system is running low on memory.
+     */
+    public void trimMemory() {
+        cachingAdapter.trimMemory();
+    }
+
     public void scanCollection(Supplier<Stream<File>> collectionSearchDirs) {
         MusicScanner scanner = new MusicScanner(adapter, collectionSearchDirs);
         scanner.scan();
     }
 
-    public MusicControllerThread spawnMusicThread(UINotificationAPI uiNotifier) {
-        MusicControllerThread musicThread = new MusicControllerThread(uiNotifier, adapter);
+    /**
+     * Same as above, but reports progress to the UI after each band. Bands are usable as soon as they are reported, so
+     * the UI may start a music thread without waiting for the scan to finish.
+     */
+    public void scanCollection(Supplier<Stream<File>> collectionSearchDirs, UINotificationAPI uiNotifier) {
+        MusicScanner scanner = new MusicScanner(adapter, collectionSearchDirs);
+        scanner.setProgressListener(uiNotifier::notifyScanProgress);
+        scanner.scan();
+    }
+
+    /**
+     * Finishes off a scan that was interrupted part-way through. Progress is reported the same way as a first-time scan.
+     */
+    public void resumeScan(Supplier<Stream<File>> collectionSearchDirs, UINotificationAPI uiNotifier) {
+        MusicScanner scanner = new MusicScanner(adapter, collectionSearchDirs);
+        scanner.setProgressListener(uiNotifier::notifyScanProgress);
+        scanner.resume();
+    }
+
+    public void rescanCollection(Supplier<Stream<File>> collectionSearchDirs) {
+        MusicScanner scanner = new MusicScanner(adapter, collectionSearchDirs);
+        scanner.rescan();
+    }
+
+    /**
+     * Starts watching the collection for on-disk changes. This should only be done once the library has been scanned.
+     * Returns nothing if there is no collection to watch.
+     */
+    public Optional<CollectionWatcher> watchCollection(Supplier<Stream<File>> collectionSearchDirs) {
+        MusicScanner scanner = new MusicScanner(adapter, collectionSearchDirs);
+        return scanner.findMcotpRoot().map(root -> {
+            CollectionWatcher watcher = new CollectionWatcher(adapter, scanner, root.getAbsolutePath());
+            watcher.start();
+            return watcher;
+        });
+    }
+
+    /**
+     * The shuffle file is where the order of shuffle mode is kept between runs. It is created if it doesn't exist.
+     */
+    public MusicControllerThread spawnMusicThread(UINotificationAPI uiNotifier, File shuffleFile) {
+        MusicControllerThread musicThread = new MusicControllerThread(uiNotifier, adapter, shuffleFile);
         musicThread.startThread();
         return musicThread;
     }
@@ -0,0 +1,148 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+
+/**
+ * Everything that sequential band mode needs in order to move around within one band's songs, worked out once.
+ *
+ * We keep the IDs of the band's songs in play order, and refer to each song by its position in that order. Finding a
+ * song's position, finding where an album starts, and finding the album after a given one are all binary searches, so
+ * moving around never needs to go back to the database. The songs themselves are only looked up as they are played
+ * (see SongIdPlaylist).
+ */
+class BandNavigation {
+
+    private static final int NOT_FOUND = -1;
+
+    private final long bandId;
+    private final long generation;
+
+    // The band's songs, in play order (chronological, then by position on the album).
+    private final long[] songIds;
+
+    // Song IDs in ID order, and the play-order position of each one.
+    private final long[] sortedSongIds;
+    private final int[] songPositions;
+
+    // Album IDs in ID order, and the rank of each one when the band's albums are in order.
+    private final long[] sortedAlbumIds;
+    private final int[] albumRanks;
+
+    // By album rank: the play-order position of the album's first track, or NOT_FOUND if the album has no songs.
+    private final int[] albumStarts;
+
+    /**
+     * Reads the band's songs and albums from the platform. The given generation should be read before calling this, so
+     * that if the library changes while we are busy, the result will look out-of-date rather than up-to-date.
+     */
+    static BandNavigation build(PlatformAdapter database, long bandId, long generation) {
+        List<Song> songs = database.getSongFetcher().getAllForBandOrdered(bandId);
+        List<Album> albums = database.getAlbumFetcher().getAllForBand(bandId);
+        return new BandNavigation(bandId, generation, songs, albums);
+    }
+
+    private BandNavigation(long bandId, long generation, List<Song> songs, List<Album> albums) {
+        this.bandId = bandId;
+        this.generation = generation;
+        songIds = new long[songs.size()];
+        for (int i = 0; i < songIds.length; i++) {
+            songIds[i] = songs.get(i).getUid();
+        }
+
+        Integer[] byId = new Integer[songs.size()];
+        for (int i = 0; i < byId.length; i++) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, (a, b) -> Long.compare(songs.get(a).getUid(), songs.get(b).getUid()));
+        sortedSongIds = new long[byId.length];
+        songPositions = new int[byId.length];
+        for (int i = 0; i < byId.length; i++) {
+            sortedSongIds[i] = songs.get(byId[i]).getUid();
+            songPositions[i] = byId[i];
+        }
+
+        Integer[] albumsById = new Integer[albums.size()];
+        for (int i = 0; i < albumsById.length; i++) {
+            albumsById[i] = i;
+        }
+        Arrays.sort(albumsById, (a, b) -> Long.compare(albums.get(a).getUid(), albums.get(b).getUid()));
+        sortedAlbumIds = new long[albumsById.length];
+        albumRanks = new int[albumsById.length];
+        for (int i = 0; i < albumsById.length; i++) {
+            sortedAlbumIds[i] = albums.get(albumsById[i]).getUid();
+            albumRanks[i] = albumsById[i];
+        }
+
+        // An album starts at its first track (by file name, same as SongFetcher.getAllForAlbum), wherever that is.
+        Map<Long, Integer> firstTracks = new HashMap<>();
+        for (int position = 0; position < songs.size(); position++) {
+            Song song = songs.get(position);
+            if (song.getAlbumId() != null) {
+                Integer first = firstTracks.get(song.getAlbumId());
+                if (first == null || song.getRelativePath().compareTo(songs.get(first).getRelativePath()) < 0) {
+                    firstTracks.put(song.getAlbumId(), position);
+                }
+            }
+        }
+        albumStarts = new int[albums.size()];
+        for (int rank = 0; rank < albums.size(); rank++) {
+            albumStarts[rank] = firstTracks.getOrDefault(albums.get(rank).getUid(), NOT_FOUND);
+        }
+    }
+
+    long getBandId() {
+        return bandId;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    // Returns the play-order position of the given song, or a negative number if the band doesn't have it.
+    int findSong(long songId) {
+        int index = Arrays.binarySearch(sortedSongIds, songId);
+        return (index < 0) ? NOT_FOUND : songPositions[index];
+    }
+
+    // Returns the play-order position of the album's first track, or a negative number if there isn't one.
+    int findAlbumStart(long albumId) {
+        int index = Arrays.binarySearch(sortedAlbumIds, albumId);
+        return (index < 0) ? NOT_FOUND : albumStarts[albumRanks[index]];
+    }
+
+    // Returns the play-order position of the first track of the album after the given one, or a negative number.
+    int findNextAlbumStart(long albumId) {
+        int index = Arrays.binarySearch(sortedAlbumIds, albumId);
+        if (index >= 0) {
+            for (int rank = albumRanks[index] + 1; rank < albumStarts.length; rank++) {
+                if (albumStarts[rank] != NOT_FOUND) {
+                    return albumStarts[rank];
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Returns the band's songs, starting at the given position and wrapping around to the beginning. If keepSong is
+     * false, then the song at the given position is left out entirely. If the position is negative, then we just
+     * return the band's songs from the beginning.
+     */
+    SongIdPlaylist getPlaylist(int position, boolean keepSong) {
+        if (position < 0) {
+            return new SongIdPlaylist(songIds.clone());
+        }
+        int start = keepSong ? position : position + 1;
+        long[] playlist = new long[songIds.length - start + position];
+        System.arraycopy(songIds, start, playlist, 0, songIds.length - start);
+        System.arraycopy(songIds, 0, playlist, songIds.length - start, position);
+        return new SongIdPlaylist(playlist);
+    }
+}
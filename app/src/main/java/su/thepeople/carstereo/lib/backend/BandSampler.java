@@ -0,0 +1,90 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import su.thepeople.carstereo.lib.data.BandCounts;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.util.AliasTable;
+import su.thepeople.carstereo.lib.util.Log;
+
+/**
+ * Picks bands at random, for the modes that play a few songs by one band and then move on to another.
+ *
+ * We have three different strategies for choosing a band, and we "average" them by picking one of the three at random
+ * each time:
+ *
+ * - Choose uniformly from all bands. This biases the song choices towards songs by bands with only a small number of
+ *   songs in the collection. For example, say we have 1 song by band A and 100 songs by band B. We will choose band A
+ *   with the same frequency we choose band B. Therefore A's single song is 100 times more likely to be chosen than
+ *   each of B's songs.
+ *
+ * - Choose a random song, then choose that band. This biases the song choices towards songs by bands with a large
+ *   number of songs in the collection. For example, say band A's albums each have 21 short songs on them, whereas
+ *   band B's albums have 7 long songs. Even if we have the same quantity of music, we'll choose A three times more
+ *   often than B. This will roughly equalize the time spent listening to A and B, but not the number of songs.
+ *
+ * - Finally, choose a random album, then choose that band. This biases the selection towards bands with lots of
+ *   albums in the collection. This partially counteracts the worst of the biases in the other two strategies.
+ *
+ * Rather than actually picking a random song or album, we weight each band by how many songs or albums it has, which
+ * gives exactly the same odds. The weights go into alias tables, so each pick takes the same (tiny) amount of time
+ * however big the collection is. The tables are only rebuilt when the library changes.
+ */
+public class BandSampler {
+
+    private static final String LOG_TAG = "Band Sampler";
+
+    private final PlatformAdapter database;
+    private final Random random = new Random();
+
+    // Everything below is guarded by "this", and describes the library as of builtGeneration.
+    private boolean isBuilt = false;
+    private long builtGeneration;
+    private long[] bandIds;
+    private AliasTable bySong;
+    private AliasTable byAlbum;
+
+    public BandSampler(PlatformAdapter database) {
+        this.database = database;
+    }
+
+    private void rebuildIfNecessary() {
+        long generation = database.getLibraryGeneration();
+        if (isBuilt && generation == builtGeneration) {
+            return;
+        }
+        List<BandCounts> counts = database.getBandFetcher().getCounts();
+        bandIds = new long[counts.size()];
+        double[] songWeights = new double[counts.size()];
+        double[] albumWeights = new double[counts.size()];
+        for (int i = 0; i < counts.size(); i++) {
+            bandIds[i] = counts.get(i).getBandId();
+            songWeights[i] = counts.get(i).getSongCount();
+            albumWeights[i] = counts.get(i).getAlbumCount();
+        }
+        bySong = new AliasTable(songWeights);
+        byAlbum = new AliasTable(albumWeights);
+        builtGeneration = generation;
+        isBuilt = true;
+        Log.d(LOG_TAG, String.format("Built band weights for %d bands", bandIds.length));
+    }
+
+    // Returns a random band, or nothing if the collection is empty.
+    public synchronized Optional<Long> pick() {
+        rebuildIfNecessary();
+        if (bandIds.length == 0) {
+            return Optional.empty();
+        }
+        int strategy = random.nextInt(3);
+        if (strategy == 1 && bySong.size() > 0) {
+            return Optional.of(bandIds[bySong.pick(random)]);
+        } else if (strategy == 2 && byAlbum.size() > 0) {
+            return Optional.of(bandIds[byAlbum.pick(random)]);
+        } else {
+            // Also covers the (odd) case of a collection that has bands but no songs or no albums.
+            return Optional.of(bandIds[random.nextInt(bandIds.length)]);
+        }
+    }
+}
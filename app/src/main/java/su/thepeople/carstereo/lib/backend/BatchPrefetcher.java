@@ -0,0 +1,126 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.data.SongInfo;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.util.Log;
+
+/**
+ * Gets the next batch of songs ready ahead of time, so that moving on to the next song never has to wait for the
+ * database.
+ *
+ * Each batch is picked by a song provider, and then hydrated (its bands and albums looked up). Both happen on a single
+ * worker thread. Every batch goes through that thread, even one that is needed right now, so song providers are only
+ * ever used from one thread, in order. (The one exception is LockSpeculator, which picks the first batch of a provider
+ * before anyone else has seen it.)
+ *
+ * At most one batch is prefetched at a time, and it belongs to the provider that picked it. If the provider has been
+ * replaced by the time the batch is wanted (because the mode changed), or the library has changed since the batch was
+ * picked (so it might have songs that are gone), the batch is stale, and is thrown away.
+ */
+class BatchPrefetcher {
+
+    private static final String LOG_TAG = "Batch Prefetcher";
+
+    // A batch of songs, along with everything the player needs to know about them.
+    static class PreparedBatch {
+        final List<? extends Song> songs;
+        final List<SongInfo> songInfos;
+
+        PreparedBatch(List<? extends Song> songs, List<SongInfo> songInfos) {
+            this.songs = songs;
+            this.songInfos = songInfos;
+        }
+    }
+
+    private final PlatformAdapter database;
+    private final Function<List<? extends Song>, List<SongInfo>> hydrator;
+    private final ExecutorService executor;
+
+    // The provider that the pending batch came from, and the library it was picked from. Only used from the music
+    // controller's thread.
+    private SongProvider pendingProvider = null;
+    private long pendingGeneration = 0;
+    private Future<PreparedBatch> pending = null;
+
+    BatchPrefetcher(PlatformAdapter database, Function<List<? extends Song>, List<SongInfo>> hydrator) {
+        this.database = database;
+        this.hydrator = hydrator;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Batch Prefetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private Future<PreparedBatch> submit(SongProvider provider) {
+        return executor.submit(() -> {
+            List<? extends Song> songs = provider.getNextBatch();
+            return new PreparedBatch(songs, hydrator.apply(songs));
+        });
+    }
+
+    /**
+     * Starts getting the provider's next batch ready, unless that is already under way.
+     */
+    void prefetch(SongProvider provider) {
+        if (isPendingFor(provider)) {
+            return;
+        }
+        cancel();
+        Log.d(LOG_TAG, "Prefetching next batch");
+        pendingProvider = provider;
+        pendingGeneration = database.getLibraryGeneration();
+        pending = submit(provider);
+    }
+
+    private boolean isPendingFor(SongProvider provider) {
+        return pending != null && pendingProvider == provider && pendingGeneration == database.getLibraryGeneration();
+    }
+
+    /**
+     * Throws away any prefetched batch. A batch that is already being picked still finishes, but nobody will use it.
+     */
+    void cancel() {
+        if (pending != null) {
+            Log.d(LOG_TAG, "Discarding stale prefetch");
+            pending.cancel(false);
+            pending = null;
+            pendingProvider = null;
+        }
+    }
+
+    /**
+     * Returns the provider's next batch. If it was prefetched, this usually doesn't have to wait at all. Otherwise, the
+     * batch is picked now (after any stale batch that is still being worked on).
+     */
+    PreparedBatch take(SongProvider provider) {
+        Future<PreparedBatch> batch;
+        if (isPendingFor(provider)) {
+            batch = pending;
+            pending = null;
+            pendingProvider = null;
+        } else {
+            cancel();
+            batch = submit(provider);
+        }
+        try {
+            return batch.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            // The music thread is being shut down, so there is nobody to play these songs anyway.
+            Thread.currentThread().interrupt();
+            return new PreparedBatch(new ArrayList<>(), new ArrayList<>());
+        }
+    }
+}
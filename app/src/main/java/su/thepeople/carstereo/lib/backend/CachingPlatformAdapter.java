@@ -0,0 +1,257 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
+import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+import su.thepeople.carstereo.lib.platform_interface.DirectoryWatcher;
+import su.thepeople.carstereo.lib.platform_interface.LogProvider;
+import su.thepeople.carstereo.lib.platform_interface.MessagingSystem;
+import su.thepeople.carstereo.lib.platform_interface.MusicPlayer;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.platform_interface.ScanManifest;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+import su.thepeople.carstereo.lib.util.Log;
+import su.thepeople.carstereo.lib.util.LruCache;
+
+/**
+ * Wraps a platform adapter, and remembers the bands and albums that have been looked up recently.
+ *
+ * The music controller asks for the same few bands and albums over and over (every batch of songs, every album list,
+ * every time album mode moves on). Each cache is bounded, and throws away the least recently used entries when full.
+ * The full band list is kept as well, already in display order, so that opening the band chooser costs nothing.
+ *
+ * Each write to the library (which in practice means the scanner) bumps a generation counter and empties the caches.
+ * A lookup that was already in progress when that happened won't put its (possibly out-of-date) result in the cache.
+ */
+public class CachingPlatformAdapter implements PlatformAdapter {
+
+    private static final String LOG_TAG = "Caching Adapter";
+
+    private static final int MAX_BANDS = 256;
+    private static final int MAX_ALBUMS = 1024;
+    private static final int MAX_ALBUM_LISTS = 64;
+
+    private final PlatformAdapter delegate;
+    private final ObjectCreator objectCreator;
+    private final BandFetcher bandFetcher = new CachingBandFetcher();
+    private final AlbumFetcher albumFetcher = new CachingAlbumFetcher();
+
+    // All guarded by "this"
+    private final LruCache<Long, Band> bands = new LruCache<>(MAX_BANDS);
+    private final LruCache<Long, Album> albums = new LruCache<>(MAX_ALBUMS);
+    private final LruCache<Long, List<Album>> albumLists = new LruCache<>(MAX_ALBUM_LISTS);
+    private List<Band> bandList = null;
+    private long bandListGeneration = 0;
+    private long generation = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    public CachingPlatformAdapter(PlatformAdapter delegate) {
+        this.delegate = delegate;
+        this.objectCreator = new InvalidatingObjectCreator(delegate, this::invalidate);
+    }
+
+    private synchronized void invalidate() {
+        generation++;
+        bands.clear();
+        albums.clear();
+        albumLists.clear();
+        bandList = null;
+    }
+
+    /**
+     * Empties the caches, because the system is running low on memory. They will fill up again as things are used.
+     * Lookups that are already in progress don't put their results back, the same as when the library changes.
+     */
+    public void trimMemory() {
+        Log.d(LOG_TAG, String.format("Trimming caches. So far: %d hits, %d misses", getHitCount(), getMissCount()));
+        invalidate();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private synchronized long startMiss() {
+        missCount++;
+        return generation;
+    }
+
+    private synchronized <K, V> V getCachedValue(LruCache<K, V> cache, K key) {
+        V value = cache.get(key);
+        if (value != null) {
+            hitCount++;
+        }
+        return value;
+    }
+
+    private synchronized <K, V> void putIfCurrent(LruCache<K, V> cache, K key, V value, long startGeneration) {
+        if (value != null && generation == startGeneration) {
+            cache.put(key, value);
+        }
+    }
+
+    private <V> V getCached(LruCache<Long, V> cache, long key, Function<Long, V> loader) {
+        V value = getCachedValue(cache, key);
+        if (value == null) {
+            long startGeneration = startMiss();
+            value = loader.apply(key);
+            putIfCurrent(cache, key, value, startGeneration);
+        }
+        return value;
+    }
+
+    // Looks up whatever it can in the cache, and the rest in one go with the loader. Results are in the same order as ids.
+    private <V> List<V> getAllCached(LruCache<Long, V> cache, Collection<Long> ids, Function<Collection<Long>, List<V>> loader, Function<V, Long> getId) {
+        Map<Long, V> found = new HashMap<>();
+        List<Long> missingIds = new ArrayList<>();
+        for (long id : ids) {
+            V value = getCachedValue(cache, id);
+            if (value == null) {
+                missingIds.add(id);
+            } else {
+                found.put(id, value);
+            }
+        }
+        if (!missingIds.isEmpty()) {
+            long startGeneration = startMiss();
+            for (V value : loader.apply(missingIds)) {
+                found.put(getId.apply(value), value);
+                putIfCurrent(cache, getId.apply(value), value, startGeneration);
+            }
+        }
+        List<V> values = new ArrayList<>(found.size());
+        for (long id : ids) {
+            V value = found.remove(id);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    // Only used if nothing has changed since it was fetched, neither through us nor in the library underneath us.
+    private synchronized List<Band> getCachedBandList(long libraryGeneration) {
+        if (bandList != null && bandListGeneration == libraryGeneration) {
+            hitCount++;
+            return bandList;
+        }
+        return null;
+    }
+
+    private synchronized void putBandListIfCurrent(List<Band> list, long libraryGeneration, long startGeneration) {
+        if (generation == startGeneration) {
+            bandList = list;
+            bandListGeneration = libraryGeneration;
+        }
+    }
+
+    private class CachingBandFetcher implements BandFetcher {
+        /**
+         * The list comes back sorted from the platform, and is shared between callers, so nobody is allowed to change it.
+         */
+        @Override
+        public List<Band> getAll() {
+            long libraryGeneration = delegate.getLibraryGeneration();
+            List<Band> list = getCachedBandList(libraryGeneration);
+            if (list == null) {
+                long startGeneration = startMiss();
+                list = Collections.unmodifiableList(delegate.getBandFetcher().getAll());
+                putBandListIfCurrent(list, libraryGeneration, startGeneration);
+            }
+            return list;
+        }
+
+        @Override
+        public Band lookup(long bandId) {
+            return getCached(bands, bandId, id -> delegate.getBandFetcher().lookup(id));
+        }
+
+        @Override
+        public List<Band> lookupAll(Collection<Long> ids) {
+            return getAllCached(bands, ids, missingIds -> delegate.getBandFetcher().lookupAll(missingIds), Band::getUid);
+        }
+
+        @Override
+        public Band getRandom() {
+            return delegate.getBandFetcher().getRandom();
+        }
+
+        @Override
+        public List<BandCounts> getCounts() {
+            return delegate.getBandFetcher().getCounts();
+        }
+    }
+
+    private class CachingAlbumFetcher implements AlbumFetcher {
+        @Override
+        public List<Album> getAllForBand(long bandId) {
+            // Callers are free to change the list they get back, so they each get their own copy.
+            return new ArrayList<>(getCached(albumLists, bandId, id -> delegate.getAlbumFetcher().getAllForBand(id)));
+        }
+
+        @Override
+        public Album lookup(long albumId) {
+            return getCached(albums, albumId, id -> delegate.getAlbumFetcher().lookup(id));
+        }
+
+        @Override
+        public List<Album> lookupAll(Collection<Long> ids) {
+            return getAllCached(albums, ids, missingIds -> delegate.getAlbumFetcher().lookupAll(missingIds), Album::getUid);
+        }
+
+        @Override
+        public Album getRandom() {
+            return delegate.getAlbumFetcher().getRandom();
+        }
+    }
+
+    @Override public ObjectCreator getObjectCreator() { return objectCreator; }
+
+    @Override public ScanManifest getScanManifest() { return delegate.getScanManifest(); }
+
+    @Override public PathResolver getPathResolver() { return delegate.getPathResolver(); }
+
+    @Override public DirectoryWatcher createDirectoryWatcher(DirectoryWatcher.Listener listener) {
+        return delegate.createDirectoryWatcher(listener);
+    }
+
+    @Override public BandFetcher getBandFetcher() { return bandFetcher; }
+
+    @Override public AlbumFetcher getAlbumFetcher() { return albumFetcher; }
+
+    @Override public SongFetcher getSongFetcher() { return delegate.getSongFetcher(); }
+
+    @Override public MusicPlayer createMusicPlayer(MusicControllerThread controller, PathResolver pathResolver) {
+        return delegate.createMusicPlayer(controller, pathResolver);
+    }
+
+    @Override public LogProvider getLogProvider() { return delegate.getLogProvider(); }
+
+    @Override public long getLibraryGeneration() { return delegate.getLibraryGeneration(); }
+
+    @Override public MessagingSystem createMessagingSystemForCurrentThread() {
+        return delegate.createMessagingSystemForCurrentThread();
+    }
+
+    @Override public void onLibraryChanged() {
+        delegate.onLibraryChanged();
+        invalidate();
+    }
+}
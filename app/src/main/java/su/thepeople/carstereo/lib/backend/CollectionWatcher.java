@@ -0,0 +1,121 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import su.thepeople.carstereo.lib.data.DirectoryRecord;
+import su.thepeople.carstereo.lib.platform_interface.DirectoryWatcher;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.platform_interface.ScanManifest;
+import su.thepeople.carstereo.lib.util.Log;
+
+/**
+ * Keeps the library up-to-date while the app is running, so that newly-copied albums show up without a restart.
+ *
+ * Every directory in the scan manifest (the collection root, each band directory, and each album directory) is
+ * watched. Copying an album onto the disk produces a flurry of change events, so events are debounced per directory:
+ * a directory is only re-examined once it has been quiet for a little while.
+ *
+ * All updates happen on a single low-priority background thread, one at a time. Changes to the collection root cause
+ * an incremental rescan of the whole collection. Changes anywhere else only cause the affected band to be rescanned.
+ * Either way, unchanged directories are skipped, so updates are cheap.
+ */
+public class CollectionWatcher implements DirectoryWatcher.Listener {
+
+    private static final String LOG_TAG = "Collection Watcher";
+    private static final long QUIET_PERIOD_MS = 3000;
+
+    private final ScanManifest manifest;
+    private final MusicScanner scanner;
+    private final String rootPath;
+    private final DirectoryWatcher watcher;
+    private final ScheduledExecutorService updateExecutor;
+
+    // Updates that are waiting for their directory to go quiet, keyed by directory path.
+    private final Map<String, ScheduledFuture<?>> pendingUpdates = new HashMap<>();
+
+    // Only used on the update thread.
+    private final Set<String> watchedPaths = new HashSet<>();
+
+    public CollectionWatcher(PlatformAdapter adapter, MusicScanner scanner, String rootPath) {
+        this.manifest = adapter.getScanManifest();
+        this.scanner = scanner;
+        this.rootPath = rootPath;
+        this.watcher = adapter.createDirectoryWatcher(this);
+        this.updateExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Collection Watcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public void start() {
+        updateExecutor.execute(this::refreshWatchedPaths);
+    }
+
+    public void stop() {
+        updateExecutor.shutdownNow();
+        watcher.close();
+    }
+
+    @Override
+    public void onDirectoryChanged(String path) {
+        synchronized (pendingUpdates) {
+            if (updateExecutor.isShutdown()) {
+                return;
+            }
+            ScheduledFuture<?> pending = pendingUpdates.get(path);
+            if (pending != null) {
+                // Still busy. Start the quiet period over again.
+                pending.cancel(false);
+            }
+            pendingUpdates.put(path, updateExecutor.schedule(() -> applyUpdate(path), QUIET_PERIOD_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void applyUpdate(String path) {
+        synchronized (pendingUpdates) {
+            pendingUpdates.remove(path);
+        }
+        Log.d(LOG_TAG, String.format("Directory %s has changed", path));
+        try {
+            if (path.equals(rootPath)) {
+                scanner.rescan();
+            } else {
+                DirectoryRecord record = manifest.lookup(path);
+                if (record == null) {
+                    // This directory has already been removed from the library.
+                    return;
+                }
+                boolean isBandDir = record.getParentPath().equals(rootPath);
+                scanner.rescanBand(isBandDir ? path : record.getParentPath());
+            }
+            refreshWatchedPaths();
+        } catch (RuntimeException e) {
+            // A bad update should not stop us from noticing later changes.
+            Log.e(LOG_TAG, String.format("Unable to update library for %s", path), e);
+        }
+    }
+
+    // Makes sure that we are watching exactly those directories that are in the scan manifest.
+    private void refreshWatchedPaths() {
+        Set<String> wanted = new HashSet<>();
+        wanted.add(rootPath);
+        manifest.getChildren(rootPath).forEach(band -> {
+            wanted.add(band.getPath());
+            manifest.getChildren(band.getPath()).forEach(subdir -> wanted.add(subdir.getPath()));
+        });
+
+        watchedPaths.stream().filter(p -> !wanted.contains(p)).forEach(watcher::unwatch);
+        wanted.stream().filter(p -> !watchedPaths.contains(p)).forEach(watcher::watch);
+        watchedPaths.clear();
+        watchedPaths.addAll(wanted);
+    }
+}
@@ -0,0 +1,53 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A snapshot of a single directory's contents, as read from disk by a DirectoryReader.
+ *
+ * Items are sorted by name, so that the scanner always visits them in the same order, no matter what order the
+ * filesystem happens to return them in.
+ */
+public class DirectoryListing {
+
+    /**
+     * A single item inside the directory. The full path is built once, when the directory is read, by gluing the name
+     * onto the directory's own path. Size and timestamp are only filled in for files.
+     */
+    public static class Entry {
+        public final String name;
+        public final String path;
+        public final long size;
+        public final long lastModified;
+
+        public Entry(String name, String path) {
+            this(name, path, 0, 0);
+        }
+
+        public Entry(String name, String path, long size, long lastModified) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public final String path;
+    public final String name;
+    public final long lastModified;
+    public final int entryCount;
+    public final List<Entry> subdirs;
+    public final List<Entry> files;
+
+    public DirectoryListing(String path, String name, long lastModified, int entryCount, List<Entry> subdirs, List<Entry> files) {
+        this.path = path;
+        this.name = name;
+        this.lastModified = lastModified;
+        this.entryCount = entryCount;
+        this.subdirs = subdirs;
+        this.files = files;
+        subdirs.sort(Comparator.comparing(e -> e.name));
+        files.sort(Comparator.comparing(e -> e.name));
+    }
+}
@@ -0,0 +1,11 @@
+package su.thepeople.carstereo.lib.backend;
+
+/**
+ * Strategy for reading directories from disk. The scanner spends most of its time in here, so different platforms or
+ * filesystems might prefer different approaches.
+ */
+public interface DirectoryReader {
+
+    // Returns the contents of the given directory. An unreadable directory is treated as empty.
+    DirectoryListing read(String path);
+}
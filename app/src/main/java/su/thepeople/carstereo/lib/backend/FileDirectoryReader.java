@@ -0,0 +1,37 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads directories using plain old java.io.File.
+ *
+ * This needs several system calls for each item: one to list it, and then separate calls to find out whether it is a
+ * directory or a file, and how big and how old each file is.
+ */
+public class FileDirectoryReader implements DirectoryReader {
+
+    @Override
+    public DirectoryListing read(String path) {
+        File dir = new File(path);
+
+        // Read the timestamp before the contents, so that anything added mid-scan will be caught by the next scan.
+        long lastModified = dir.lastModified();
+        List<DirectoryListing.Entry> subdirs = new ArrayList<>();
+        List<DirectoryListing.Entry> files = new ArrayList<>();
+        int count = 0;
+        File[] contents = dir.listFiles();
+        if (contents != null) {
+            for (File f : contents) {
+                count++;
+                if (f.isDirectory()) {
+                    subdirs.add(new DirectoryListing.Entry(f.getName(), f.getAbsolutePath()));
+                } else if (f.isFile()) {
+                    files.add(new DirectoryListing.Entry(f.getName(), f.getAbsolutePath(), f.length(), f.lastModified()));
+                }
+            }
+        }
+        return new DirectoryListing(path, dir.getName(), lastModified, count, subdirs, files);
+    }
+}
@@ -0,0 +1,140 @@
+package su.thepeople.carstereo.lib.backend;
+
+import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+import su.thepeople.carstereo.lib.platform_interface.DirectoryWatcher;
+import su.thepeople.carstereo.lib.platform_interface.LogProvider;
+import su.thepeople.carstereo.lib.platform_interface.MessagingSystem;
+import su.thepeople.carstereo.lib.platform_interface.MusicPlayer;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.platform_interface.ScanManifest;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+import su.thepeople.carstereo.lib.util.Log;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Wraps a platform adapter, so that all lookups are served from an in-memory LibraryIndex.
+ *
+ * The index is built from the wrapped platform the first time anyone asks for a fetcher, and again at the end of every
+ * scan that changes the library. Everything that writes still goes to the wrapped platform.
+ *
+ * As soon as anything writes to the library, the index is thrown away, and lookups go to the wrapped platform until
+ * the scan is finished (whether or not it succeeds). A build that was already in progress when the write happened is
+ * never used.
+ */
+public class IndexedPlatformAdapter implements PlatformAdapter {
+
+    private static final String LOG_TAG = "Indexed Adapter";
+
+    private final PlatformAdapter delegate;
+    private final ObjectCreator objectCreator;
+
+    // Only one thread builds at a time. Anyone else who needs an index waits for that build, rather than doing their own.
+    private final Object buildLock = new Object();
+
+    @Nullable
+    private volatile LibraryIndex index;
+
+    // Guarded by "this". Bumped on every write, so that we can tell if the library changed during a build.
+    private long generation = 0;
+    private boolean isChanging = false;
+
+    public IndexedPlatformAdapter(PlatformAdapter delegate) {
+        this.delegate = delegate;
+        this.objectCreator = new InvalidatingObjectCreator(delegate, this::invalidate);
+    }
+
+    private synchronized void invalidate() {
+        generation++;
+        isChanging = true;
+        if (index != null) {
+            Log.d(LOG_TAG, "Library is changing, no longer using index");
+            index = null;
+        }
+    }
+
+    @Nullable
+    private LibraryIndex getIndex() {
+        LibraryIndex current = index;
+        if (current != null) {
+            return current;
+        }
+        synchronized (buildLock) {
+            long startGeneration;
+            synchronized (this) {
+                if (index != null || isChanging) {
+                    return index;
+                }
+                startGeneration = generation;
+            }
+            long startTime = System.currentTimeMillis();
+            LibraryIndex built = LibraryIndex.build(delegate);
+            synchronized (this) {
+                if (generation != startGeneration) {
+                    Log.d(LOG_TAG, "Library changed while building index, throwing it away");
+                    return null;
+                }
+                index = built;
+            }
+            long bytesPerSong = built.estimateBytesPerSong();
+            Log.d(LOG_TAG, String.format("Built index of %d songs in %d ms, using about %d KB (%d bytes per song)",
+                    built.getSongCount(), System.currentTimeMillis() - startTime, built.estimateBytes() / 1024, bytesPerSong));
+            if (bytesPerSong > LibraryIndex.BYTES_PER_SONG_BUDGET) {
+                Log.w(LOG_TAG, String.format("Index uses %d bytes per song, over the budget of %d", bytesPerSong, LibraryIndex.BYTES_PER_SONG_BUDGET));
+            }
+            return built;
+        }
+    }
+
+    @Override public ObjectCreator getObjectCreator() { return objectCreator; }
+
+    @Override public ScanManifest getScanManifest() { return delegate.getScanManifest(); }
+
+    @Override public PathResolver getPathResolver() { return delegate.getPathResolver(); }
+
+    @Override public DirectoryWatcher createDirectoryWatcher(DirectoryWatcher.Listener listener) {
+        return delegate.createDirectoryWatcher(listener);
+    }
+
+    @Override public BandFetcher getBandFetcher() {
+        LibraryIndex current = getIndex();
+        return (current == null) ? delegate.getBandFetcher() : current.getBandFetcher();
+    }
+
+    @Override public AlbumFetcher getAlbumFetcher() {
+        LibraryIndex current = getIndex();
+        return (current == null) ? delegate.getAlbumFetcher() : current.getAlbumFetcher();
+    }
+
+    @Override public SongFetcher getSongFetcher() {
+        LibraryIndex current = getIndex();
+        return (current == null) ? delegate.getSongFetcher() : current.getSongFetcher();
+    }
+
+    @Override public MusicPlayer createMusicPlayer(MusicControllerThread controller, PathResolver pathResolver) {
+        return delegate.createMusicPlayer(controller, pathResolver);
+    }
+
+    @Override public LogProvider getLogProvider() { return delegate.getLogProvider(); }
+
+    @Override public long getLibraryGeneration() { return delegate.getLibraryGeneration(); }
+
+    @Override public MessagingSystem createMessagingSystemForCurrentThread() {
+        return delegate.createMessagingSystemForCurrentThread();
+    }
+
+    /**
+     * Lets the wrapped platform catch up first (which might mean writing a new snapshot), and then builds a new index
+     * from it straight away, so that the next lookup doesn't have to wait.
+     */
+    @Override public void onLibraryChanged() {
+        delegate.onLibraryChanged();
+        synchronized (this) {
+            isChanging = false;
+            index = null;
+        }
+        getIndex();
+    }
+}
@@ -0,0 +1,73 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.List;
+
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Passes everything through to the wrapped platform's object creator, but calls the given callback before each write.
+ * Used by platform decorators that keep their own copy of the library, so they can drop it as soon as it goes stale.
+ */
+class InvalidatingObjectCreator implements ObjectCreator {
+
+    private final PlatformAdapter delegate;
+    private final Runnable invalidate;
+
+    InvalidatingObjectCreator(PlatformAdapter delegate, Runnable invalidate) {
+        this.delegate = delegate;
+        this.invalidate = invalidate;
+    }
+
+    @Override
+    public long createBand(String bandName) {
+        invalidate.run();
+        return delegate.getObjectCreator().createBand(bandName);
+    }
+
+    @Override
+    public long createAlbum(@NonNull String name, long bandId, @Nullable Integer year) {
+        invalidate.run();
+        return delegate.getObjectCreator().createAlbum(name, bandId, year);
+    }
+
+    @Override
+    public long createSong(@NonNull String name, long rootId, @NonNull String relativePath, long bandId, @Nullable Long albumId, @Nullable Integer year) {
+        invalidate.run();
+        return delegate.getObjectCreator().createSong(name, rootId, relativePath, bandId, albumId, year);
+    }
+
+    @Override
+    public List<Long> createAlbums(List<NewAlbum> albums) {
+        invalidate.run();
+        return delegate.getObjectCreator().createAlbums(albums);
+    }
+
+    @Override
+    public List<Long> createSongs(List<NewSong> songs) {
+        invalidate.run();
+        return delegate.getObjectCreator().createSongs(songs);
+    }
+
+    @Override
+    public void deleteBand(long bandId) {
+        invalidate.run();
+        delegate.getObjectCreator().deleteBand(bandId);
+    }
+
+    @Override
+    public void deleteAlbum(long albumId) {
+        invalidate.run();
+        delegate.getObjectCreator().deleteAlbum(albumId);
+    }
+
+    @Override
+    public void deleteSong(long songId) {
+        invalidate.run();
+        delegate.getObjectCreator().deleteSong(songId);
+    }
+}
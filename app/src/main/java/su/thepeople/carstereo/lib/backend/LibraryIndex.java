@@ -0,0 +1,458 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+import su.thepeople.carstereo.lib.util.Nullable;
+import su.thepeople.carstereo.lib.util.RandomSampling;
+
+/**
+ * A read-only copy of the whole library, held in memory.
+ *
+ * Bands, albums and songs are each stored as a set of parallel arrays ("structure of arrays"), sorted by unique ID so
+ * that lookups are a binary search. References between objects are stored as array indexes, and missing values are
+ * stored as sentinels, so there are no boxed Longs or Integers anywhere. Song objects are only created when a fetcher
+ * hands them out.
+ *
+ * Each one-to-many relationship (a band's albums, a band's songs, an album's songs) is stored in compressed sparse row
+ * form: one flat array of indexes, plus an offsets array that says where each owner's part of the flat array starts.
+ * The items for owner i are values[offsets[i]] up to (but not including) values[offsets[i+1]]. Songs are grouped by
+ * year in the same way, by a YearIndex.
+ */
+public class LibraryIndex {
+
+    /**
+     * How much memory we expect the index to use per song, going by estimateBytes(). Most of it is the song's name and
+     * file name. An index that goes over this still works, but is worth a look.
+     */
+    public static final int BYTES_PER_SONG_BUDGET = 256;
+
+    private static final int NO_ALBUM = -1;
+    private static final int NO_YEAR = YearIndex.NO_YEAR;
+
+    private final Random random = new Random();
+
+    // Bands, in ID order
+    private final long[] bandIds;
+    private final String[] bandNames;
+    private final int[] bandsByName;
+    private final int[] bandAlbumOffsets;
+    private final int[] bandAlbums;
+    private final int[] bandSongOffsets;
+    private final int[] bandSongs;
+
+    // Albums, in ID order
+    private final long[] albumIds;
+    private final int[] albumBands;
+    private final int[] albumYears;
+    private final String[] albumNames;
+    private final int[] albumSongOffsets;
+    private final int[] albumSongs;
+
+    // Songs, in ID order
+    private final long[] songIds;
+    private final int[] songBands;
+    private final int[] songAlbums;
+    private final int[] songYears;
+    private final int[] songRoots;
+    private final String[] songNames;
+    private final String[] songPaths;
+
+    // Song roots, in ID order
+    private final long[] rootIds;
+
+    private final YearIndex yearIndex;
+
+    private final BandFetcher bandFetcher = new IndexBandFetcher();
+    private final AlbumFetcher albumFetcher = new IndexAlbumFetcher();
+    private final SongFetcher songFetcher = new IndexSongFetcher();
+
+    /**
+     * Reads the entire library out of the given platform's fetchers. The orderings that the fetchers promise (bands by
+     * name, a band's albums and songs, an album's songs) are taken from the source, rather than worked out again here.
+     */
+    public static LibraryIndex build(PlatformAdapter source) {
+        List<Band> bandsInSortOrder = source.getBandFetcher().getAll();
+        Map<Long, List<Album>> albumsPerBand = new HashMap<>();
+        Map<Long, List<Song>> songsPerBand = new HashMap<>();
+        for (Band band : bandsInSortOrder) {
+            albumsPerBand.put(band.getUid(), source.getAlbumFetcher().getAllForBand(band.getUid()));
+            songsPerBand.put(band.getUid(), source.getSongFetcher().getAllForBandOrdered(band.getUid()));
+        }
+        return new LibraryIndex(bandsInSortOrder, albumsPerBand, songsPerBand);
+    }
+
+    // Flattens the given lists into CSR form. Returns {offsets, values}.
+    private static int[][] toCsr(List<List<Integer>> lists) {
+        int[] offsets = new int[lists.size() + 1];
+        for (int i = 0; i < lists.size(); i++) {
+            offsets[i + 1] = offsets[i] + lists.get(i).size();
+        }
+        int[] values = new int[offsets[lists.size()]];
+        for (int i = 0; i < lists.size(); i++) {
+            List<Integer> list = lists.get(i);
+            for (int j = 0; j < list.size(); j++) {
+                values[offsets[i] + j] = list.get(j);
+            }
+        }
+        return new int[][] {offsets, values};
+    }
+
+    private static int yearOrDefault(@Nullable Integer year) {
+        return (year == null) ? NO_YEAR : year;
+    }
+
+    private LibraryIndex(List<Band> bandsInSortOrder, Map<Long, List<Album>> albumsPerBand, Map<Long, List<Song>> songsPerBand) {
+        List<Band> bands = new ArrayList<>(bandsInSortOrder);
+        bands.sort(Comparator.comparingLong(Band::getUid));
+        List<Album> albums = new ArrayList<>();
+        albumsPerBand.values().forEach(albums::addAll);
+        albums.sort(Comparator.comparingLong(Album::getUid));
+        List<Song> songs = new ArrayList<>();
+        songsPerBand.values().forEach(songs::addAll);
+        songs.sort(Comparator.comparingLong(Song::getUid));
+        TreeSet<Long> roots = new TreeSet<>();
+        songs.forEach(song -> roots.add(song.getRootId()));
+
+        rootIds = roots.stream().mapToLong(Long::longValue).toArray();
+
+        bandIds = new long[bands.size()];
+        bandNames = new String[bands.size()];
+        for (int i = 0; i < bands.size(); i++) {
+            bandIds[i] = bands.get(i).getUid();
+            bandNames[i] = bands.get(i).getName();
+        }
+        bandsByName = new int[bands.size()];
+        for (int i = 0; i < bandsInSortOrder.size(); i++) {
+            bandsByName[i] = Arrays.binarySearch(bandIds, bandsInSortOrder.get(i).getUid());
+        }
+
+        albumIds = new long[albums.size()];
+        albumBands = new int[albums.size()];
+        albumYears = new int[albums.size()];
+        albumNames = new String[albums.size()];
+        for (int i = 0; i < albums.size(); i++) {
+            Album album = albums.get(i);
+            albumIds[i] = album.getUid();
+            albumBands[i] = Arrays.binarySearch(bandIds, album.getBandId());
+            albumYears[i] = yearOrDefault(album.getYear());
+            albumNames[i] = album.getName();
+        }
+
+        songIds = new long[songs.size()];
+        songBands = new int[songs.size()];
+        songAlbums = new int[songs.size()];
+        songYears = new int[songs.size()];
+        songRoots = new int[songs.size()];
+        songNames = new String[songs.size()];
+        songPaths = new String[songs.size()];
+        for (int i = 0; i < songs.size(); i++) {
+            Song song = songs.get(i);
+            songIds[i] = song.getUid();
+            songBands[i] = Arrays.binarySearch(bandIds, song.getBandId());
+            Long albumId = song.getAlbumId();
+            int albumIndex = (albumId == null) ? NO_ALBUM : Arrays.binarySearch(albumIds, albumId);
+            songAlbums[i] = (albumIndex < 0) ? NO_ALBUM : albumIndex;
+            songYears[i] = yearOrDefault(song.getYear());
+            songRoots[i] = Arrays.binarySearch(rootIds, song.getRootId());
+            songNames[i] = song.getName();
+            songPaths[i] = song.getRelativePath();
+        }
+
+        // Each band's albums and songs keep the order that the source gave them to us.
+        List<List<Integer>> albumsOfBands = new ArrayList<>();
+        List<List<Integer>> songsOfBands = new ArrayList<>();
+        for (long bandId : bandIds) {
+            List<Integer> bandAlbumList = new ArrayList<>();
+            albumsPerBand.get(bandId).forEach(album -> bandAlbumList.add(Arrays.binarySearch(albumIds, album.getUid())));
+            albumsOfBands.add(bandAlbumList);
+            List<Integer> bandSongList = new ArrayList<>();
+            songsPerBand.get(bandId).forEach(song -> bandSongList.add(Arrays.binarySearch(songIds, song.getUid())));
+            songsOfBands.add(bandSongList);
+        }
+        int[][] csr = toCsr(albumsOfBands);
+        bandAlbumOffsets = csr[0];
+        bandAlbums = csr[1];
+        csr = toCsr(songsOfBands);
+        bandSongOffsets = csr[0];
+        bandSongs = csr[1];
+
+        // Same ordering as SongFetcher.getAllForAlbum()
+        List<List<Integer>> songsOfAlbums = new ArrayList<>();
+        for (int i = 0; i < albumIds.length; i++) {
+            songsOfAlbums.add(new ArrayList<>());
+        }
+        for (int i = 0; i < songIds.length; i++) {
+            if (songAlbums[i] != NO_ALBUM) {
+                songsOfAlbums.get(songAlbums[i]).add(i);
+            }
+        }
+        songsOfAlbums.forEach(list -> list.sort(Comparator.comparing(song -> songPaths[song])));
+        csr = toCsr(songsOfAlbums);
+        albumSongOffsets = csr[0];
+        albumSongs = csr[1];
+
+        yearIndex = new YearIndex(songYears);
+    }
+
+    public BandFetcher getBandFetcher() {
+        return bandFetcher;
+    }
+
+    public AlbumFetcher getAlbumFetcher() {
+        return albumFetcher;
+    }
+
+    public SongFetcher getSongFetcher() {
+        return songFetcher;
+    }
+
+    public int getSongCount() {
+        return songIds.length;
+    }
+
+    public long estimateBytesPerSong() {
+        return (songIds.length == 0) ? 0 : estimateBytes() / songIds.length;
+    }
+
+    private static long estimateStringBytes(String[] strings) {
+        // Roughly: a reference, an object header, a length, and the characters themselves.
+        long bytes = 0;
+        for (String string : strings) {
+            bytes += 4 + ((string == null) ? 0 : 24 + 2L * string.length());
+        }
+        return bytes;
+    }
+
+    /**
+     * Roughly how much memory this index uses. Primitive arrays are counted exactly. Strings are estimated, since
+     * their real size depends on the VM.
+     */
+    public long estimateBytes() {
+        long ints = bandsByName.length + bandAlbumOffsets.length + bandAlbums.length + bandSongOffsets.length
+                + bandSongs.length + albumBands.length + albumYears.length + albumSongOffsets.length
+                + albumSongs.length + songBands.length + songAlbums.length + songYears.length + songRoots.length;
+        long longs = bandIds.length + albumIds.length + songIds.length + rootIds.length;
+        return 4 * ints + 8 * longs + yearIndex.estimateBytes() + estimateStringBytes(bandNames) + estimateStringBytes(albumNames)
+                + estimateStringBytes(songNames) + estimateStringBytes(songPaths);
+    }
+
+    private Band getBand(int index) {
+        return new Band(bandIds[index], bandNames[index]);
+    }
+
+    private Album getAlbum(int index) {
+        int year = albumYears[index];
+        return new Album(albumIds[index], albumNames[index], bandIds[albumBands[index]], (year == NO_YEAR) ? null : year);
+    }
+
+    private Song getSong(int index) {
+        int album = songAlbums[index];
+        int year = songYears[index];
+        return new Song(songIds[index], songNames[index], rootIds[songRoots[index]], songPaths[index],
+                bandIds[songBands[index]], (album == NO_ALBUM) ? null : albumIds[album], (year == NO_YEAR) ? null : year);
+    }
+
+    // Returns the songs referenced by values[first] up to (but not including) values[end].
+    private List<Song> getSongs(int[] values, int first, int end) {
+        List<Song> songs = new ArrayList<>(end - first);
+        for (int i = first; i < end; i++) {
+            songs.add(getSong(values[i]));
+        }
+        return songs;
+    }
+
+    // Returns up to maxSize songs, picked at random without repeats, from values[first] up to values[end].
+    private List<Song> getRandomSongs(int[] values, int first, int end, int maxSize) {
+        int[] positions = RandomSampling.pickDistinct(random, end - first, maxSize);
+        List<Song> songs = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            songs.add(getSong(values[first + position]));
+        }
+        return songs;
+    }
+
+    private class IndexBandFetcher implements BandFetcher {
+        @Override
+        public List<Band> getAll() {
+            List<Band> bands = new ArrayList<>(bandsByName.length);
+            for (int index : bandsByName) {
+                bands.add(getBand(index));
+            }
+            return bands;
+        }
+
+        @Override
+        public Band lookup(long bandId) {
+            int index = Arrays.binarySearch(bandIds, bandId);
+            return (index < 0) ? null : getBand(index);
+        }
+
+        @Override
+        public List<Band> lookupAll(Collection<Long> ids) {
+            List<Band> bands = new ArrayList<>(ids.size());
+            for (long bandId : ids) {
+                int index = Arrays.binarySearch(bandIds, bandId);
+                if (index >= 0) {
+                    bands.add(getBand(index));
+                }
+            }
+            return bands;
+        }
+
+        @Override
+        public Band getRandom() {
+            return (bandIds.length == 0) ? null : getBand(random.nextInt(bandIds.length));
+        }
+
+        @Override
+        public List<BandCounts> getCounts() {
+            List<BandCounts> counts = new ArrayList<>(bandIds.length);
+            for (int i = 0; i < bandIds.length; i++) {
+                counts.add(new BandCounts(bandIds[i], bandSongOffsets[i + 1] - bandSongOffsets[i], bandAlbumOffsets[i + 1] - bandAlbumOffsets[i]));
+            }
+            return counts;
+        }
+    }
+
+    private class IndexAlbumFetcher implements AlbumFetcher {
+        @Override
+        public List<Album> getAllForBand(long bandId) {
+            List<Album> albums = new ArrayList<>();
+            int band = Arrays.binarySearch(bandIds, bandId);
+            if (band >= 0) {
+                for (int i = bandAlbumOffsets[band]; i < bandAlbumOffsets[band + 1]; i++) {
+                    albums.add(getAlbum(bandAlbums[i]));
+                }
+            }
+            return albums;
+        }
+
+        @Override
+        public Album lookup(long albumId) {
+            int index = Arrays.binarySearch(albumIds, albumId);
+            return (index < 0) ? null : getAlbum(index);
+        }
+
+        @Override
+        public List<Album> lookupAll(Collection<Long> ids) {
+            List<Album> albums = new ArrayList<>(ids.size());
+            for (long albumId : ids) {
+                int index = Arrays.binarySearch(albumIds, albumId);
+                if (index >= 0) {
+                    albums.add(getAlbum(index));
+                }
+            }
+            return albums;
+        }
+
+        @Override
+        public Album getRandom() {
+            return (albumIds.length == 0) ? null : getAlbum(random.nextInt(albumIds.length));
+        }
+    }
+
+    private class IndexSongFetcher implements SongFetcher {
+        @Override
+        public List<Song> getAllForBandOrdered(Long bandId) {
+            int band = Arrays.binarySearch(bandIds, bandId);
+            return (band < 0) ? new ArrayList<>() : getSongs(bandSongs, bandSongOffsets[band], bandSongOffsets[band + 1]);
+        }
+
+        @Override
+        public List<Long> getAllIds() {
+            List<Long> ids = new ArrayList<>(songIds.length);
+            for (long songId : songIds) {
+                ids.add(songId);
+            }
+            return ids;
+        }
+
+        @Override
+        public List<Long> getIdsForBand(Long bandId) {
+            int band = Arrays.binarySearch(bandIds, bandId);
+            List<Long> ids = new ArrayList<>();
+            if (band >= 0) {
+                for (int i = bandSongOffsets[band]; i < bandSongOffsets[band + 1]; i++) {
+                    ids.add(songIds[bandSongs[i]]);
+                }
+            }
+            return ids;
+        }
+
+        @Override
+        public List<Song> lookupAll(Collection<Long> ids) {
+            List<Song> songs = new ArrayList<>(ids.size());
+            for (long songId : ids) {
+                int index = Arrays.binarySearch(songIds, songId);
+                if (index >= 0) {
+                    songs.add(getSong(index));
+                }
+            }
+            return songs;
+        }
+
+        @Override
+        public List<Song> getSomeForBand(Long bandId, Integer maxSize) {
+            int band = Arrays.binarySearch(bandIds, bandId);
+            return (band < 0) ? new ArrayList<>() : getRandomSongs(bandSongs, bandSongOffsets[band], bandSongOffsets[band + 1], maxSize);
+        }
+
+        @Override
+        public List<Song> getAllForAlbum(Long albumId) {
+            int album = Arrays.binarySearch(albumIds, albumId);
+            return (album < 0) ? new ArrayList<>() : getSongs(albumSongs, albumSongOffsets[album], albumSongOffsets[album + 1]);
+        }
+
+        @Override
+        public List<Song> getRandomBatch(int batchSize) {
+            // Song indexes are just 0..n-1, so we don't need a separate list of them.
+            int[] indexes = RandomSampling.pickDistinct(random, songIds.length, batchSize);
+            List<Song> songs = new ArrayList<>(indexes.length);
+            for (int index : indexes) {
+                songs.add(getSong(index));
+            }
+            return songs;
+        }
+
+        @Override
+        public List<Integer> getYears() {
+            return yearIndex.getYears();
+        }
+
+        @Override
+        public List<Song> getRandomBatchForEra(int startYear, int endYear, int batchSize) {
+            int[] indexes = yearIndex.pickSongs(random, startYear, endYear, batchSize);
+            List<Song> songs = new ArrayList<>(indexes.length);
+            for (int index : indexes) {
+                songs.add(getSong(index));
+            }
+            return songs;
+        }
+
+        @Override
+        public Integer getNextYear(int year) {
+            return yearIndex.getNextYear(year);
+        }
+
+        @Override
+        public Integer getPreviousYear(int year) {
+            return yearIndex.getPreviousYear(year);
+        }
+    }
+}
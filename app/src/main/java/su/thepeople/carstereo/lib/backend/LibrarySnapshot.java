@@ -0,0 +1,415 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+import su.thepeople.carstereo.lib.util.Nullable;
+import su.thepeople.carstereo.lib.util.RandomSampling;
+
+/**
+ * A read-only copy of the whole library, served straight out of a memory-mapped file.
+ *
+ * The file holds fixed-width records for bands, albums, songs and song roots, each sorted by unique ID so that lookups
+ * are a binary search. All strings live in a single pool at the end of the file. Every ordering that the fetchers
+ * need (bands by name, a band's albums, a band's songs, an album's songs, songs by year) is precomputed as an array
+ * of record indexes, so each query is just a range of that array.
+ *
+ * Nothing is read into memory up front. The operating system pages in whatever parts of the file are actually used,
+ * so opening a snapshot is practically free. See SnapshotWriter for how the file is produced.
+ */
+public class LibrarySnapshot {
+
+    static final int MAGIC = 0x43534e50;  // "CSNP"
+    static final int VERSION = 3;
+
+    // Sections of the file. The header holds an (offset, count) pair for each one, in this order.
+    static final int SECTION_BANDS = 0;
+    static final int SECTION_ALBUMS = 1;
+    static final int SECTION_SONGS = 2;
+    static final int SECTION_ROOTS = 3;
+    static final int SECTION_YEARS = 4;
+    static final int SECTION_BANDS_BY_NAME = 5;
+    static final int SECTION_BAND_ALBUMS = 6;
+    static final int SECTION_BAND_SONGS = 7;
+    static final int SECTION_ALBUM_SONGS = 8;
+    static final int SECTION_YEAR_SONGS = 9;
+    static final int SECTION_STRINGS = 10;
+    static final int SECTION_COUNT = 11;
+    static final int HEADER_SIZE = 8 + 8 * SECTION_COUNT;
+
+    // Band: uid, name, range of BAND_ALBUMS, range of BAND_SONGS
+    static final int BAND_SIZE = 8 + 8 + 8 + 8;
+    // Album: uid, bandId, year, name, range of ALBUM_SONGS
+    static final int ALBUM_SIZE = 8 + 8 + 4 + 8 + 8;
+    // Song: uid, bandId, albumId, rootId, year, name, relative path
+    static final int SONG_SIZE = 8 + 8 + 8 + 8 + 4 + 8 + 8;
+    // Root: uid, path
+    static final int ROOT_SIZE = 8 + 8;
+    // Year: year, range of YEAR_SONGS
+    static final int YEAR_SIZE = 4 + 8;
+
+    // Stand-ins for null, since fixed-width records have no way to leave a field out.
+    static final int NO_YEAR = Integer.MIN_VALUE;
+    static final long NO_ALBUM = 0;
+
+    private final ByteBuffer buffer;
+    private final int[] sectionOffsets = new int[SECTION_COUNT];
+    private final int[] sectionCounts = new int[SECTION_COUNT];
+    private final Random random = new Random();
+
+    private final BandFetcher bandFetcher = new SnapshotBandFetcher();
+    private final AlbumFetcher albumFetcher = new SnapshotAlbumFetcher();
+    private final SongFetcher songFetcher = new SnapshotSongFetcher();
+
+    private LibrarySnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a library snapshot, or written by an incompatible version");
+        }
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            sectionOffsets[section] = buffer.getInt(8 + 8 * section);
+            sectionCounts[section] = buffer.getInt(12 + 8 * section);
+        }
+    }
+
+    /**
+     * Maps the given snapshot file into memory. The file can be closed (or even replaced) afterwards, without affecting
+     * the mapping.
+     */
+    public static LibrarySnapshot open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            return new LibrarySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public BandFetcher getBandFetcher() {
+        return bandFetcher;
+    }
+
+    public AlbumFetcher getAlbumFetcher() {
+        return albumFetcher;
+    }
+
+    public SongFetcher getSongFetcher() {
+        return songFetcher;
+    }
+
+    public int getSongCount() {
+        return sectionCounts[SECTION_SONGS];
+    }
+
+    // Returns the path of the given song root, or null if the root is not in this snapshot.
+    @Nullable
+    public String getRootPath(long rootId) {
+        int index = findByUid(SECTION_ROOTS, ROOT_SIZE, rootId);
+        return (index < 0) ? null : getString(recordOffset(SECTION_ROOTS, ROOT_SIZE, index) + 8);
+    }
+
+    private int recordOffset(int section, int recordSize, int index) {
+        return sectionOffsets[section] + index * recordSize;
+    }
+
+    private int getIndexEntry(int section, int position) {
+        return buffer.getInt(sectionOffsets[section] + 4 * position);
+    }
+
+    // Reads a string reference (pool offset, byte length) from the given place in the file.
+    private String getString(int referenceOffset) {
+        int start = sectionOffsets[SECTION_STRINGS] + buffer.getInt(referenceOffset);
+        byte[] bytes = new byte[buffer.getInt(referenceOffset + 4)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private static Integer getYear(int storedYear) {
+        return (storedYear == NO_YEAR) ? null : storedYear;
+    }
+
+    // Records in each section are sorted by uid, which is always the first field. Returns -1 if there is no match.
+    private int findByUid(int section, int recordSize, long uid) {
+        int low = 0;
+        int high = sectionCounts[section] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midUid = buffer.getLong(recordOffset(section, recordSize, mid));
+            if (midUid < uid) {
+                low = mid + 1;
+            } else if (midUid > uid) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Band getBand(int index) {
+        int offset = recordOffset(SECTION_BANDS, BAND_SIZE, index);
+        return new Band(buffer.getLong(offset), getString(offset + 8));
+    }
+
+    private Album getAlbum(int index) {
+        int offset = recordOffset(SECTION_ALBUMS, ALBUM_SIZE, index);
+        return new Album(buffer.getLong(offset), getString(offset + 20), buffer.getLong(offset + 8), getYear(buffer.getInt(offset + 16)));
+    }
+
+    private Song getSong(int index) {
+        int offset = recordOffset(SECTION_SONGS, SONG_SIZE, index);
+        long albumId = buffer.getLong(offset + 16);
+        return new Song(buffer.getLong(offset), getString(offset + 36), buffer.getLong(offset + 24), getString(offset + 44),
+                buffer.getLong(offset + 8), (albumId == NO_ALBUM) ? null : albumId, getYear(buffer.getInt(offset + 32)));
+    }
+
+    // Returns the songs referenced by the given part of an index section.
+    private List<Song> getSongs(int indexSection, int first, int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(getSong(getIndexEntry(indexSection, first + i)));
+        }
+        return songs;
+    }
+
+    // Returns up to maxSize songs, picked at random without repeats, from the given part of an index section.
+    private List<Song> getRandomSongs(int indexSection, int first, int count, int maxSize) {
+        int[] positions = RandomSampling.pickDistinct(random, count, maxSize);
+        List<Song> songs = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            songs.add(getSong(getIndexEntry(indexSection, first + position)));
+        }
+        return songs;
+    }
+
+    private class SnapshotBandFetcher implements BandFetcher {
+        @Override
+        public List<Band> getAll() {
+            int count = sectionCounts[SECTION_BANDS_BY_NAME];
+            List<Band> bands = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                bands.add(getBand(getIndexEntry(SECTION_BANDS_BY_NAME, i)));
+            }
+            return bands;
+        }
+
+        @Override
+        public Band lookup(long bandId) {
+            int index = findByUid(SECTION_BANDS, BAND_SIZE, bandId);
+            return (index < 0) ? null : getBand(index);
+        }
+
+        @Override
+        public List<Band> lookupAll(Collection<Long> bandIds) {
+            List<Band> bands = new ArrayList<>(bandIds.size());
+            for (long bandId : bandIds) {
+                int index = findByUid(SECTION_BANDS, BAND_SIZE, bandId);
+                if (index >= 0) {
+                    bands.add(getBand(index));
+                }
+            }
+            return bands;
+        }
+
+        @Override
+        public Band getRandom() {
+            int count = sectionCounts[SECTION_BANDS];
+            return (count == 0) ? null : getBand(random.nextInt(count));
+        }
+
+        @Override
+        public List<BandCounts> getCounts() {
+            int count = sectionCounts[SECTION_BANDS];
+            List<BandCounts> counts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int offset = recordOffset(SECTION_BANDS, BAND_SIZE, i);
+                counts.add(new BandCounts(buffer.getLong(offset), buffer.getInt(offset + 28), buffer.getInt(offset + 20)));
+            }
+            return counts;
+        }
+    }
+
+    private class SnapshotAlbumFetcher implements AlbumFetcher {
+        @Override
+        public List<Album> getAllForBand(long bandId) {
+            List<Album> albums = new ArrayList<>();
+            int index = findByUid(SECTION_BANDS, BAND_SIZE, bandId);
+            if (index >= 0) {
+                int offset = recordOffset(SECTION_BANDS, BAND_SIZE, index);
+                int first = buffer.getInt(offset + 16);
+                int count = buffer.getInt(offset + 20);
+                for (int i = 0; i < count; i++) {
+                    albums.add(getAlbum(getIndexEntry(SECTION_BAND_ALBUMS, first + i)));
+                }
+            }
+            return albums;
+        }
+
+        @Override
+        public Album lookup(long albumId) {
+            int index = findByUid(SECTION_ALBUMS, ALBUM_SIZE, albumId);
+            return (index < 0) ? null : getAlbum(index);
+        }
+
+        @Override
+        public List<Album> lookupAll(Collection<Long> albumIds) {
+            List<Album> albums = new ArrayList<>(albumIds.size());
+            for (long albumId : albumIds) {
+                int index = findByUid(SECTION_ALBUMS, ALBUM_SIZE, albumId);
+                if (index >= 0) {
+                    albums.add(getAlbum(index));
+                }
+            }
+            return albums;
+        }
+
+        @Override
+        public Album getRandom() {
+            int count = sectionCounts[SECTION_ALBUMS];
+            return (count == 0) ? null : getAlbum(random.nextInt(count));
+        }
+    }
+
+    private class SnapshotSongFetcher implements SongFetcher {
+
+        // Returns the range of BAND_SONGS for the given band as {first, count}, or {0, 0} for an unknown band.
+        private int[] getBandRange(long bandId) {
+            int index = findByUid(SECTION_BANDS, BAND_SIZE, bandId);
+            if (index < 0) {
+                return new int[] {0, 0};
+            }
+            int offset = recordOffset(SECTION_BANDS, BAND_SIZE, index);
+            return new int[] {buffer.getInt(offset + 24), buffer.getInt(offset + 28)};
+        }
+
+        @Override
+        public List<Song> getAllForBandOrdered(Long bandId) {
+            int[] range = getBandRange(bandId);
+            return getSongs(SECTION_BAND_SONGS, range[0], range[1]);
+        }
+
+        @Override
+        public List<Long> getAllIds() {
+            int count = sectionCounts[SECTION_SONGS];
+            List<Long> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(buffer.getLong(recordOffset(SECTION_SONGS, SONG_SIZE, i)));
+            }
+            return ids;
+        }
+
+        @Override
+        public List<Long> getIdsForBand(Long bandId) {
+            int[] range = getBandRange(bandId);
+            List<Long> ids = new ArrayList<>(range[1]);
+            for (int i = 0; i < range[1]; i++) {
+                ids.add(buffer.getLong(recordOffset(SECTION_SONGS, SONG_SIZE, getIndexEntry(SECTION_BAND_SONGS, range[0] + i))));
+            }
+            return ids;
+        }
+
+        @Override
+        public List<Song> lookupAll(Collection<Long> songIds) {
+            List<Song> songs = new ArrayList<>(songIds.size());
+            for (long songId : songIds) {
+                int index = findByUid(SECTION_SONGS, SONG_SIZE, songId);
+                if (index >= 0) {
+                    songs.add(getSong(index));
+                }
+            }
+            return songs;
+        }
+
+        @Override
+        public List<Song> getSomeForBand(Long bandId, Integer maxSize) {
+            int[] range = getBandRange(bandId);
+            return getRandomSongs(SECTION_BAND_SONGS, range[0], range[1], maxSize);
+        }
+
+        @Override
+        public List<Song> getAllForAlbum(Long albumId) {
+            int index = findByUid(SECTION_ALBUMS, ALBUM_SIZE, albumId);
+            if (index < 0) {
+                return new ArrayList<>();
+            }
+            int offset = recordOffset(SECTION_ALBUMS, ALBUM_SIZE, index);
+            return getSongs(SECTION_ALBUM_SONGS, buffer.getInt(offset + 28), buffer.getInt(offset + 32));
+        }
+
+        @Override
+        public List<Song> getRandomBatch(int batchSize) {
+            // The SONGS section is itself a list of song indexes 0..n-1, so we don't need a separate index for this.
+            int[] indexes = RandomSampling.pickDistinct(random, sectionCounts[SECTION_SONGS], batchSize);
+            List<Song> songs = new ArrayList<>(indexes.length);
+            for (int index : indexes) {
+                songs.add(getSong(index));
+            }
+            return songs;
+        }
+
+        @Override
+        public List<Integer> getYears() {
+            int count = sectionCounts[SECTION_YEARS];
+            List<Integer> years = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                years.add(buffer.getInt(recordOffset(SECTION_YEARS, YEAR_SIZE, i)));
+            }
+            return years;
+        }
+
+        @Override
+        public List<Song> getRandomBatchForEra(int startYear, int endYear, int batchSize) {
+            // Years are sorted, and their songs are stored back-to-back, so any era is a single range of YEAR_SONGS.
+            int first = -1;
+            int end = -1;
+            for (int i = 0; i < sectionCounts[SECTION_YEARS]; i++) {
+                int offset = recordOffset(SECTION_YEARS, YEAR_SIZE, i);
+                int year = buffer.getInt(offset);
+                if (year >= startYear && year <= endYear) {
+                    if (first < 0) {
+                        first = buffer.getInt(offset + 4);
+                    }
+                    end = buffer.getInt(offset + 4) + buffer.getInt(offset + 8);
+                }
+            }
+            return (first < 0) ? new ArrayList<>() : getRandomSongs(SECTION_YEAR_SONGS, first, end - first, batchSize);
+        }
+
+        @Override
+        public Integer getNextYear(int year) {
+            for (int i = 0; i < sectionCounts[SECTION_YEARS]; i++) {
+                int candidate = buffer.getInt(recordOffset(SECTION_YEARS, YEAR_SIZE, i));
+                if (candidate > year) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Integer getPreviousYear(int year) {
+            for (int i = sectionCounts[SECTION_YEARS] - 1; i >= 0; i--) {
+                int candidate = buffer.getInt(recordOffset(SECTION_YEARS, YEAR_SIZE, i));
+                if (candidate < year) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+    }
+}
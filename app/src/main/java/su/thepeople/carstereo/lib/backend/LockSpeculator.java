@@ -0,0 +1,181 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.data.SongInfo;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.util.Log;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Guesses that the user might lock onto the current song's band, album or year, and gets each of those modes ready
+ * ahead of time (the selector, along with its first batch of songs). Then a lock only has to swap in what is ready.
+ *
+ * The guesses are made on a background thread, at low priority, every time the song changes. They are only good for
+ * the song that they were made for, and only until the library changes. Anything that isn't used is thrown away.
+ *
+ * A selector that is built here isn't seen by anyone else until it is handed over, so its song provider is still only
+ * used by one thread at a time.
+ */
+class LockSpeculator {
+
+    private static final String LOG_TAG = "Lock Speculator";
+
+    // A selector for one of the lock modes, along with its first batch.
+    static class Speculation {
+        final MusicSelector selector;
+        final BatchPrefetcher.PreparedBatch batch;
+
+        Speculation(MusicSelector selector, BatchPrefetcher.PreparedBatch batch) {
+            this.selector = selector;
+            this.batch = batch;
+        }
+    }
+
+    private static class Attempt {
+        // Set by whoever gets to the attempt first: the background thread (to build it), or anyone who doesn't want it
+        // built any more.
+        final AtomicBoolean isStarted = new AtomicBoolean(false);
+        Future<Speculation> future;
+    }
+
+    private final PlatformAdapter database;
+    // Builds the selector for a lock mode, or returns null if the song can't be locked that way.
+    private final BiFunction<MusicControllerThread.PlayModeEnum, SongInfo, MusicSelector> selectorFactory;
+    private final Function<List<? extends Song>, List<SongInfo>> hydrator;
+    private final ExecutorService executor;
+
+    // Everything below is only used from the music controller's thread.
+    private long songId = -1;
+    private long generation = 0;
+    private final Map<MusicControllerThread.PlayModeEnum, Attempt> attempts = new EnumMap<>(MusicControllerThread.PlayModeEnum.class);
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    // Guesses that were worked on, but then thrown away without being used.
+    private long wastedCount = 0;
+
+    LockSpeculator(PlatformAdapter database,
+                   BiFunction<MusicControllerThread.PlayModeEnum, SongInfo, MusicSelector> selectorFactory,
+                   Function<List<? extends Song>, List<SongInfo>> hydrator) {
+        this.database = database;
+        this.selectorFactory = selectorFactory;
+        this.hydrator = hydrator;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Lock Speculator");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    @Nullable
+    private Speculation build(MusicControllerThread.PlayModeEnum mode, SongInfo song) {
+        try {
+            MusicSelector selector = selectorFactory.apply(mode, song);
+            if (selector == null) {
+                return null;
+            }
+            List<? extends Song> songs = selector.getSongProvider().getNextBatch();
+            if (songs.isEmpty()) {
+                // Entering this mode would drop straight back to shuffle, which the normal path already handles.
+                return null;
+            }
+            return new Speculation(selector, new BatchPrefetcher.PreparedBatch(songs, hydrator.apply(songs)));
+        } catch (RuntimeException e) {
+            // Only a guess. If this mode really is wanted, it will be built again (and fail properly) at that point.
+            Log.e(LOG_TAG, String.format("Unable to get %s mode ready", mode), e);
+            return null;
+        }
+    }
+
+    private void discard(Attempt attempt) {
+        if (attempt.future.isDone()) {
+            if (!attempt.future.isCancelled() && getQuietly(attempt.future) != null) {
+                wastedCount++;
+            }
+        } else {
+            if (!attempt.isStarted.compareAndSet(false, true)) {
+                wastedCount++;
+            }
+            attempt.future.cancel(false);
+        }
+    }
+
+    private void discardAll() {
+        attempts.values().forEach(this::discard);
+        attempts.clear();
+    }
+
+    @Nullable
+    private static Speculation getQuietly(Future<Speculation> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Starts getting each of the given modes ready for the given song, throwing away anything that was ready for the
+     * previous song.
+     */
+    void speculate(SongInfo song, List<MusicControllerThread.PlayModeEnum> modes) {
+        if (song.song.getUid() == songId && generation == database.getLibraryGeneration()) {
+            return;
+        }
+        discardAll();
+        songId = song.song.getUid();
+        generation = database.getLibraryGeneration();
+        for (MusicControllerThread.PlayModeEnum mode : modes) {
+            Attempt attempt = new Attempt();
+            attempt.future = executor.submit(() -> attempt.isStarted.compareAndSet(false, true) ? build(mode, song) : null);
+            attempts.put(mode, attempt);
+        }
+    }
+
+    /**
+     * Returns the given lock mode for the given song, if it was made ready. If it is being worked on right now, we wait
+     * for it, since it is already part-way there. If it hasn't been started yet, it might be queued behind the other
+     * modes' guesses, so it is cancelled instead. Returns null if there is nothing usable, in which case the caller
+     * should build the mode itself.
+     */
+    @Nullable
+    Speculation take(MusicControllerThread.PlayModeEnum mode, SongInfo song) {
+        if (song.song.getUid() != songId || generation != database.getLibraryGeneration()) {
+            discardAll();
+            songId = -1;
+        }
+        Attempt attempt = attempts.remove(mode);
+        Speculation speculation = null;
+        if (attempt != null) {
+            if (attempt.isStarted.compareAndSet(false, true)) {
+                attempt.future.cancel(false);
+            } else {
+                speculation = getQuietly(attempt.future);
+            }
+        }
+        if (speculation == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        long total = hitCount + missCount;
+        Log.d(LOG_TAG, String.format("%s lock was %s. So far: %d of %d ready (%d%%), %d wasted", mode,
+                (speculation == null) ? "not ready" : "ready", hitCount, total, (100 * hitCount) / total, wastedCount));
+        return speculation;
+    }
+}
@@ -12,8 +12,14 @@ import su.thepeople.carstereo.lib.platform_interface.UINotificationAPI;
 import su.thepeople.carstereo.lib.platform_interface.MusicPlayer;
 import su.thepeople.carstereo.lib.util.Log;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -34,10 +40,30 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
 
     private final PlatformAdapter platformAdapter;
 
-    public MusicControllerThread(UINotificationAPI uiNotifier, PlatformAdapter platformAdapter) {
+    // Shared by every shuffle mode that we create, so that its band weights survive mode changes.
+    private final BandSampler bandSampler;
+
+    // Also shared by every shuffle mode, so that leaving shuffle mode and coming back carries on with the same cycle.
+    private final ShuffleCycle shuffleCycle;
+
+    // Every song that goes to the player is recorded here, whatever mode it came from.
+    private final RecentlyPlayed recentlyPlayed = new RecentlyPlayed();
+
+    // Once the player is down to this many queued songs, we start getting the next batch ready.
+    private static final int PREFETCH_LOW_WATER_MARK = 3;
+    private final BatchPrefetcher prefetcher;
+
+    // Gets the band, album and year locks ready for the current song, in case the user asks for one of them.
+    private final LockSpeculator lockSpeculator;
+
+    public MusicControllerThread(UINotificationAPI uiNotifier, PlatformAdapter platformAdapter, File shuffleFile) {
         super(platformAdapter);
         this.uiNotifier = uiNotifier;
         this.platformAdapter = platformAdapter;
+        this.bandSampler = new BandSampler(platformAdapter);
+        this.shuffleCycle = new ShuffleCycle(platformAdapter, shuffleFile);
+        this.prefetcher = new BatchPrefetcher(platformAdapter, this::getInfoForSongs);
+        this.lockSpeculator = new LockSpeculator(platformAdapter, this::makeLockSelector, this::getInfoForSongs);
     }
 
     @Override
@@ -47,13 +73,64 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
 
     @Override
     protected void beforeMainLoop() {
-        musicPlayer = platformAdapter.createMusicPlayer(this);
-        musicSelector = new MusicSelector.CollectionMode(platformAdapter);
+        musicPlayer = platformAdapter.createMusicPlayer(this, platformAdapter.getPathResolver());
+        musicSelector = new MusicSelector.CollectionMode(platformAdapter, bandSampler, shuffleCycle, recentlyPlayed);
         replenishPlaylist(true);
     }
 
     public void onSongAdvance() {
         sendChangeNotification();
+        prefetchIfLow();
+        speculateLocks();
+    }
+
+    private void speculateLocks() {
+        SongInfo song = musicPlayer.getCurrentSong();
+        if (song != null) {
+            // There's no point getting ready for the mode that we're already in, since its button takes us out of it.
+            List<PlayModeEnum> modes = new ArrayList<>();
+            for (PlayModeEnum mode : new PlayModeEnum[] {PlayModeEnum.ALBUM, PlayModeEnum.BAND, PlayModeEnum.YEAR}) {
+                if (mode != musicSelector.getModeType()) {
+                    modes.add(mode);
+                }
+            }
+            lockSpeculator.speculate(song, modes);
+        }
+    }
+
+    /**
+     * Builds the selector for locking onto the given song's band, album or year. Returns null if the song can't be
+     * locked that way. This may be called from the lock speculator's thread.
+     */
+    private MusicSelector makeLockSelector(PlayModeEnum mode, SongInfo song) {
+        switch (mode) {
+            case BAND:
+                return new MusicSelector.BandMode(platformAdapter, song.band.getUid());
+            case ALBUM:
+                return (song.album == null) ? null : new MusicSelector.AlbumMode(platformAdapter, song.album.getUid(), Optional.of(song.song.getUid()));
+            case YEAR:
+                return (song.song.getYear() == null) ? null : new MusicSelector.YearMode(platformAdapter, recentlyPlayed, song.song.getYear());
+            default:
+                return null;
+        }
+    }
+
+    // Swaps in the lock mode that was made ready ahead of time, or builds it now if it isn't ready.
+    private void enterLock(PlayModeEnum mode, SongInfo song) {
+        LockSpeculator.Speculation ready = lockSpeculator.take(mode, song);
+        if (ready == null) {
+            musicSelector = makeLockSelector(mode, song);
+            replenishPlaylist(false);
+        } else {
+            musicSelector = ready.selector;
+            playBatch(ready.batch, false);
+        }
+    }
+
+    private void prefetchIfLow() {
+        if (musicPlayer.getQueuedSongCount() <= PREFETCH_LOW_WATER_MARK) {
+            prefetcher.prefetch(musicSelector.getSongProvider());
+        }
     }
 
     public void onPlayerQueueEmpty() {
@@ -77,24 +154,43 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
     }
     private PlayState playState = PlayState.PAUSED;
 
+    /*
+     * During a first-time scan, music starts playing before the library is complete. We remember how big the library
+     * was when the upcoming songs were picked, so that we can pick again once the library has grown enough to matter.
+     */
+    private int bandCountForPlaylist = 0;
+
 
     /**
      * Helper method to fill up the queue of upcoming songs. This might be called because we are changing modes, or it
-     * might be called because the queue is almost empty.
+     * might be called because the queue is almost empty. In the second case, the batch has usually been prefetched.
      *
      * @param replaceCurrentSong - If false, the currently-playing song continues playing. If true, we jump to the next
      *                           song.
      */
     private void replenishPlaylist(boolean replaceCurrentSong) {
-        List<? extends Song> newBatch = musicSelector.getSongProvider().getNextBatch();
+        playBatch(prefetcher.take(musicSelector.getSongProvider()), replaceCurrentSong);
+    }
+
+    private void playBatch(BatchPrefetcher.PreparedBatch newBatch, boolean replaceCurrentSong) {
+
+        if (newBatch.songs.isEmpty() && musicSelector instanceof MusicSelector.CollectionMode) {
+            // The whole library is empty. This can only happen early on in a first-time scan, so more music is coming.
+            Log.d(LOG_ID, "Library has no songs yet, waiting for scanner");
+            return;
+        }
 
         // If song provider does not provide anything for the next batch, then switch to all-shuffle mode
-        if (newBatch.isEmpty()) {
+        if (newBatch.songs.isEmpty()) {
             Log.d(LOG_ID, "Song provider returned empty list, changing to shuffle mode");
+            // This also picks the first shuffle batch, and hands it to the player.
             transitionToShuffle(replaceCurrentSong);
-            newBatch = musicSelector.getSongProvider().getNextBatch();
+            return;
         }
-        musicPlayer.setPlaylist(getInfoForSongs(newBatch), replaceCurrentSong);
+        recentlyPlayed.record(newBatch.songs);
+        shuffleCycle.commit(newBatch.songs);
+        musicPlayer.setPlaylist(newBatch.songInfos, replaceCurrentSong);
+        prefetchIfLow();
     }
 
     private void sendChangeNotification() {
@@ -107,7 +203,7 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
     }
 
     private void transitionToShuffle(boolean replaceCurrentSong) {
-        musicSelector = new MusicSelector.CollectionMode(platformAdapter);
+        musicSelector = new MusicSelector.CollectionMode(platformAdapter, bandSampler, shuffleCycle, recentlyPlayed);
         MusicControllerThread.this.replenishPlaylist(replaceCurrentSong);
         sendChangeNotification();
     }
@@ -182,9 +278,7 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
             } else {
                 SongInfo song = musicPlayer.getCurrentSong();
                 if (song != null) {
-                    long bandId = song.band.getUid();
-                    musicSelector = new MusicSelector.BandMode(platformAdapter, bandId);
-                    MusicControllerThread.this.replenishPlaylist(false);
+                    enterLock(PlayModeEnum.BAND, song);
                     sendChangeNotification();
                 }
             }
@@ -194,9 +288,7 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
             SongInfo song = musicPlayer.getCurrentSong();
             Log.d(LOG_ID, String.format("Locking on album %s with song %s", song.album, song));
             if (song.album != null) {
-                long albumId = song.album.getUid();
-                musicSelector = new MusicSelector.AlbumMode(platformAdapter, albumId, Optional.of(song.song.getUid()));
-                MusicControllerThread.this.replenishPlaylist(false);
+                enterLock(PlayModeEnum.ALBUM, song);
             }
             sendChangeNotification();
         }
@@ -204,8 +296,7 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
         private void enterYearLock() {
             SongInfo songInfo = musicPlayer.getCurrentSong();
             if (songInfo != null && songInfo.song.getYear() != null) {
-                musicSelector = new MusicSelector.YearMode(platformAdapter, songInfo.song.getYear());
-                MusicControllerThread.this.replenishPlaylist(false);
+                enterLock(PlayModeEnum.YEAR, songInfo);
             }
             sendChangeNotification();
         }
@@ -244,11 +335,30 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
 
         @Override
         protected void onLockSpecificYear(int year) {
-            musicSelector = new MusicSelector.YearMode(platformAdapter, year);
+            musicSelector = new MusicSelector.YearMode(platformAdapter, recentlyPlayed, year);
             MusicControllerThread.this.replenishPlaylist(true);
             sendChangeNotification();
         }
 
+        /**
+         * Random selections are always made from whatever is in the library at the time. So, there is nothing to do
+         * here unless the upcoming songs were picked from a library that was much smaller than it is now. We only
+         * re-pick when the library has doubled, so that a long scan doesn't cause constant churn.
+         */
+        @Override
+        protected void onLibraryGrew(int bandCount) {
+            if (musicPlayer.getCurrentSong() == null) {
+                bandCountForPlaylist = bandCount;
+                MusicControllerThread.this.replenishPlaylist(true);
+            } else if (musicSelector instanceof MusicSelector.CollectionMode && bandCount >= 2 * bandCountForPlaylist) {
+                Log.d(LOG_ID, String.format("Library has grown to %d bands, widening selection", bandCount));
+                bandCountForPlaylist = bandCount;
+                // Anything prefetched was picked from the smaller library.
+                prefetcher.cancel();
+                MusicControllerThread.this.replenishPlaylist(false);
+            }
+        }
+
         @Override
         protected void onRequestBandList() {
             uiNotifier.fulfillBandListRequest(platformAdapter.getBandFetcher().getAll());
@@ -268,11 +378,33 @@ public class MusicControllerThread extends LooperThread<MusicControllerAPI> {
         }
     }
 
+    /**
+     * All of the batch's bands are looked up at once, and so are all of its albums. So, this costs the same number of
+     * lookups no matter how many songs are in the batch.
+     */
     private List<SongInfo> getInfoForSongs(List<? extends Song> songs) {
+        if (songs.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<Long> bandIds = new HashSet<>();
+        Set<Long> albumIds = new HashSet<>();
+        songs.forEach(song -> {
+            bandIds.add(song.getBandId());
+            if (song.getAlbumId() != null) {
+                albumIds.add(song.getAlbumId());
+            }
+        });
+        Map<Long, Band> bands = new HashMap<>();
+        platformAdapter.getBandFetcher().lookupAll(bandIds).forEach(band -> bands.put(band.getUid(), band));
+        Map<Long, Album> albums = new HashMap<>();
+        if (!albumIds.isEmpty()) {
+            platformAdapter.getAlbumFetcher().lookupAll(albumIds).forEach(album -> albums.put(album.getUid(), album));
+        }
+
         return songs.stream().map(song -> {
-            Band band = platformAdapter.getBandFetcher().lookup(song.getBandId());
+            Band band = bands.get(song.getBandId());
             if (song.getAlbumId() != null) {
-                return new SongInfo(band, song, platformAdapter.getAlbumFetcher().lookup(song.getAlbumId()));
+                return new SongInfo(band, song, albums.get(song.getAlbumId()));
             } else {
                 return new SongInfo(band, song);
             }
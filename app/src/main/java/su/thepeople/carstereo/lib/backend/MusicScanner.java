@@ -1,15 +1,41 @@
 package su.thepeople.carstereo.lib.backend;
 
+import su.thepeople.carstereo.lib.data.DirectoryRecord;
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
+import su.thepeople.carstereo.lib.data.ScanCheckpoint;
+import su.thepeople.carstereo.lib.data.ScanProgress;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.data.SongFile;
 import su.thepeople.carstereo.lib.util.Log;
 
 import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.util.Nullable;
 
 import java.io.File;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -19,6 +45,34 @@ import java.util.stream.Stream;
  * mcotp directory should be in the root level of an SD card. Failing that, it might work to put the directory as a
  * sibling to wherever Android will put this application's media directories, or as a sibling to one of the media
  * directories' parents.
+ *
+ * There are two ways to scan. A full scan assumes that nothing is known about the collection yet, and creates objects
+ * for everything it finds. An incremental rescan compares each directory against the scan manifest, only looks inside
+ * directories that have changed since the last scan, and only creates/deletes objects for songs that have been
+ * added/removed. Both kinds of scan leave the manifest up-to-date.
+ *
+ * Each scan happens in two phases:
+ *  - A "read" phase, which examines the disk. Most of the time here is spent waiting on the SD card, so band
+ *    directories are read in parallel on a fork/join pool. A semaphore limits how many reads may be in flight at once.
+ *  - A "commit" phase, which creates/deletes objects. This happens on the calling thread, one band at a time, in
+ *    alphabetical order. So, objects are always created in the same order (and get the same IDs), no matter how many
+ *    threads were used for reading.
+ *
+ * Directories are read through a DirectoryReader strategy. By default, this uses java.nio, which can tell files from
+ * directories without having to examine each item separately.
+ *
+ * New albums and songs are created in bulk, which is far cheaper than creating them one at a time. Songs are queued up
+ * and created at the end of each band (or sooner, if a very large band fills up the queue).
+ *
+ * Each band is fully committed before the next one is started, and progress is reported after every band. So, the
+ * partially-scanned library is always usable, and music can start playing long before a first scan is finished.
+ *
+ * The scan manifest remembers a fingerprint of every song's file (name, size and timestamp). A file that shows up in a new place is
+ * matched against songs whose files have disappeared, so that a moved or renamed song keeps its ID. Songs whose file
+ * has changed are updated in place, so they keep their IDs too.
+ *
+ * A checkpoint is saved after every band. If the scan is interrupted (Android is quite willing to kill us part-way
+ * through a long first scan), then the next scan can resume after the last finished band, instead of starting over.
  */
 public class MusicScanner {
 
@@ -27,12 +81,105 @@ public class MusicScanner {
     private static final Pattern LOOSE_SONG_FILE_REGEX = Pattern.compile("^((\\d\\d\\d\\d) - )?(.*)\\.(\\w{3,4})$");
     private static final Pattern ALBUM_SONG_FILE_REGEX = Pattern.compile("^(\\d*)( - )?(.*)\\.(\\w{3,4})$");
 
+    private static final int DEFAULT_THREAD_COUNT = 4;
+    private static final int DEFAULT_MAX_CONCURRENT_IO = 4;
+    private static final int SONG_BATCH_SIZE = 1000;
+
     private final PlatformAdapter adapter;
     private final Supplier<Stream<File>> collectionSearchDirs;
+    private final int threadCount;
+    private final Semaphore ioPermits;
+    private final DirectoryReader reader;
+
+    // During a full scan, we ignore the manifest entirely, and treat every directory as if we've never seen it before.
+    private boolean trustManifest = false;
+
+    /*
+     * Songs waiting to be created in bulk, and manifest records waiting for those songs. A directory must not be
+     * recorded until its songs exist, otherwise an interrupted scan could leave a directory that looks up-to-date, but
+     * which is missing songs.
+     */
+    private final List<NewSong> pendingSongs = new ArrayList<>();
+    private final List<DirectoryRecord> pendingRecords = new ArrayList<>();
+
+    private Consumer<ScanProgress> progressListener = progress -> {};
+    private int songsAdded = 0;
+
+    // Whether this scan has created/deleted any objects at all. Most rescans don't.
+    private boolean libraryChanged = false;
+
+    // Songs that this scan has deleted, keyed by ID. If one of them shows up somewhere else, it gets its old ID back.
+    private final Map<Long, SongFile> removedSongs = new HashMap<>();
+
+    // Existing songs that have been matched to a new location. They must not be deleted from their old location.
+    private final Set<Long> movedSongIds = new HashSet<>();
+
+    // How far this scan has gotten. Every change is saved to the manifest immediately.
+    private ScanCheckpoint checkpoint;
+    private boolean isResumed = false;
 
     public MusicScanner(PlatformAdapter adapter, Supplier<Stream<File>> collectionSearchDirs) {
+        this(adapter, collectionSearchDirs, DEFAULT_THREAD_COUNT, DEFAULT_MAX_CONCURRENT_IO, new NioDirectoryReader());
+    }
+
+    /**
+     * @param threadCount - How many threads may be used to read the disk.
+     * @param maxConcurrentIO - How many disk reads may be in flight at any one time. Slow SD cards can get slower
+     *                        when they are asked to do too many things at once.
+     * @param reader - Strategy for reading directories from disk.
+     */
+    public MusicScanner(PlatformAdapter adapter, Supplier<Stream<File>> collectionSearchDirs, int threadCount, int maxConcurrentIO, DirectoryReader reader) {
         this.adapter = adapter;
         this.collectionSearchDirs = collectionSearchDirs;
+        this.threadCount = threadCount;
+        this.ioPermits = new Semaphore(maxConcurrentIO);
+        this.reader = reader;
+    }
+
+    /**
+     * The given listener will be told about the scan's progress, after each band has been committed. It is called on
+     * the scanning thread.
+     */
+    public void setProgressListener(Consumer<ScanProgress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    private void reportProgress(int bandsScanned, int bandsTotal, boolean isComplete) {
+        ScanProgress progress = new ScanProgress();
+        progress.bandsScanned = bandsScanned;
+        progress.bandsTotal = bandsTotal;
+        progress.songsAdded = songsAdded;
+        progress.isComplete = isComplete;
+        progress.isResumed = isResumed;
+        progressListener.accept(progress);
+    }
+
+    private void saveCheckpoint(boolean complete, @Nullable String lastCompletedBand, @Nullable String pendingBandPath, @Nullable Long pendingBandId) {
+        checkpoint = new ScanCheckpoint(checkpoint.getGeneration(), complete, lastCompletedBand, pendingBandPath, pendingBandId);
+        adapter.getScanManifest().saveCheckpoint(checkpoint);
+    }
+
+    /**
+     * One scanner is kept for the whole session, and used for every scan. So, anything that a previous scan left
+     * behind (including one that failed part-way) has to be forgotten before the next one starts.
+     */
+    private void startScan(boolean trustManifest) {
+        this.trustManifest = trustManifest;
+        pendingSongs.clear();
+        pendingRecords.clear();
+        songsAdded = 0;
+        libraryChanged = false;
+        removedSongs.clear();
+        movedSongIds.clear();
+        checkpoint = null;
+        isResumed = false;
+    }
+
+    private void startNewGeneration() {
+        ScanCheckpoint previous = adapter.getScanManifest().getCheckpoint();
+        long generation = (previous == null) ? 1 : previous.getGeneration() + 1;
+        checkpoint = new ScanCheckpoint(generation, false, null, null, null);
+        adapter.getScanManifest().saveCheckpoint(checkpoint);
     }
 
    private Optional<File> getMcotpSubdir(File maybeDir) {
@@ -44,7 +191,10 @@ public class MusicScanner {
         return maybeMcotp;
     }
 
-    private Optional<File> findMcotpRoot() {
+    /**
+     * Finds the "mcotp" directory that holds the collection, if there is one.
+     */
+    public Optional<File> findMcotpRoot() {
         return collectionSearchDirs.get()
                 .filter(Objects::nonNull)
                 .flatMap(Utils::dirParentStream)
@@ -54,16 +204,238 @@ public class MusicScanner {
                 .findFirst();
     }
 
+    private static String getParentPath(String path) {
+        String parent = new File(path).getParent();
+        return (parent == null) ? "" : parent;
+    }
+
+    private DirectoryListing readDir(String path) {
+        ioPermits.acquireUninterruptibly();
+        try {
+            return reader.read(path);
+        } finally {
+            ioPermits.release();
+        }
+    }
+
+    /**
+     * Checking whether a directory is unchanged costs one stat and one read of its names, no matter how many songs are
+     * inside of it. This is much cheaper than re-examining every item.
+     */
+    private boolean isUnchanged(String path, @Nullable DirectoryRecord record) {
+        if (record == null) {
+            return false;
+        }
+        ioPermits.acquireUninterruptibly();
+        try {
+            File dir = new File(path);
+            return record.matches(dir.lastModified(), Utils.dirEntryCount(dir));
+        } finally {
+            ioPermits.release();
+        }
+    }
+
+    @Nullable
+    private DirectoryRecord getKnownState(String path) {
+        return trustManifest ? adapter.getScanManifest().lookup(path) : null;
+    }
+
+    // Returns the previously-scanned subdirectories of the given directory, keyed by path.
+    private Map<String, DirectoryRecord> getKnownSubdirs(String parentPath) {
+        Map<String, DirectoryRecord> subdirs = new HashMap<>();
+        if (trustManifest) {
+            adapter.getScanManifest().getChildren(parentPath).forEach(r -> subdirs.put(r.getPath(), r));
+        }
+        return subdirs;
+    }
+
+    // Returns the previously-scanned songs that live directly inside the given directory, keyed by file name.
+    private Map<String, SongFile> getKnownSongs(long bandID, @Nullable Long albumID, String dirPath) {
+        Map<String, SongFile> songs = new HashMap<>();
+        if (trustManifest) {
+            long rootID = adapter.getPathResolver().getRootId(dirPath);
+            List<SongFile> candidates = (albumID == null)
+                    ? adapter.getScanManifest().getSongFilesForBand(bandID)
+                    : adapter.getScanManifest().getSongFilesForAlbum(albumID);
+            candidates.stream()
+                    .filter(s -> s.getSong().getRootId() == rootID)
+                    .forEach(s -> songs.put(s.getSong().getRelativePath(), s));
+        }
+        return songs;
+    }
+
+    private void recordDirectory(DirectoryListing listing, @Nullable Long bandID, @Nullable Long albumID) {
+        pendingRecords.add(new DirectoryRecord(listing.path, getParentPath(listing.path), listing.lastModified, listing.entryCount, bandID, albumID));
+    }
+
+    private void queueSong(NewSong song) {
+        pendingSongs.add(song);
+        if (pendingSongs.size() >= SONG_BATCH_SIZE) {
+            flushPendingObjects();
+        }
+    }
+
+    private void flushPendingObjects() {
+        if (!pendingSongs.isEmpty()) {
+            adapter.getObjectCreator().createSongs(new ArrayList<>(pendingSongs));
+            songsAdded += (int) pendingSongs.stream().filter(s -> s.uid == null).count();
+            libraryChanged = true;
+            pendingSongs.clear();
+        }
+        pendingRecords.forEach(adapter.getScanManifest()::record);
+        pendingRecords.clear();
+    }
+
+    /**
+     * Everything the read phase learned about a single band directory.
+     */
+    private static class BandReading {
+        final DirectoryListing.Entry bandDir;
+        @Nullable final DirectoryRecord bandRecord;  // null if this is a new band
+        final Map<String, DirectoryRecord> knownSubdirs;
+
+        // The band directory's own listing. This is null if the band directory itself is unchanged.
+        @Nullable DirectoryListing bandListing;
+
+        // Listings for subdirectories that are new or changed, keyed (and sorted) by path. Unchanged subdirectories are not listed.
+        final Map<String, DirectoryListing> subdirListings = new TreeMap<>();
+
+        BandReading(DirectoryListing.Entry bandDir, @Nullable DirectoryRecord bandRecord, Map<String, DirectoryRecord> knownSubdirs) {
+            this.bandDir = bandDir;
+            this.bandRecord = bandRecord;
+            this.knownSubdirs = knownSubdirs;
+        }
+    }
+
+    /**
+     * Reads a single band directory from disk. Each of the band's subdirectories is read as a separate subtask.
+     */
+    private class BandReadTask extends RecursiveTask<BandReading> {
+        private final BandReading reading;
+
+        BandReadTask(DirectoryListing.Entry bandDir, @Nullable DirectoryRecord bandRecord, Map<String, DirectoryRecord> knownSubdirs) {
+            reading = new BandReading(bandDir, bandRecord, knownSubdirs);
+        }
+
+        @Override
+        protected BandReading compute() {
+            List<SubdirReadTask> subtasks = new ArrayList<>();
+            if (isUnchanged(reading.bandDir.path, reading.bandRecord)) {
+                reading.knownSubdirs.values().forEach(r -> subtasks.add(new SubdirReadTask(r.getPath(), r)));
+            } else {
+                Log.d(LOG_TAG, String.format("Reading band directory %s", reading.bandDir.name));
+                reading.bandListing = readDir(reading.bandDir.path);
+                reading.bandListing.subdirs.forEach(d -> subtasks.add(new SubdirReadTask(d.path, reading.knownSubdirs.get(d.path))));
+            }
+            ForkJoinTask.invokeAll(subtasks);
+            subtasks.stream()
+                    .map(ForkJoinTask::join)
+                    .filter(Objects::nonNull)
+                    .forEach(listing -> reading.subdirListings.put(listing.path, listing));
+            return reading;
+        }
+    }
+
+    /**
+     * Reads a single album (or other) subdirectory from disk, unless it is unchanged since the last scan.
+     */
+    private class SubdirReadTask extends RecursiveTask<DirectoryListing> {
+        private final String path;
+        @Nullable private final DirectoryRecord record;
+
+        SubdirReadTask(String path, @Nullable DirectoryRecord record) {
+            this.path = path;
+            this.record = record;
+        }
+
+        @Override
+        protected DirectoryListing compute() {
+            return isUnchanged(path, record) ? null : readDir(path);
+        }
+    }
+
     private void scanCollection(File mcotpRoot) {
-        Log.d(LOG_TAG, String.format("Scanning collection at %s", mcotpRoot.getAbsolutePath()));
-        Utils.dirContentsStream(mcotpRoot)
-                .filter(File::isDirectory)
-                .filter(d -> !d.getName().startsWith("["))
-                .forEach(bandDir -> {
-                    Log.d(LOG_TAG, String.format("Found band directory %s", bandDir.getName()));
-                    long bandID = adapter.getObjectCreator().createBand(bandDir.getName());
-                    scanBandDir(bandID, bandDir);
-                });
+        String rootPath = mcotpRoot.getAbsolutePath();
+        Log.d(LOG_TAG, String.format("Scanning collection at %s", rootPath));
+        long startTime = System.currentTimeMillis();
+        Map<String, DirectoryRecord> knownBands = getKnownSubdirs(rootPath);
+
+        DirectoryListing rootListing = null;
+        List<BandReadTask> tasks = new ArrayList<>();
+        int bandsAlreadyScanned;  // by an interrupted scan that we are resuming
+        if (isUnchanged(rootPath, getKnownState(rootPath))) {
+            Log.d(LOG_TAG, "No bands have been added or removed since the last scan");
+            knownBands.values().stream()
+                    .filter(r -> !checkpoint.isFinished(r.getPath()))
+                    .sorted(Comparator.comparing(DirectoryRecord::getPath))
+                    .forEach(r -> {
+                        DirectoryListing.Entry bandDir = new DirectoryListing.Entry(new File(r.getPath()).getName(), r.getPath());
+                        tasks.add(new BandReadTask(bandDir, r, getKnownSubdirs(r.getPath())));
+                    });
+            bandsAlreadyScanned = knownBands.size() - tasks.size();
+        } else {
+            rootListing = readDir(rootPath);
+            List<DirectoryListing.Entry> bandDirs = rootListing.subdirs.stream()
+                    .filter(d -> !d.name.startsWith("["))
+                    .collect(Collectors.toList());
+            bandDirs.forEach(bandDir -> {
+                DirectoryRecord known = knownBands.remove(bandDir.path);
+                if (!checkpoint.isFinished(bandDir.path)) {
+                    tasks.add(new BandReadTask(bandDir, known, getKnownSubdirs(bandDir.path)));
+                }
+            });
+            bandsAlreadyScanned = bandDirs.size() - tasks.size();
+        }
+        int bandsTotal = bandsAlreadyScanned + tasks.size();
+
+        // Bands are read in parallel, but committed in order, as soon as each one is ready.
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            tasks.forEach(pool::execute);
+            for (int i = 0; i < tasks.size(); i++) {
+                BandReading reading = tasks.get(i).join();
+                commitBand(reading);
+                saveCheckpoint(false, reading.bandDir.path, null, null);
+                reportProgress(bandsAlreadyScanned + i + 1, bandsTotal, false);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        if (rootListing != null) {
+            // Anything we haven't seen by now has been removed from disk.
+            knownBands.values().forEach(this::removeBandDir);
+            recordDirectory(rootListing, null, null);
+            flushPendingObjects();
+        }
+        saveCheckpoint(true, null, null, null);
+        finishChanges();
+        reportProgress(bandsTotal, bandsTotal, true);
+        Log.d(LOG_TAG, String.format("Scanned %d band directories in %d ms, using %d threads", tasks.size(), System.currentTimeMillis() - startTime, threadCount));
+    }
+
+    // Lets the platform know if this scan has changed anything, so that it can update any copies of the library.
+    private void finishChanges() {
+        if (libraryChanged) {
+            libraryChanged = false;
+            adapter.onLibraryChanged();
+        }
+    }
+
+    /**
+     * Runs a scan, making sure that the platform hears about its changes even if it fails part-way. Otherwise, copies
+     * of the library that were dropped at the first write would never come back.
+     */
+    private void runScan(Runnable scan) {
+        try {
+            scan.run();
+        } catch (RuntimeException | Error e) {
+            // The write that failed might have been partly made, and has certainly been announced.
+            libraryChanged = true;
+            throw e;
+        } finally {
+            finishChanges();
+        }
     }
 
     private Optional<String> getMatch(Matcher matcher, int groupNum) {
@@ -71,36 +443,100 @@ public class MusicScanner {
         return Optional.ofNullable(matchedString);
     }
 
-    private void scanBandDir(long bandID, File bandDir) {
-        Log.d(LOG_TAG, String.format("Scanning band directory %s", bandDir.getName()));
-        Utils.dirContentsStream(bandDir)
-                .forEach(f -> {
-                    Log.d(LOG_TAG, String.format("Examining dir entry %s", f.getAbsolutePath()));
-                    if (f.isDirectory()) {
-                        Long albumID = null;  // Using null for dirs that are not real albums
-                        String dirName = f.getName();
-                        Matcher dirMatcher = ALBUM_DIR_REGEX.matcher(dirName);
-                        String albumName = dirMatcher.matches() ? dirMatcher.group(2) : dirName;
-                        assert albumName != null;
-                        @SuppressWarnings("ConstantConditions") Integer albumYear = dirMatcher.matches() ? Integer.parseInt(dirMatcher.group(1)) : null;
-                        if (!albumName.startsWith("[")) {
-                            Log.d(LOG_TAG, String.format("Found album %s", albumName));
-                            albumID = adapter.getObjectCreator().createAlbum(albumName, bandID, albumYear);
-                        }
-                        scanAlbumDir(bandID, albumID, albumYear, f);
-                    } else if (f.isFile()) {
-                        String fileName = f.getName();
-                        Log.d(LOG_TAG, String.format("Found loose song %s", fileName));
-                        Matcher songMatcher = LOOSE_SONG_FILE_REGEX.matcher(fileName);
-                        if (!songMatcher.matches()) {
-                            Log.w("Loose song does not match format: %s", fileName);
-                        }
-                        String songName = getMatch(songMatcher, 3).orElse(fileName);
-                        Integer songYear = songMatcher.matches() ? getOptionalIntegerFromString(songMatcher.group(2)) : null;
-                        adapter.getObjectCreator().createSong(songName, f.getAbsolutePath(), bandID, null, songYear);
-                    }
-                });
+    private void commitBand(BandReading reading) {
+        long bandID;
+        if (reading.bandRecord == null) {
+            Log.d(LOG_TAG, String.format("Found band directory %s", reading.bandDir.name));
+            bandID = adapter.getObjectCreator().createBand(reading.bandDir.name);
+            libraryChanged = true;
+            // Until this band is finished, nothing else knows that it exists. So, remember it in case we are interrupted.
+            saveCheckpoint(false, checkpoint.getLastCompletedBand(), reading.bandDir.path, bandID);
+        } else {
+            bandID = Objects.requireNonNull(reading.bandRecord.getBandId());
+        }
+
+        DirectoryListing bandListing = reading.bandListing;
+        if (bandListing == null) {
+            // The band directory itself is unchanged, so only its changed subdirectories need attention.
+            commitSubdirs(bandID, reading.subdirListings.values(), reading.knownSubdirs);
+            flushPendingObjects();
+            return;
+        }
+
+        Log.d(LOG_TAG, String.format("Scanning band directory %s", reading.bandDir.name));
+        Map<String, DirectoryRecord> vanishedSubdirs = new HashMap<>(reading.knownSubdirs);
+        bandListing.subdirs.forEach(d -> vanishedSubdirs.remove(d.path));
+        commitSubdirs(bandID, reading.subdirListings.values(), reading.knownSubdirs);
+
+        Map<String, SongFile> knownSongs = getKnownSongs(bandID, null, reading.bandDir.path);
+        long rootID = adapter.getPathResolver().getRootId(reading.bandDir.path);
+        for (DirectoryListing.Entry songFile : bandListing.files) {
+            String fileName = songFile.name;
+            SongFile known = knownSongs.remove(fileName);
+            if (known != null && isSameFile(known, songFile)) {
+                continue;
+            }
+            Log.d(LOG_TAG, String.format("Found loose song %s", fileName));
+            Matcher songMatcher = LOOSE_SONG_FILE_REGEX.matcher(fileName);
+            if (!songMatcher.matches()) {
+                Log.w("Loose song does not match format: %s", fileName);
+            }
+            String songName = getMatch(songMatcher, 3).orElse(fileName);
+            Integer songYear = songMatcher.matches() ? getOptionalIntegerFromString(songMatcher.group(2)) : null;
+            queueSongFile(songFile, known, songName, rootID, bandID, null, songYear);
+        }
+
+        // Anything we haven't seen by now has been removed from disk.
+        vanishedSubdirs.values().forEach(this::removeSubDir);
+        knownSongs.values().forEach(this::removeSong);
+        recordDirectory(bandListing, bandID, null);
+        flushPendingObjects();
     }
+
+    private void commitSubdirs(long bandID, Collection<DirectoryListing> listings, Map<String, DirectoryRecord> knownSubdirs) {
+        // Any brand-new subdirectories might need new albums. Create all of those at once.
+        List<DirectoryListing> newSubdirs = listings.stream()
+                .filter(l -> !knownSubdirs.containsKey(l.path))
+                .collect(Collectors.toList());
+        Map<String, Long> newAlbumIDs = createAlbums(bandID, newSubdirs);
+
+        listings.forEach(listing -> {
+            DirectoryRecord known = knownSubdirs.get(listing.path);
+            if (known != null) {
+                commitSubdir(bandID, known.getAlbumId(), false, listing);
+            } else {
+                commitSubdir(bandID, newAlbumIDs.get(listing.path), true, listing);
+            }
+        });
+    }
+
+    // Returns the IDs of the newly-created albums, keyed by path. Subdirectories that are not real albums are skipped.
+    private Map<String, Long> createAlbums(long bandID, List<DirectoryListing> newSubdirs) {
+        List<String> albumPaths = new ArrayList<>();
+        List<NewAlbum> albums = new ArrayList<>();
+        newSubdirs.forEach(listing -> {
+            String dirName = listing.name;
+            Matcher dirMatcher = ALBUM_DIR_REGEX.matcher(dirName);
+            String albumName = dirMatcher.matches() ? dirMatcher.group(2) : dirName;
+            assert albumName != null;
+            if (!albumName.startsWith("[")) {
+                Log.d(LOG_TAG, String.format("Found album %s", albumName));
+                albumPaths.add(listing.path);
+                albums.add(new NewAlbum(albumName, bandID, getAlbumYear(dirName)));
+            }
+        });
+
+        Map<String, Long> albumIDs = new HashMap<>();
+        if (!albums.isEmpty()) {
+            List<Long> ids = adapter.getObjectCreator().createAlbums(albums);
+            libraryChanged = true;
+            for (int i = 0; i < ids.size(); i++) {
+                albumIDs.put(albumPaths.get(i), ids.get(i));
+            }
+        }
+        return albumIDs;
+    }
+
     private static Integer getOptionalIntegerFromString(String stringToParse) {
         if (stringToParse == null) {
             return null;
@@ -108,24 +544,233 @@ public class MusicScanner {
         return Integer.parseInt(stringToParse);
     }
 
-    private void scanAlbumDir(long bandID, Long albumID, Integer albumYear, File albumDir) {
-        Log.d(LOG_TAG, String.format("Examining album dir %s", albumDir.getAbsolutePath()));
-        Utils.dirContentsStream(albumDir)
-                .filter(File::isFile)
-                .filter(f -> !f.getName().startsWith("["))
-                .forEach(songFile -> {
-                    String fileName = songFile.getName();
-                    Log.d(LOG_TAG, String.format("Found album song %s", fileName));
-                    Matcher matcher = ALBUM_SONG_FILE_REGEX.matcher(fileName);
-                    if (!matcher.matches()) {
-                        Log.w("Album song does not match pattern: %s", fileName);
-                    }
-                    String songName = getMatch(matcher, 3).orElse(fileName);
-                    adapter.getObjectCreator().createSong(songName, songFile.getAbsolutePath(), bandID, albumID, albumYear);                });
+    @Nullable
+    private static Integer getAlbumYear(String dirName) {
+        Matcher dirMatcher = ALBUM_DIR_REGEX.matcher(dirName);
+        return dirMatcher.matches() ? getOptionalIntegerFromString(dirMatcher.group(1)) : null;
+    }
+
+    /**
+     * @param albumID - null for subdirectories that are not real albums
+     * @param isNew - true if this subdirectory has never been scanned before
+     */
+    private void commitSubdir(long bandID, @Nullable Long albumID, boolean isNew, DirectoryListing listing) {
+        Log.d(LOG_TAG, String.format("Examining album dir %s", listing.path));
+        Integer albumYear = getAlbumYear(listing.name);
+        Map<String, SongFile> knownSongs = isNew ? new HashMap<>() : getKnownSongs(bandID, albumID, listing.path);
+        long rootID = adapter.getPathResolver().getRootId(listing.path);
+
+        for (DirectoryListing.Entry songFile : listing.files) {
+            String fileName = songFile.name;
+            if (fileName.startsWith("[")) {
+                continue;
+            }
+            SongFile known = knownSongs.remove(fileName);
+            if (known != null && isSameFile(known, songFile)) {
+                continue;
+            }
+            Log.d(LOG_TAG, String.format("Found album song %s", fileName));
+            Matcher matcher = ALBUM_SONG_FILE_REGEX.matcher(fileName);
+            if (!matcher.matches()) {
+                Log.w("Album song does not match pattern: %s", fileName);
+            }
+            String songName = getMatch(matcher, 3).orElse(fileName);
+            queueSongFile(songFile, known, songName, rootID, bandID, albumID, albumYear);
+        }
+
+        knownSongs.values().forEach(this::removeSong);
+        recordDirectory(listing, bandID, albumID);
+    }
+
+    /**
+     * A song's fingerprint is its file's size, timestamp and (normalized) name. The size and timestamp come first, so
+     * that the fingerprints for the same file, under any name, all start with the same prefix.
+     */
+    private static String getContentPrefix(DirectoryListing.Entry file) {
+        return String.format(Locale.ROOT, "%d:%d:", file.size, file.lastModified);
+    }
+
+    private static String getFingerprint(DirectoryListing.Entry file) {
+        return getContentPrefix(file) + Normalizer.normalize(file.name, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isSameFile(SongFile known, DirectoryListing.Entry file) {
+        return getFingerprint(file).equals(known.getFingerprint());
+    }
+
+    /**
+     * Queues up a song for the given file. If the file was already known (but has changed), or if it turns out to be a
+     * moved/renamed song, then the existing song is updated instead, so that it keeps its ID.
+     */
+    private void queueSongFile(DirectoryListing.Entry file, @Nullable SongFile known, String songName, long rootID, long bandID, @Nullable Long albumID, @Nullable Integer year) {
+        String fingerprint = getFingerprint(file);
+        Long uid = (known == null) ? findMovedSong(file, fingerprint) : Long.valueOf(known.getSong().getUid());
+        queueSong(new NewSong(songName, rootID, file.name, bandID, albumID, year, fingerprint, uid));
+    }
+
+    /**
+     * Looks for an existing song that has the same file contents as the given "new" file, and whose own file has
+     * disappeared. Songs with the same file name (moves) are preferred over songs with different names (renames).
+     *
+     * This costs one indexed lookup per new file, so it is skipped during a full scan, when every file is new.
+     */
+    @Nullable
+    private Long findMovedSong(DirectoryListing.Entry file, String fingerprint) {
+        if (!trustManifest) {
+            return null;
+        }
+        String contentPrefix = getContentPrefix(file);
+        Comparator<SongFile> sameNameFirst = Comparator.comparing(s -> !fingerprint.equals(s.getFingerprint()));
+
+        // The song's old location might have been processed already, in which case the song has been deleted.
+        Optional<SongFile> removed = removedSongs.values().stream()
+                .filter(s -> Objects.requireNonNull(s.getFingerprint()).startsWith(contentPrefix))
+                .min(sameNameFirst);
+        if (removed.isPresent()) {
+            Song song = removed.get().getSong();
+            Log.d(LOG_TAG, String.format("Song %s has been moved to %s", song.getRelativePath(), file.path));
+            removedSongs.remove(song.getUid());
+            return song.getUid();
+        }
+
+        // Otherwise, its old location hasn't been processed yet (or is unchanged, if this is a copy rather than a move).
+        Optional<SongFile> missing = adapter.getScanManifest().findSongsByFingerprint(contentPrefix).stream()
+                .filter(s -> !movedSongIds.contains(s.getSong().getUid()))
+                .filter(s -> !new File(adapter.getPathResolver().getFullPath(s.getSong())).exists())
+                .min(sameNameFirst);
+        if (missing.isPresent()) {
+            Song song = missing.get().getSong();
+            Log.d(LOG_TAG, String.format("Song %s has been moved to %s", song.getRelativePath(), file.path));
+            movedSongIds.add(song.getUid());
+            return song.getUid();
+        }
+        return null;
+    }
+
+    // Remembers songs that are about to be deleted, in case they show up somewhere else later in the scan.
+    private void rememberRemovedSongs(List<SongFile> songs) {
+        songs.stream()
+                .filter(s -> s.getFingerprint() != null && !movedSongIds.contains(s.getSong().getUid()))
+                .forEach(s -> removedSongs.put(s.getSong().getUid(), s));
+    }
+
+    private void removeBandDir(DirectoryRecord record) {
+        Log.d(LOG_TAG, String.format("Band directory %s has been removed", record.getPath()));
+        long bandID = Objects.requireNonNull(record.getBandId());
+        rememberRemovedSongs(adapter.getScanManifest().getSongFilesForBand(bandID));
+        adapter.getObjectCreator().deleteBand(bandID);
+        libraryChanged = true;
+        adapter.getScanManifest().forget(record.getPath());
     }
 
+    private void removeSubDir(DirectoryRecord record) {
+        Log.d(LOG_TAG, String.format("Album directory %s has been removed", record.getPath()));
+        Long albumID = record.getAlbumId();
+        if (albumID != null) {
+            rememberRemovedSongs(adapter.getScanManifest().getSongFilesForAlbum(albumID));
+            adapter.getObjectCreator().deleteAlbum(albumID);
+            libraryChanged = true;
+        } else {
+            getKnownSongs(Objects.requireNonNull(record.getBandId()), null, record.getPath()).values().forEach(this::removeSong);
+        }
+        adapter.getScanManifest().forget(record.getPath());
+    }
+
+    private void removeSong(SongFile known) {
+        Song song = known.getSong();
+        if (movedSongIds.contains(song.getUid())) {
+            // Its new location has been queued up, but not yet written.
+            return;
+        }
+        Log.d(LOG_TAG, String.format("Song %s has been removed", song.getRelativePath()));
+        rememberRemovedSongs(Collections.singletonList(known));
+        adapter.getObjectCreator().deleteSong(song.getUid());
+        libraryChanged = true;
+    }
+
+    /**
+     * Examines the entire collection, creating objects for everything. This should only be used when there is no
+     * existing library.
+     */
     public void scan() {
-        Optional<File> maybeRoot = findMcotpRoot();
-        maybeRoot.ifPresent(this::scanCollection);
+        startScan(false);
+        runScan(() -> findMcotpRoot().ifPresent(root -> {
+            startNewGeneration();
+            scanCollection(root);
+        }));
+    }
+
+    /**
+     * Brings an existing library up-to-date, only examining those parts of the collection that have changed.
+     */
+    public void rescan() {
+        startScan(true);
+        runScan(() -> findMcotpRoot().ifPresent(root -> {
+            startNewGeneration();
+            scanCollection(root);
+        }));
+    }
+
+    /**
+     * Finishes off an interrupted scan. Band directories that the interrupted scan finished are skipped entirely, and
+     * the rest are scanned as in a rescan. If the last scan was not interrupted, this is the same as a rescan.
+     *
+     * Anything that changed in the skipped band directories will be picked up by the next rescan.
+     */
+    public void resume() {
+        ScanCheckpoint previous = adapter.getScanManifest().getCheckpoint();
+        if (previous == null || previous.isComplete()) {
+            rescan();
+            return;
+        }
+
+        // Everything that the interrupted scan finished has been recorded in the manifest, so we can trust it.
+        startScan(true);
+        runScan(() -> findMcotpRoot().ifPresent(root -> {
+            Log.d(LOG_TAG, String.format("Resuming scan %d after %s", previous.getGeneration(), previous.getLastCompletedBand()));
+            isResumed = true;
+            checkpoint = previous;
+            discardPendingBand();
+            scanCollection(root);
+        }));
+    }
+
+    /**
+     * A brand-new band that was only partly committed has no manifest record, so a rescan would create it a second
+     * time. Throw away whatever was created for it, so that it can be scanned again from scratch.
+     */
+    private void discardPendingBand() {
+        Long pendingBandId = checkpoint.getPendingBandId();
+        String pendingBandPath = checkpoint.getPendingBandPath();
+        if (pendingBandId != null && pendingBandPath != null) {
+            Log.d(LOG_TAG, String.format("Discarding partly-scanned band directory %s", pendingBandPath));
+            adapter.getObjectCreator().deleteBand(pendingBandId);
+            libraryChanged = true;
+            adapter.getScanManifest().forget(pendingBandPath);
+        }
+        saveCheckpoint(false, checkpoint.getLastCompletedBand(), null, null);
+    }
+
+    /**
+     * Brings a single, previously-scanned, band directory up-to-date. Only the band's changed subdirectories are read.
+     *
+     * Band directories that have been added or removed are ignored here. Those show up as changes to the collection
+     * root, and are picked up by a regular rescan.
+     */
+    public void rescanBand(String bandPath) {
+        startScan(true);
+        DirectoryRecord bandRecord = adapter.getScanManifest().lookup(bandPath);
+        if (bandRecord == null || bandRecord.getBandId() == null || !new File(bandPath).isDirectory()) {
+            return;
+        }
+        DirectoryListing.Entry bandDir = new DirectoryListing.Entry(new File(bandPath).getName(), bandPath);
+        runScan(() -> {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                commitBand(pool.invoke(new BandReadTask(bandDir, bandRecord, getKnownSubdirs(bandPath))));
+            } finally {
+                pool.shutdown();
+            }
+        });
     }
 }
@@ -1,11 +1,9 @@
 package su.thepeople.carstereo.lib.backend;
 
 import su.thepeople.carstereo.R;
-import su.thepeople.carstereo.lib.data.Album;
 import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
 import su.thepeople.carstereo.lib.data.SongInfo;
 
-import java.util.List;
 import java.util.Optional;
 
 /**
@@ -59,9 +57,15 @@ public abstract class MusicSelector {
         }
 
         private SubMode subMode;
-
-        public CollectionMode(PlatformAdapter database) {
-            super(new SongProvider.ShuffleProvider(database), database);
+        private final BandSampler bandSampler;
+        private final ShuffleCycle shuffleCycle;
+        private final RecentlyPlayed recentlyPlayed;
+
+        public CollectionMode(PlatformAdapter database, BandSampler bandSampler, ShuffleCycle shuffleCycle, RecentlyPlayed recentlyPlayed) {
+            super(new SongProvider.ShuffleProvider(database, shuffleCycle), database);
+            this.bandSampler = bandSampler;
+            this.shuffleCycle = shuffleCycle;
+            this.recentlyPlayed = recentlyPlayed;
             subMode = SubMode.FULL_SHUFFLE;
         }
 
@@ -71,16 +75,16 @@ public abstract class MusicSelector {
         public boolean changeSubMode(SongInfo currentSongInfo) {
             switch(subMode) {
                 case FULL_SHUFFLE:
-                    setSongProvider(new SongProvider.DoubleShotProvider(getDatabase(), Optional.of(currentSongInfo.band)));
+                    setSongProvider(new SongProvider.DoubleShotProvider(getDatabase(), bandSampler, recentlyPlayed, Optional.of(currentSongInfo.band)));
                     subMode = SubMode.DOUBLE_SHOT;
                     break;
                 case DOUBLE_SHOT:
-                    setSongProvider(new SongProvider.BlockPartyProvider(getDatabase()));
+                    setSongProvider(new SongProvider.BlockPartyProvider(getDatabase(), bandSampler, recentlyPlayed));
                     subMode = SubMode.BLOCK_PARTY;
                     break;
                 default:
                     assert subMode == SubMode.BLOCK_PARTY;
-                    setSongProvider(new SongProvider.ShuffleProvider(getDatabase()));
+                    setSongProvider(new SongProvider.ShuffleProvider(getDatabase(), shuffleCycle));
                     subMode = SubMode.FULL_SHUFFLE;
             }
             return true;
@@ -142,12 +146,18 @@ public abstract class MusicSelector {
          */
         private boolean decadeMode = false;
         private int year;
+        private final RecentlyPlayed recentlyPlayed;
 
-        public YearMode(PlatformAdapter database, int year) {
-            super(new SongProvider.EraProvider(database, year, year), database);
+        public YearMode(PlatformAdapter database, RecentlyPlayed recentlyPlayed, int year) {
+            super(new SongProvider.EraProvider(database, recentlyPlayed, year, year), database);
+            this.recentlyPlayed = recentlyPlayed;
             this.year = year;
         }
 
+        private void playEra(int firstYear, int lastYear) {
+            setSongProvider(new SongProvider.EraProvider(getDatabase(), recentlyPlayed, firstYear, lastYear));
+        }
+
         private static int firstYearOfDecade(int year) {
             return (year / 10) * 10;  // use integer division to discard ones position
         }
@@ -160,11 +170,12 @@ public abstract class MusicSelector {
             Integer boxedYear = currentSongInfo.song.getYear();
             if (boxedYear != null) {
                 int year = boxedYear;
+                this.year = year;
                 if (decadeMode) {
-                    setSongProvider(new SongProvider.EraProvider(getDatabase(), year, year));
+                    playEra(year, year);
                 } else {
                     int first = firstYearOfDecade(year);
-                    setSongProvider(new SongProvider.EraProvider(getDatabase(), first, first + 9));
+                    playEra(first, first + 9);
                 }
                 decadeMode = !decadeMode;
                 return true;
@@ -177,30 +188,34 @@ public abstract class MusicSelector {
             return decadeMode ? R.string.decade : R.string.empty;
         }
 
-        @Override
-        public boolean resyncBackward(SongInfo currentSong) {
+        /*
+         * Moving to the next/previous year (or decade) skips over any that have no songs, since there would be nothing
+         * to play. If there are no more years in that direction, we stay where we are.
+         */
+        private boolean moveTo(Integer newYear) {
+            if (newYear == null) {
+                return false;
+            }
+            year = newYear;
             if (decadeMode) {
-                year -= 10;
                 int first = firstYearOfDecade(year);
-                setSongProvider(new SongProvider.EraProvider(getDatabase(), first, first + 9));
+                playEra(first, first + 9);
             } else {
-                year--;
-                setSongProvider(new SongProvider.EraProvider(getDatabase(), year, year));
+                playEra(year, year);
             }
             return true;
         }
 
+        @Override
+        public boolean resyncBackward(SongInfo currentSong) {
+            int firstExcluded = decadeMode ? firstYearOfDecade(year) : year;
+            return moveTo(getDatabase().getSongFetcher().getPreviousYear(firstExcluded));
+        }
+
         @Override
         public boolean resyncForward(SongInfo currentSong) {
-            if (decadeMode) {
-                year += 10;
-                int first = firstYearOfDecade(year);
-                setSongProvider(new SongProvider.EraProvider(getDatabase(), first, first + 9));
-            } else {
-                year++;
-                setSongProvider(new SongProvider.EraProvider(getDatabase(), year, year));
-            }
-            return true;
+            int lastExcluded = decadeMode ? firstYearOfDecade(year) + 9 : year;
+            return moveTo(getDatabase().getSongFetcher().getNextYear(lastExcluded));
         }
     }
 
@@ -211,17 +226,29 @@ public abstract class MusicSelector {
          */
         private boolean isShuffle = true;
 
+        // Built the first time that sequential mode needs it, and kept until the band or the library changes.
+        private BandNavigation navigation;
+
         public BandMode(PlatformAdapter database, long bandId) {
             super(new SongProvider.BandShuffleProvider(database, bandId), database);
         }
 
+        private BandNavigation getNavigation(long bandId) {
+            long generation = getDatabase().getLibraryGeneration();
+            if (navigation == null || navigation.getBandId() != bandId || navigation.getGeneration() != generation) {
+                navigation = BandNavigation.build(getDatabase(), bandId, generation);
+            }
+            return navigation;
+        }
+
         @Override
         public MusicControllerThread.PlayModeEnum getModeType() { return MusicControllerThread.PlayModeEnum.BAND; }
 
         @Override
         public boolean changeSubMode(SongInfo currentSongInfo) {
             if (isShuffle) {
-                setSongProvider(new SongProvider.BandSequentialProvider(getDatabase(), currentSongInfo.band.getUid(), Optional.of(currentSongInfo.song.getUid()), false));
+                BandNavigation bandNavigation = getNavigation(currentSongInfo.band.getUid());
+                setSongProvider(new SongProvider.BandSequentialProvider(getDatabase(), bandNavigation, currentSongInfo.song.getUid()));
             } else {
                 setSongProvider(new SongProvider.BandShuffleProvider(getDatabase(), currentSongInfo.band.getUid()));
             }
@@ -237,7 +264,8 @@ public abstract class MusicSelector {
         public boolean resyncBackward(SongInfo currentSong) {
             if (!isShuffle) {
                 if (currentSong.album != null) {
-                    setSongProvider(SongProvider.BandSequentialProvider.atAlbumStart(getDatabase(), currentSong.album));
+                    BandNavigation bandNavigation = getNavigation(currentSong.band.getUid());
+                    setSongProvider(SongProvider.BandSequentialProvider.atAlbumStart(getDatabase(), bandNavigation, currentSong.album.getUid()));
                     return true;
                 }
             }
@@ -246,19 +274,13 @@ public abstract class MusicSelector {
 
         @Override
         public boolean resyncForward(SongInfo currentSong) {
-            // TODO: This query is slow and can cause a noticeable lag. Look into caching the list of albums
-            // at start time.
             if (!isShuffle) {
                 if (currentSong.album != null) {
-                    List<? extends Album> albums = getDatabase().getAlbumFetcher().getAllForBand(currentSong.band.getUid());
-                    boolean foundAlbum = false;
-                    for (Album album : albums) {
-                        if (foundAlbum) {
-                            setSongProvider(SongProvider.BandSequentialProvider.atAlbumStart(getDatabase(), album));
-                            return true;
-                        } else if (album.getUid() == currentSong.album.getUid()) {
-                            foundAlbum = true;
-                        }
+                    BandNavigation bandNavigation = getNavigation(currentSong.band.getUid());
+                    int nextAlbumStart = bandNavigation.findNextAlbumStart(currentSong.album.getUid());
+                    if (nextAlbumStart >= 0) {
+                        setSongProvider(SongProvider.BandSequentialProvider.atPosition(getDatabase(), bandNavigation, nextAlbumStart));
+                        return true;
                     }
                 }
             }
@@ -0,0 +1,79 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import su.thepeople.carstereo.lib.util.Log;
+
+/**
+ * Reads directories using java.nio.
+ *
+ * The directory walk hands us each item's attributes (type, size and timestamp) from a single system call, so we never need
+ * to go back to the disk to ask whether an item is a file or a directory. Symbolic links are followed, just like
+ * java.io.File would.
+ */
+public class NioDirectoryReader implements DirectoryReader {
+
+    private static final String LOG_TAG = "NIO Directory Reader";
+
+    private static class ListingVisitor extends SimpleFileVisitor<Path> {
+        private final String prefix;
+        private long lastModified = 0;
+        private int count = 0;
+        private final List<DirectoryListing.Entry> subdirs = new ArrayList<>();
+        private final List<DirectoryListing.Entry> files = new ArrayList<>();
+
+        ListingVisitor(String path) {
+            prefix = path + File.separator;
+        }
+
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            // This is called before the contents are read, so anything added mid-scan will be caught by the next scan.
+            lastModified = attrs.lastModifiedTime().toMillis();
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path item, BasicFileAttributes attrs) {
+            count++;
+            String name = item.getFileName().toString();
+            if (attrs.isDirectory()) {
+                subdirs.add(new DirectoryListing.Entry(name, prefix + name));
+            } else if (attrs.isRegularFile()) {
+                files.add(new DirectoryListing.Entry(name, prefix + name, attrs.size(), attrs.lastModifiedTime().toMillis()));
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path item, IOException e) {
+            // Typically a broken symbolic link. It still counts as an entry, but is otherwise ignored.
+            count++;
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    @Override
+    public DirectoryListing read(String path) {
+        Path dir = Paths.get(path);
+        ListingVisitor visitor = new ListingVisitor(path);
+        try {
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, visitor);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, String.format("Unable to read directory %s", path), e);
+        }
+        Path name = dir.getFileName();
+        return new DirectoryListing(path, (name == null) ? "" : name.toString(), visitor.lastModified, visitor.count, visitor.subdirs, visitor.files);
+    }
+}
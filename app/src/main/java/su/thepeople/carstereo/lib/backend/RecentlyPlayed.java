@@ -0,0 +1,115 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.util.Log;
+import su.thepeople.carstereo.lib.util.RecentIds;
+
+/**
+ * Keeps track of the songs and bands that were recently handed to the player, so that the random song providers can
+ * avoid repeating them. Each provider decides how far back to look (its "window"), since a whole decade can afford a
+ * much wider window than a single year.
+ *
+ * A candidate that was played recently is thrown back, and another one is drawn. There is a cap on the number of
+ * redraws, because a small year (or a small library) might have nothing left that hasn't been played recently. In that
+ * case, we settle for whatever was played longest ago, rather than play nothing.
+ *
+ * Songs are recorded on the music controller's thread, but picked on the batch prefetcher's thread (and on the lock
+ * speculator's low-priority thread). The lock is only held to check candidates against the history, never while
+ * drawing them, so recording a batch never has to wait for somebody else's database query.
+ */
+class RecentlyPlayed {
+
+    private static final String LOG_TAG = "Recently Played";
+
+    private static final int MAX_REDRAWS = 4;
+
+    // The longest windows that any provider can ask for.
+    private static final int MAX_SONGS = 200;
+    private static final int MAX_BANDS = 50;
+
+    private final RecentIds songs = new RecentIds(MAX_SONGS);
+    // A band's window counts changes of band, so playing several songs in a row by one band only uses one slot.
+    private final RecentIds bands = new RecentIds(MAX_BANDS);
+    private Long lastBandId = null;
+
+    synchronized void record(List<? extends Song> batch) {
+        for (Song song : batch) {
+            songs.add(song.getUid());
+            if (lastBandId == null || lastBandId != song.getBandId()) {
+                bands.add(song.getBandId());
+                lastBandId = song.getBandId();
+            }
+        }
+    }
+
+    /**
+     * Draws a band, and redraws if it was one of the last "window" bands played.
+     */
+    Optional<Long> pickBand(Supplier<Optional<Long>> picker, int window) {
+        Optional<Long> pick = picker.get();
+        for (int i = 0; i < MAX_REDRAWS && pick.isPresent() && isRecentBand(pick.get(), window); i++) {
+            pick = picker.get();
+        }
+        return pick;
+    }
+
+    private synchronized boolean isRecentBand(long bandId, int window) {
+        return bands.isWithin(bandId, window);
+    }
+
+    // Returns how many songs ago each candidate was played, or Long.MAX_VALUE for those outside of the window.
+    private synchronized long[] getRecentAges(List<Song> candidates, int window) {
+        long[] ages = new long[candidates.size()];
+        for (int i = 0; i < ages.length; i++) {
+            long uid = candidates.get(i).getUid();
+            ages[i] = songs.isWithin(uid, window) ? songs.age(uid) : Long.MAX_VALUE;
+        }
+        return ages;
+    }
+
+    /**
+     * Draws batches of candidate songs until there are "count" of them that weren't among the last "window" songs
+     * played. If we run out of redraws first, the rest of the batch is filled with whichever candidates were played
+     * longest ago.
+     */
+    List<Song> pickSongs(Supplier<List<Song>> drawer, int count, int window) {
+        List<Song> chosen = new ArrayList<>(count);
+        List<Song> recent = new ArrayList<>();
+        Map<Long, Long> recentAges = new HashMap<>();
+        Set<Long> seen = new HashSet<>();
+        for (int draw = 0; draw <= MAX_REDRAWS && chosen.size() < count; draw++) {
+            List<Song> candidates = drawer.get();
+            if (candidates.isEmpty()) {
+                break;
+            }
+            long[] ages = getRecentAges(candidates, window);
+            for (int i = 0; i < ages.length; i++) {
+                Song song = candidates.get(i);
+                if (chosen.size() < count && seen.add(song.getUid())) {
+                    if (ages[i] != Long.MAX_VALUE) {
+                        recent.add(song);
+                        recentAges.put(song.getUid(), ages[i]);
+                    } else {
+                        chosen.add(song);
+                    }
+                }
+            }
+        }
+        if (chosen.size() < count && !recent.isEmpty()) {
+            Log.d(LOG_TAG, String.format("Only found %d fresh songs, reusing some recent ones", chosen.size()));
+            recent.sort(Comparator.comparingLong((Song song) -> recentAges.get(song.getUid())).reversed());
+            chosen.addAll(recent.subList(0, Math.min(count - chosen.size(), recent.size())));
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,238 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.util.Log;
+
+/**
+ * Plays every song in the library exactly once, in a random order, before any song is played again.
+ *
+ * The order is one random permutation of every song ID, which we walk through a batch at a time. It is kept in a small
+ * file (a header, then one int per song), so that a restart carries on with the same cycle rather than starting a new
+ * one. Moving on to the next batch only rewrites the cursor in the header.
+ *
+ * A batch doesn't count as played until it is committed, which happens when it is handed to the player. Until then,
+ * the cursor stays put. So a batch that is picked ahead of time and then thrown away (because the mode changed first)
+ * is simply handed out again next time, rather than being skipped for the rest of the cycle.
+ *
+ * When the library changes, the permutation is patched rather than rebuilt. Removed songs are dropped, and new songs
+ * are slotted in at random among the songs that have not been played yet in this cycle.
+ *
+ * Song IDs are sqlite row IDs, which are handed out in order starting from 1, so an int is plenty.
+ *
+ * Batches are picked on the batch prefetcher's thread, but committed on the music controller's thread.
+ */
+class ShuffleCycle {
+
+    private static final String LOG_TAG = "Shuffle Cycle";
+
+    private static final int MAGIC = 0x53485546; // "SHUF"
+    private static final int VERSION = 1;
+    // The header is: magic, version, cursor, song count.
+    private static final long CURSOR_OFFSET = 8;
+
+    private final PlatformAdapter database;
+    private final File file;
+    private final Random random = new Random();
+
+    // Songs before the cursor have already been played in this cycle.
+    private int[] order = null;
+    private int cursor = 0;
+
+    // The library generation that the order was last checked against. Nothing is checked until the first batch.
+    private boolean isChecked = false;
+    private long checkedGeneration = 0;
+
+    // The most recently picked batch, and where the cursor will move to if that batch is committed.
+    private List<Song> pendingBatch = null;
+    private int pendingEnd = 0;
+
+    ShuffleCycle(PlatformAdapter database, File file) {
+        this.database = database;
+        this.file = file;
+    }
+
+    /**
+     * Returns the next few songs in the cycle, starting a new cycle if this one is finished. An empty result means the
+     * library has no songs at all. The cursor doesn't move until the batch is committed.
+     */
+    synchronized List<Song> nextBatch(int batchSize) {
+        pendingBatch = null;
+        if (order == null) {
+            load();
+        }
+        long generation = database.getLibraryGeneration();
+        if (!isChecked || generation != checkedGeneration) {
+            if (patch()) {
+                save();
+            }
+            isChecked = true;
+            checkedGeneration = generation;
+        }
+        if (order.length == 0) {
+            return new ArrayList<>();
+        }
+        if (cursor >= order.length) {
+            Log.d(LOG_TAG, String.format("Starting a new cycle of %d songs", order.length));
+            shuffle(0, order.length);
+            cursor = 0;
+            save();
+        }
+
+        int end = Math.min(cursor + batchSize, order.length);
+        List<Long> ids = new ArrayList<>(end - cursor);
+        for (int i = cursor; i < end; i++) {
+            ids.add((long) order[i]);
+        }
+        List<Song> batch = SongIdPlaylist.lookupInOrder(database.getSongFetcher(), ids);
+        pendingBatch = batch;
+        pendingEnd = end;
+        return batch;
+    }
+
+    /**
+     * Marks the given batch as played, moving the cursor past it. Only the most recently picked batch can be committed.
+     * Anything else (including batches that didn't come from this cycle at all) is ignored.
+     */
+    synchronized void commit(List<? extends Song> batch) {
+        if (batch != pendingBatch) {
+            return;
+        }
+        cursor = pendingEnd;
+        pendingBatch = null;
+        saveCursor();
+    }
+
+    // Shuffles the given range of the order in place.
+    private void shuffle(int start, int end) {
+        for (int i = end - 1; i > start; i--) {
+            int swap = start + random.nextInt(i - start + 1);
+            int temp = order[i];
+            order[i] = order[swap];
+            order[swap] = temp;
+        }
+    }
+
+    /**
+     * Brings the order up to date with the library. Returns false if nothing needed to change.
+     */
+    private boolean patch() {
+        int[] libraryIds = database.getSongFetcher().getAllIds().stream()
+                .filter(id -> id <= Integer.MAX_VALUE)
+                .mapToInt(Long::intValue)
+                .sorted()
+                .toArray();
+
+        // Drop songs that are no longer in the library, keeping everything else where it is.
+        int[] kept = new int[order.length];
+        int keptCount = 0;
+        int newCursor = cursor;
+        for (int i = 0; i < order.length; i++) {
+            if (Arrays.binarySearch(libraryIds, order[i]) >= 0) {
+                kept[keptCount++] = order[i];
+            } else if (i < cursor) {
+                newCursor--;
+            }
+        }
+
+        // Whatever is left over is new, and goes on the end. Each one then swaps with a random unplayed song.
+        int[] knownIds = Arrays.copyOf(kept, keptCount);
+        Arrays.sort(knownIds);
+        int[] patched = Arrays.copyOf(kept, libraryIds.length);
+        int patchedCount = keptCount;
+        for (int id : libraryIds) {
+            if (Arrays.binarySearch(knownIds, id) < 0) {
+                patched[patchedCount++] = id;
+            }
+        }
+        if (keptCount == order.length && patchedCount == keptCount) {
+            return false;
+        }
+        Log.d(LOG_TAG, String.format("Library changed: %d songs removed, %d songs added",
+                order.length - keptCount, patchedCount - keptCount));
+        order = patched;
+        cursor = newCursor;
+        for (int i = keptCount; i < patchedCount; i++) {
+            int swap = cursor + random.nextInt(i - cursor + 1);
+            int temp = order[i];
+            order[i] = order[swap];
+            order[swap] = temp;
+        }
+        return true;
+    }
+
+    private void load() {
+        order = new int[0];
+        cursor = 0;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(LOG_TAG, "Ignoring shuffle order in an unknown format");
+                return;
+            }
+            int savedCursor = in.readInt();
+            int[] savedOrder = new int[in.readInt()];
+            for (int i = 0; i < savedOrder.length; i++) {
+                savedOrder[i] = in.readInt();
+            }
+            order = savedOrder;
+            cursor = Math.max(0, Math.min(savedCursor, savedOrder.length));
+            Log.d(LOG_TAG, String.format("Resuming shuffle at song %d of %d", cursor, order.length));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Ignoring unreadable shuffle order", e);
+        }
+    }
+
+    // Writes the whole order to a temporary file, and then renames it into place.
+    private void save() {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(cursor);
+                out.writeInt(order.length);
+                for (int id : order) {
+                    out.writeInt(id);
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException(String.format("Unable to move new shuffle order into place at %s", file.getPath()));
+            }
+        } catch (IOException e) {
+            // Not worth interrupting the music over. The worst case is that a restart begins a new cycle.
+            Log.e(LOG_TAG, "Unable to save shuffle order", e);
+        }
+    }
+
+    private void saveCursor() {
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(CURSOR_OFFSET);
+            out.writeInt(cursor);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to save shuffle position");
+        }
+    }
+}
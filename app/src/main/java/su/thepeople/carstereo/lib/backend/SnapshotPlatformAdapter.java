@@ -0,0 +1,166 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.io.File;
+import java.io.IOException;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+import su.thepeople.carstereo.lib.platform_interface.DirectoryWatcher;
+import su.thepeople.carstereo.lib.platform_interface.LogProvider;
+import su.thepeople.carstereo.lib.platform_interface.MessagingSystem;
+import su.thepeople.carstereo.lib.platform_interface.MusicPlayer;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.platform_interface.ScanManifest;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+import su.thepeople.carstereo.lib.util.Log;
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Wraps a platform adapter, so that all lookups are served from a LibrarySnapshot instead of the platform's own storage.
+ *
+ * This lets music start playing without ever touching the platform's database. Everything that writes (object
+ * creation, the scan manifest, and so on) still goes to the wrapped platform. Whenever a scan changes the library, a
+ * fresh snapshot is written from the wrapped platform and swapped in.
+ *
+ * If there is no usable snapshot (for example, on the very first run), lookups fall back to the wrapped platform.
+ * The snapshot is also thrown away as soon as anything writes to the library, so that a scan never reads out-of-date
+ * information, and so that a crash part-way through a scan can't leave an out-of-date snapshot behind.
+ */
+public class SnapshotPlatformAdapter implements PlatformAdapter {
+
+    private static final String LOG_TAG = "Snapshot Adapter";
+
+    private final PlatformAdapter delegate;
+    private final File snapshotFile;
+    private final PathResolver pathResolver = new SnapshotPathResolver();
+    private final ObjectCreator objectCreator;
+
+    @Nullable
+    private volatile LibrarySnapshot snapshot;
+
+    public SnapshotPlatformAdapter(PlatformAdapter delegate, File snapshotFile) {
+        this.delegate = delegate;
+        this.snapshotFile = snapshotFile;
+        this.objectCreator = new InvalidatingObjectCreator(delegate, this::invalidate);
+        if (snapshotFile.exists()) {
+            try {
+                snapshot = LibrarySnapshot.open(snapshotFile);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Ignoring unreadable library snapshot", e);
+            }
+        }
+    }
+
+    // Returns true if there is a snapshot with at least one song in it.
+    public boolean hasSnapshot() {
+        LibrarySnapshot current = snapshot;
+        return current != null && current.getSongCount() > 0;
+    }
+
+    private void invalidate() {
+        if (snapshot != null) {
+            Log.d(LOG_TAG, "Library is changing, no longer using snapshot");
+            snapshot = null;
+        }
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            Log.w(LOG_TAG, "Unable to remove out-of-date library snapshot");
+        }
+    }
+
+    private void writeSnapshot() {
+        long startTime = System.currentTimeMillis();
+        try {
+            new SnapshotWriter(delegate).write(snapshotFile);
+            snapshot = LibrarySnapshot.open(snapshotFile);
+            Log.d(LOG_TAG, String.format("Wrote library snapshot in %d ms", System.currentTimeMillis() - startTime));
+        } catch (IOException e) {
+            // Better to be slow than wrong. Keep reading from the wrapped platform.
+            Log.e(LOG_TAG, "Unable to write library snapshot", e);
+            invalidate();
+        }
+    }
+
+    /**
+     * Writes a snapshot if we don't already have one. This should be called once the library is known to be complete,
+     * since nothing else will write a snapshot until the library changes.
+     */
+    public void ensureSnapshot() {
+        if (snapshot == null) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * The snapshot knows the path of every root that its songs use. Roots for brand-new songs might not be in the
+     * snapshot yet, so we fall back to the wrapped platform for those.
+     */
+    private class SnapshotPathResolver implements PathResolver {
+        @Override
+        public long getRootId(@NonNull String rootPath) {
+            return delegate.getPathResolver().getRootId(rootPath);
+        }
+
+        @Nullable
+        @Override
+        public String getRootPath(long rootId) {
+            LibrarySnapshot current = snapshot;
+            String rootPath = (current == null) ? null : current.getRootPath(rootId);
+            return (rootPath == null) ? delegate.getPathResolver().getRootPath(rootId) : rootPath;
+        }
+
+        @NonNull
+        @Override
+        public String getFullPath(@NonNull Song song) {
+            return getRootPath(song.getRootId()) + File.separator + song.getRelativePath();
+        }
+    }
+
+    @Override public ObjectCreator getObjectCreator() { return objectCreator; }
+
+    @Override public ScanManifest getScanManifest() { return delegate.getScanManifest(); }
+
+    @Override public PathResolver getPathResolver() { return pathResolver; }
+
+    @Override public DirectoryWatcher createDirectoryWatcher(DirectoryWatcher.Listener listener) {
+        return delegate.createDirectoryWatcher(listener);
+    }
+
+    @Override public BandFetcher getBandFetcher() {
+        LibrarySnapshot current = snapshot;
+        return (current == null) ? delegate.getBandFetcher() : current.getBandFetcher();
+    }
+
+    @Override public AlbumFetcher getAlbumFetcher() {
+        LibrarySnapshot current = snapshot;
+        return (current == null) ? delegate.getAlbumFetcher() : current.getAlbumFetcher();
+    }
+
+    @Override public SongFetcher getSongFetcher() {
+        LibrarySnapshot current = snapshot;
+        return (current == null) ? delegate.getSongFetcher() : current.getSongFetcher();
+    }
+
+    @Override public MusicPlayer createMusicPlayer(MusicControllerThread controller, PathResolver pathResolver) {
+        return delegate.createMusicPlayer(controller, pathResolver);
+    }
+
+    @Override public LogProvider getLogProvider() { return delegate.getLogProvider(); }
+
+    @Override public long getLibraryGeneration() { return delegate.getLibraryGeneration(); }
+
+    @Override public MessagingSystem createMessagingSystemForCurrentThread() {
+        return delegate.createMessagingSystemForCurrentThread();
+    }
+
+    /**
+     * Writes a new snapshot, and swaps it in. Anyone in the middle of using an old snapshot can keep doing so, since
+     * the old file stays mapped until it is no longer referenced.
+     */
+    @Override public void onLibraryChanged() {
+        delegate.onLibraryChanged();
+        writeSnapshot();
+    }
+}
@@ -0,0 +1,232 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+import static su.thepeople.carstereo.lib.backend.LibrarySnapshot.*;
+
+/**
+ * Writes a LibrarySnapshot file, by reading the entire library out of the given platform's fetchers.
+ *
+ * The new snapshot is written to a temporary file, and then renamed into place. So, a reader will only ever see a
+ * complete snapshot (either the old one or the new one).
+ */
+public class SnapshotWriter {
+
+    private final PlatformAdapter source;
+
+    // Everything is gathered up in memory first, since the layout of each section depends on the size of the others.
+    private final List<Band> bands = new ArrayList<>();
+    private final List<Album> albums = new ArrayList<>();
+    private final List<Song> songs = new ArrayList<>();
+    private final TreeMap<Long, String> roots = new TreeMap<>();
+
+    // Orderings, as indexes into the lists above.
+    private final List<Integer> bandsByName = new ArrayList<>();
+    private final List<Integer> bandAlbums = new ArrayList<>();
+    private final List<Integer> bandSongs = new ArrayList<>();
+    private final List<Integer> albumSongs = new ArrayList<>();
+    private final List<Integer> yearSongs = new ArrayList<>();
+
+    // Ranges into the orderings above, as {first, count}, keyed by uid (or by year).
+    private final Map<Long, int[]> bandAlbumRanges = new HashMap<>();
+    private final Map<Long, int[]> bandSongRanges = new HashMap<>();
+    private final Map<Long, int[]> albumSongRanges = new HashMap<>();
+    private final TreeMap<Integer, int[]> yearRanges = new TreeMap<>();
+
+    private final ByteArrayOutputStream stringPool = new ByteArrayOutputStream();
+
+    public SnapshotWriter(PlatformAdapter source) {
+        this.source = source;
+    }
+
+    private void gather() {
+        List<Band> bandsInSortOrder = source.getBandFetcher().getAll();
+        List<List<Album>> albumsPerBand = new ArrayList<>();
+        List<List<Song>> songsPerBand = new ArrayList<>();
+        for (Band band : bandsInSortOrder) {
+            List<Album> bandAlbumList = source.getAlbumFetcher().getAllForBand(band.getUid());
+            List<Song> bandSongList = source.getSongFetcher().getAllForBandOrdered(band.getUid());
+            bands.add(band);
+            albums.addAll(bandAlbumList);
+            songs.addAll(bandSongList);
+            albumsPerBand.add(bandAlbumList);
+            songsPerBand.add(bandSongList);
+        }
+
+        // Records are stored in uid order. We need to know where each uid ended up, in order to build the orderings.
+        bands.sort(Comparator.comparingLong(Band::getUid));
+        albums.sort(Comparator.comparingLong(Album::getUid));
+        songs.sort(Comparator.comparingLong(Song::getUid));
+        Map<Long, Integer> bandIndexes = new HashMap<>();
+        Map<Long, Integer> albumIndexes = new HashMap<>();
+        Map<Long, Integer> songIndexes = new HashMap<>();
+        for (int i = 0; i < bands.size(); i++) {
+            bandIndexes.put(bands.get(i).getUid(), i);
+        }
+        for (int i = 0; i < albums.size(); i++) {
+            albumIndexes.put(albums.get(i).getUid(), i);
+        }
+        for (int i = 0; i < songs.size(); i++) {
+            songIndexes.put(songs.get(i).getUid(), i);
+        }
+
+        Map<Long, List<Song>> songsPerAlbum = new HashMap<>();
+        Map<Integer, List<Song>> songsPerYear = new TreeMap<>();
+        for (int b = 0; b < bandsInSortOrder.size(); b++) {
+            long bandId = bandsInSortOrder.get(b).getUid();
+            bandsByName.add(bandIndexes.get(bandId));
+
+            bandAlbumRanges.put(bandId, new int[] {bandAlbums.size(), albumsPerBand.get(b).size()});
+            albumsPerBand.get(b).forEach(album -> bandAlbums.add(albumIndexes.get(album.getUid())));
+
+            bandSongRanges.put(bandId, new int[] {bandSongs.size(), songsPerBand.get(b).size()});
+            for (Song song : songsPerBand.get(b)) {
+                bandSongs.add(songIndexes.get(song.getUid()));
+                if (song.getAlbumId() != null) {
+                    songsPerAlbum.computeIfAbsent(song.getAlbumId(), id -> new ArrayList<>()).add(song);
+                }
+                if (song.getYear() != null) {
+                    songsPerYear.computeIfAbsent(song.getYear(), year -> new ArrayList<>()).add(song);
+                }
+                roots.computeIfAbsent(song.getRootId(), id -> source.getPathResolver().getRootPath(id));
+            }
+        }
+
+        // Same ordering as SongFetcher.getAllForAlbum()
+        for (Album album : albums) {
+            List<Song> albumSongList = songsPerAlbum.getOrDefault(album.getUid(), new ArrayList<>());
+            albumSongList.sort(Comparator.comparing(Song::getRelativePath));
+            albumSongRanges.put(album.getUid(), new int[] {albumSongs.size(), albumSongList.size()});
+            albumSongList.forEach(song -> albumSongs.add(songIndexes.get(song.getUid())));
+        }
+
+        songsPerYear.forEach((year, yearSongList) -> {
+            yearRanges.put(year, new int[] {yearSongs.size(), yearSongList.size()});
+            yearSongList.forEach(song -> yearSongs.add(songIndexes.get(song.getUid())));
+        });
+    }
+
+    // Adds the string to the pool, and writes a reference to it (pool offset, byte length).
+    private void putString(ByteBuffer buffer, @Nullable String string) {
+        byte[] bytes = (string == null) ? new byte[0] : string.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(stringPool.size());
+        buffer.putInt(bytes.length);
+        stringPool.write(bytes, 0, bytes.length);
+    }
+
+    private static int yearOrDefault(@Nullable Integer year) {
+        return (year == null) ? NO_YEAR : year;
+    }
+
+    private static int[] getRange(Map<Long, int[]> ranges, long uid) {
+        int[] range = ranges.get(uid);
+        return (range == null) ? new int[] {0, 0} : range;
+    }
+
+    private ByteBuffer layout() {
+        int[] counts = new int[SECTION_COUNT];
+        int[] sizes = new int[SECTION_COUNT];
+        counts[SECTION_BANDS] = bands.size();
+        sizes[SECTION_BANDS] = bands.size() * BAND_SIZE;
+        counts[SECTION_ALBUMS] = albums.size();
+        sizes[SECTION_ALBUMS] = albums.size() * ALBUM_SIZE;
+        counts[SECTION_SONGS] = songs.size();
+        sizes[SECTION_SONGS] = songs.size() * SONG_SIZE;
+        counts[SECTION_ROOTS] = roots.size();
+        sizes[SECTION_ROOTS] = roots.size() * ROOT_SIZE;
+        counts[SECTION_YEARS] = yearRanges.size();
+        sizes[SECTION_YEARS] = yearRanges.size() * YEAR_SIZE;
+        List<List<Integer>> orderings = new ArrayList<>();
+        orderings.add(bandsByName);
+        orderings.add(bandAlbums);
+        orderings.add(bandSongs);
+        orderings.add(albumSongs);
+        orderings.add(yearSongs);
+        for (int i = 0; i < orderings.size(); i++) {
+            counts[SECTION_BANDS_BY_NAME + i] = orderings.get(i).size();
+            sizes[SECTION_BANDS_BY_NAME + i] = orderings.get(i).size() * 4;
+        }
+
+        int total = HEADER_SIZE;
+        int[] offsets = new int[SECTION_COUNT];
+        for (int section = 0; section < SECTION_STRINGS; section++) {
+            offsets[section] = total;
+            total += sizes[section];
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+
+        buffer.position(offsets[SECTION_BANDS]);
+        for (Band band : bands) {
+            buffer.putLong(band.getUid());
+            putString(buffer, band.getName());
+            int[] albumRange = getRange(bandAlbumRanges, band.getUid());
+            int[] songRange = getRange(bandSongRanges, band.getUid());
+            buffer.putInt(albumRange[0]).putInt(albumRange[1]).putInt(songRange[0]).putInt(songRange[1]);
+        }
+        for (Album album : albums) {
+            buffer.putLong(album.getUid()).putLong(album.getBandId()).putInt(yearOrDefault(album.getYear()));
+            putString(buffer, album.getName());
+            int[] songRange = getRange(albumSongRanges, album.getUid());
+            buffer.putInt(songRange[0]).putInt(songRange[1]);
+        }
+        for (Song song : songs) {
+            Long albumId = song.getAlbumId();
+            buffer.putLong(song.getUid()).putLong(song.getBandId()).putLong((albumId == null) ? NO_ALBUM : albumId);
+            buffer.putLong(song.getRootId()).putInt(yearOrDefault(song.getYear()));
+            putString(buffer, song.getName());
+            putString(buffer, song.getRelativePath());
+        }
+        roots.forEach((uid, path) -> {
+            buffer.putLong(uid);
+            putString(buffer, path);
+        });
+        yearRanges.forEach((year, range) -> buffer.putInt(year).putInt(range[0]).putInt(range[1]));
+        orderings.forEach(ordering -> ordering.forEach(buffer::putInt));
+
+        offsets[SECTION_STRINGS] = total;
+        counts[SECTION_STRINGS] = stringPool.size();
+        buffer.position(0);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        for (int section = 0; section < SECTION_COUNT; section++) {
+            buffer.putInt(offsets[section]).putInt(counts[section]);
+        }
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * Writes a complete snapshot of the current library to the given file, replacing any existing snapshot.
+     */
+    public void write(File file) throws IOException {
+        gather();
+        ByteBuffer records = layout();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            while (records.hasRemaining()) {
+                out.getChannel().write(records);
+            }
+            stringPool.writeTo(out);
+            out.getFD().sync();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException(String.format("Unable to move new snapshot into place at %s", file.getPath()));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+
+/**
+ * A planned order of songs, held as song IDs only. Songs are looked up a few at a time, just ahead of the player, so
+ * that a long playlist costs no more to start than a short one.
+ */
+class SongIdPlaylist {
+
+    // How many songs to look up at once. The player asks for more when it runs out.
+    static final int WINDOW_SIZE = 10;
+
+    private final long[] songIds;
+    private int nextPosition = 0;
+
+    SongIdPlaylist(long[] songIds) {
+        this.songIds = songIds;
+    }
+
+    static SongIdPlaylist shuffled(List<Long> songIds, Random random) {
+        long[] ids = new long[songIds.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = songIds.get(i);
+        }
+        for (int i = ids.length - 1; i > 0; i--) {
+            int swap = random.nextInt(i + 1);
+            long temp = ids[i];
+            ids[i] = ids[swap];
+            ids[swap] = temp;
+        }
+        return new SongIdPlaylist(ids);
+    }
+
+    boolean hasMore() {
+        return nextPosition < songIds.length;
+    }
+
+    /**
+     * Looks up the next few songs, in playlist order. Songs that have been removed from the library since the playlist
+     * was planned are skipped. An empty result means the playlist is finished.
+     */
+    List<Song> nextWindow(SongFetcher fetcher) {
+        List<Song> window = new ArrayList<>(WINDOW_SIZE);
+        while (window.isEmpty() && hasMore()) {
+            int end = Math.min(nextPosition + WINDOW_SIZE, songIds.length);
+            List<Long> ids = new ArrayList<>(end - nextPosition);
+            for (int i = nextPosition; i < end; i++) {
+                ids.add(songIds[i]);
+            }
+            nextPosition = end;
+            window = lookupInOrder(fetcher, ids);
+        }
+        return window;
+    }
+
+    // Looks up the given songs, and returns them in the same order as the IDs. Unknown IDs are skipped.
+    static List<Song> lookupInOrder(SongFetcher fetcher, List<Long> ids) {
+        Map<Long, Song> songsById = new HashMap<>();
+        fetcher.lookupAll(ids).forEach(song -> songsById.put(song.getUid(), song));
+        List<Song> songs = new ArrayList<>(ids.size());
+        for (long id : ids) {
+            Song song = songsById.get(id);
+            if (song != null) {
+                songs.add(song);
+            }
+        }
+        return songs;
+    }
+}
@@ -2,7 +2,6 @@ package su.thepeople.carstereo.lib.backend;
 
 import su.thepeople.carstereo.lib.util.Log;
 
-import su.thepeople.carstereo.lib.data.Album;
 import su.thepeople.carstereo.lib.data.Band;
 import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
 import su.thepeople.carstereo.lib.data.Song;
@@ -10,6 +9,7 @@ import su.thepeople.carstereo.lib.data.Song;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 
 /**
  * A simple interface to grab a batch of songs. Each concrete implementation follows its own set
@@ -31,103 +31,86 @@ public abstract class SongProvider {
     public abstract List<? extends Song> getNextBatch();
 
     /**
-     * Specialization for "shuffle mode". Each song is randomly selected from the collection.
+     * Specialization for "shuffle mode". Songs come from a ShuffleCycle, so every song in the collection is played once
+     * before any song is repeated.
      */
     public static class ShuffleProvider extends SongProvider {
         private static final int BATCH_SIZE = 10;
+        private final ShuffleCycle shuffleCycle;
 
-        ShuffleProvider(PlatformAdapter database) {
+        ShuffleProvider(PlatformAdapter database, ShuffleCycle shuffleCycle) {
             super(database);
+            this.shuffleCycle = shuffleCycle;
         }
 
         public List<? extends Song> getNextBatch() {
-            Log.d(LOG_ID, String.format("Getting next batch of %d random songs", BATCH_SIZE));
-            return getDatabase().getSongFetcher().getRandomBatch(BATCH_SIZE);
+            Log.d(LOG_ID, String.format("Getting next batch of %d shuffled songs", BATCH_SIZE));
+            return shuffleCycle.nextBatch(BATCH_SIZE);
         }
     }
 
     /**
-     * Specialization to randomly select songs from a particular time period.
+     * Specialization to randomly select songs from a particular time period. Songs played recently are avoided, as far
+     * as the era has enough songs to allow it.
      */
     public static class EraProvider extends SongProvider {
         private static final int BATCH_SIZE = 10;
+        private static final int SONG_WINDOW = 100;
         private final int firstYear;
         private final int lastYear;
+        private final RecentlyPlayed recentlyPlayed;
 
-        EraProvider(PlatformAdapter database, int firstYear, int lastYear) {
+        EraProvider(PlatformAdapter database, RecentlyPlayed recentlyPlayed, int firstYear, int lastYear) {
             super(database);
+            this.recentlyPlayed = recentlyPlayed;
             this.firstYear = firstYear;
             this.lastYear = lastYear;
         }
 
         public List<? extends Song> getNextBatch() {
             Log.d(LOG_ID, String.format("Getting next batch of %d random songs between %d and %d", BATCH_SIZE, firstYear, lastYear));
-            return getDatabase().getSongFetcher().getRandomBatchForEra(firstYear, lastYear, BATCH_SIZE);
+            return recentlyPlayed.pickSongs(
+                    () -> getDatabase().getSongFetcher().getRandomBatchForEra(firstYear, lastYear, BATCH_SIZE), BATCH_SIZE, SONG_WINDOW);
         }
     }
 
     /**
      * Double-Shot Weekend. We pick a band at random, play two random songs, then move to the next random band, etc.
+     * Bands and songs that were played recently are avoided.
      */
     public static class DoubleShotProvider extends SongProvider {
-        long nextBandId;
+        private static final int BAND_WINDOW = 20;
+        private static final int SONG_WINDOW = 200;
+        private final BandSampler bandSampler;
+        private final RecentlyPlayed recentlyPlayed;
+        Optional<Long> nextBandId;
         int batchSize;
 
-        DoubleShotProvider(PlatformAdapter database, Optional<? extends Band> startingBand) {
+        DoubleShotProvider(PlatformAdapter database, BandSampler bandSampler, RecentlyPlayed recentlyPlayed, Optional<? extends Band> startingBand) {
             super(database);
-            nextBandId = startingBand.map(Band::getUid).orElse(getRandomBand());
-            batchSize = startingBand.map(band -> 1).orElse(2);
-        }
-
-        private long getRandomBand() {
-            // We have three different strategies for choosing a band. We "average" them by randomizing.
-            double randomTrinary = Math.random() * 3;
-            if (randomTrinary < 1.0) {
-                /*
-                 * Choose uniformly from all bands. This biases the song choices towards songs by bands with only a
-                 * small number of songs in the collection. For example, say we have 1 song by band A and 100 songs by
-                 * band B. We will choose band A with the same frequency we choose band B. Therefore A's single song
-                 * is 100 times more likely to be chosen than each of B's songs.
-                 */
-                return getRandomBandUnweighted();
-            } else if (randomTrinary < 2.0) {
-                /*
-                 * Choose a random song, then choose that band. This biases the song choices towards songs by bands
-                 * with a large number of songs in the collection. For example, say band A's albums each have 21 short
-                 * songs on them, whereas band B's albums have 7 long songs. Even if we have the same quantity of music,
-                 * we'll choose A three times more often than B. This will roughly equalize the time spent listening to
-                 * A and B, but not the number of songs.
-                 */
-                return getRandomBandWeightedBySong();
-            } else {
-                /*
-                 * Finally, choose a random album, then choose that band. This biases the selection towards bands with
-                 * lots of albums in the collection. This partially counteracts the worst of the biases in the other
-                 * two strategies.
-                 */
-                return getRandomBandWeightedByAlbum();
+            this.bandSampler = bandSampler;
+            this.recentlyPlayed = recentlyPlayed;
+            nextBandId = startingBand.map(Band::getUid);
+            if (!nextBandId.isPresent()) {
+                nextBandId = pickBand();
             }
+            batchSize = startingBand.map(band -> 1).orElse(2);
         }
 
-        private long getRandomBandUnweighted() {
-            return getDatabase().getBandFetcher().getRandom().getUid();
-        }
-
-        private long getRandomBandWeightedBySong() {
-            List<? extends Song> singleSongList = getDatabase().getSongFetcher().getRandomBatch(1);
-            return singleSongList.get(0).getBandId();
-        }
-
-        private long getRandomBandWeightedByAlbum() {
-            Album album = getDatabase().getAlbumFetcher().getRandom();
-            return album.getBandId();
+        private Optional<Long> pickBand() {
+            return recentlyPlayed.pickBand(bandSampler::pick, BAND_WINDOW);
         }
 
         public List<? extends Song> getNextBatch() {
-            Log.d(LOG_ID, String.format("Using band %s for this double shot", nextBandId));
-            long thisBandId = nextBandId;
-            List<? extends Song> songs = getDatabase().getSongFetcher().getSomeForBand(thisBandId, batchSize);
-            nextBandId = getRandomBand();
+            if (!nextBandId.isPresent()) {
+                return new ArrayList<>();
+            }
+            Log.d(LOG_ID, String.format("Using band %s for this double shot", nextBandId.get()));
+            long thisBandId = nextBandId.get();
+            int thisBatchSize = batchSize;
+            List<? extends Song> songs = recentlyPlayed.pickSongs(
+                    () -> getDatabase().getSongFetcher().getSomeForBand(thisBandId, thisBatchSize), thisBatchSize, SONG_WINDOW);
+            nextBandId = pickBand();
             batchSize = 2;
             return songs;
         }
@@ -135,57 +118,20 @@ public abstract class SongProvider {
 
     /**
      * Block Party Weekend. This shuffles the entire collection, but every so often will play a few
-     * songs in a row by the same band.
+     * songs in a row by the same band. Bands and songs that were played recently are avoided.
      */
     public static class BlockPartyProvider extends SongProvider {
         private static final int BLOCK_PARTY_SIZE = 5;
+        private static final int BAND_WINDOW = 10;
+        private static final int SONG_WINDOW = 200;
 
-        BlockPartyProvider(PlatformAdapter database) {
-            super(database);
-        }
-
-        private long getRandomBand() {
-            // We have three different strategies for choosing a band. We "average" them by randomizing.
-            double randomTrinary = Math.random() * 3;
-            if (randomTrinary < 1.0) {
-                /*
-                 * Choose uniformly from all bands. This biases the song choices towards songs by bands with only a
-                 * small number of songs in the collection. For example, say we have 1 song by band A and 100 songs by
-                 * band B. We will choose band A with the same frequency we choose band B. Therefore A's single song
-                 * is 100 times more likely to be chosen than each of B's songs.
-                 */
-                return getRandomBandUnweighted();
-            } else if (randomTrinary < 2.0) {
-                /*
-                 * Choose a random song, then choose that band. This biases the song choices towards songs by bands
-                 * with a large number of songs in the collection. For example, say band A's albums each have 21 short
-                 * songs on them, whereas band B's albums have 7 long songs. Even if we have the same quantity of music,
-                 * we'll choose A three times more often than B. This will roughly equalize the time spent listening to
-                 * A and B, but not the number of songs.
-                 */
-                return getRandomBandWeightedBySong();
-            } else {
-                /*
-                 * Finally, choose a random album, then choose that band. This biases the selection towards bands with
-                 * lots of albums in the collection. This partially counteracts the worst of the biases in the other
-                 * two strategies.
-                 */
-                return getRandomBandWeightedByAlbum();
-            }
-        }
-
-        private long getRandomBandUnweighted() {
-            return getDatabase().getBandFetcher().getRandom().getUid();
-        }
-
-        private long getRandomBandWeightedBySong() {
-            List<? extends Song> singleSongList = getDatabase().getSongFetcher().getRandomBatch(1);
-            return singleSongList.get(0).getBandId();
-        }
+        private final BandSampler bandSampler;
+        private final RecentlyPlayed recentlyPlayed;
 
-        private long getRandomBandWeightedByAlbum() {
-            Album album = getDatabase().getAlbumFetcher().getRandom();
-            return album.getBandId();
+        BlockPartyProvider(PlatformAdapter database, BandSampler bandSampler, RecentlyPlayed recentlyPlayed) {
+            super(database);
+            this.bandSampler = bandSampler;
+            this.recentlyPlayed = recentlyPlayed;
         }
 
         public List<Song> getNextBatch() {
@@ -196,13 +142,18 @@ public abstract class SongProvider {
         }
 
         private List<? extends Song> getBatchBlock() {
-            long bandId = getRandomBand();
-            Log.d(LOG_ID, String.format("Using band %s for block party", bandId));
-            return getDatabase().getSongFetcher().getSomeForBand(bandId, BLOCK_PARTY_SIZE);
+            Optional<Long> bandId = recentlyPlayed.pickBand(bandSampler::pick, BAND_WINDOW);
+            if (!bandId.isPresent()) {
+                return new ArrayList<>();
+            }
+            Log.d(LOG_ID, String.format("Using band %s for block party", bandId.get()));
+            return recentlyPlayed.pickSongs(
+                    () -> getDatabase().getSongFetcher().getSomeForBand(bandId.get(), BLOCK_PARTY_SIZE), BLOCK_PARTY_SIZE, SONG_WINDOW);
         }
 
         private List<? extends Song> getShuffleBlock() {
-            return getDatabase().getSongFetcher().getRandomBatch(BLOCK_PARTY_SIZE);
+            return recentlyPlayed.pickSongs(
+                    () -> getDatabase().getSongFetcher().getRandomBatch(BLOCK_PARTY_SIZE), BLOCK_PARTY_SIZE, SONG_WINDOW);
         }
     }
 
@@ -211,6 +162,8 @@ public abstract class SongProvider {
      */
     public static class BandShuffleProvider extends SongProvider {
         private final long bandId;
+        private final Random random = new Random();
+        private SongIdPlaylist playlist;
 
         BandShuffleProvider(PlatformAdapter database, long bandId) {
             super(database);
@@ -218,41 +171,44 @@ public abstract class SongProvider {
         }
 
         public List<? extends Song> getNextBatch() {
-            Log.d(LOG_ID, String.format("Getting all songs for band %d", bandId));
-            return getDatabase().getSongFetcher().getAllForBandShuffled(bandId);
+            if (playlist == null || !playlist.hasMore()) {
+                // Each time we get through all of the band's songs, we start again in a new random order.
+                Log.d(LOG_ID, String.format("Shuffling all songs for band %d", bandId));
+                playlist = SongIdPlaylist.shuffled(getDatabase().getSongFetcher().getIdsForBand(bandId), random);
+            }
+            return playlist.nextWindow(getDatabase().getSongFetcher());
         }
     }
 
+    /**
+     * Specialization for sequential band mode. Plays all of the band's songs in order, starting from somewhere in the
+     * middle and wrapping around to the beginning. All of the work of finding the songs is done by a BandNavigation.
+     */
     public static class BandSequentialProvider extends SongProvider {
-        private final long bandId;
-        List<? extends Song> playlist;
+        private final SongIdPlaylist playlist;
 
-        BandSequentialProvider(PlatformAdapter database, long bandId, Optional<Long> previousSongId, boolean keepSong) {
-            super(database);
-            this.bandId = bandId;
-            initializePlaylist(previousSongId, keepSong);
+        // Starts with the song after the given one. The given song itself is not played at all.
+        BandSequentialProvider(PlatformAdapter database, BandNavigation navigation, long previousSongId) {
+            this(database, navigation.getPlaylist(navigation.findSong(previousSongId), false));
         }
 
-        private void initializePlaylist(Optional<Long> maybePreviousSongId, boolean keepSong) {
-            List<? extends Song> bandSongsInOrder = getDatabase().getSongFetcher().getAllForBandOrdered(bandId);
-            playlist = bandSongsInOrder;
-            maybePreviousSongId.ifPresent(songId -> playlist = Utils.splitList(bandSongsInOrder, songId, keepSong, Song::getUid));
+        private BandSequentialProvider(PlatformAdapter database, SongIdPlaylist playlist) {
+            super(database);
+            this.playlist = playlist;
         }
 
         public List<? extends Song> getNextBatch() {
-            // This provider should only give a single batch of songs once.
-            List<? extends Song> returnValue = new ArrayList<>(playlist);
-            playlist.clear();
-            return returnValue;
+            // Once every song has been handed out, this provider has nothing more to give.
+            return playlist.nextWindow(getDatabase().getSongFetcher());
         }
 
-        public static BandSequentialProvider atAlbumStart(PlatformAdapter database, Album album) {
-            List<? extends Song> albumSongs = database.getSongFetcher().getAllForAlbum(album.getUid());
-            if (albumSongs.isEmpty()) {
-                return new BandSequentialProvider(database, album.getBandId(), Optional.empty(), false);
-            } else {
-                return new BandSequentialProvider(database, album.getBandId(), Optional.of(albumSongs.get(0).getUid()), true);
-            }
+        // Starts with the first track of the given album (or with the band's first song, if the album has no songs).
+        public static BandSequentialProvider atAlbumStart(PlatformAdapter database, BandNavigation navigation, long albumId) {
+            return atPosition(database, navigation, navigation.findAlbumStart(albumId));
+        }
+
+        static BandSequentialProvider atPosition(PlatformAdapter database, BandNavigation navigation, int position) {
+            return new BandSequentialProvider(database, navigation.getPlaylist(position, true));
         }
     }
 
@@ -23,6 +23,15 @@ public class Utils {
         return Stream.of();
     }
 
+    /**
+     * The number of items in the given directory. This only reads the directory's names, and does not need to examine
+     * each of the items themselves.
+     */
+    public static int dirEntryCount(File maybeDir) {
+        String[] names = maybeDir.list();
+        return (names == null) ? 0 : names.length;
+    }
+
     private static class FileAncestorIterator implements Iterator<File> {
         File currentItem;
 
@@ -0,0 +1,99 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import su.thepeople.carstereo.lib.util.Nullable;
+import su.thepeople.carstereo.lib.util.RandomSampling;
+
+/**
+ * Songs grouped by year, for year mode.
+ *
+ * We keep a sorted list of every year that has songs, and the songs themselves sorted by year. A prefix-sum array
+ * says where each year's songs start, so the songs for year i are songs[offsets[i]] up to songs[offsets[i+1]]. Since
+ * the years are back-to-back, any span of years (a single year, a decade, whatever) is one contiguous range of songs.
+ * Finding that range is a binary search, and after that each random pick is a single array read.
+ */
+class YearIndex {
+
+    static final int NO_YEAR = Integer.MIN_VALUE;
+
+    private final int[] years;
+    private final int[] offsets;
+    private final int[] songs;
+
+    // Takes the year of every song, by song index. Songs with no year should use NO_YEAR.
+    YearIndex(int[] songYears) {
+        years = Arrays.stream(songYears).filter(year -> year != NO_YEAR).sorted().distinct().toArray();
+
+        // Count the songs in each year, then turn the counts into starting positions.
+        offsets = new int[years.length + 1];
+        for (int year : songYears) {
+            if (year != NO_YEAR) {
+                offsets[Arrays.binarySearch(years, year) + 1]++;
+            }
+        }
+        for (int i = 0; i < years.length; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+
+        songs = new int[offsets[years.length]];
+        int[] nextPosition = Arrays.copyOf(offsets, years.length);
+        for (int song = 0; song < songYears.length; song++) {
+            if (songYears[song] != NO_YEAR) {
+                songs[nextPosition[Arrays.binarySearch(years, songYears[song])]++] = song;
+            }
+        }
+    }
+
+    // Returns the position in "years" of the first year that is at least the given one.
+    private int findFirstAtLeast(int year) {
+        int position = Arrays.binarySearch(years, year);
+        return (position < 0) ? -position - 1 : position;
+    }
+
+    List<Integer> getYears() {
+        List<Integer> yearList = new ArrayList<>(years.length);
+        for (int year : years) {
+            yearList.add(year);
+        }
+        return yearList;
+    }
+
+    // Returns up to maxSize song indexes from the given years (inclusive), picked at random without repeats.
+    int[] pickSongs(Random random, int startYear, int endYear, int maxSize) {
+        int first = offsets[findFirstAtLeast(startYear)];
+        int end = (endYear == Integer.MAX_VALUE) ? songs.length : offsets[findFirstAtLeast(endYear + 1)];
+        if (first >= end) {
+            return new int[0];
+        }
+        int[] picks = RandomSampling.pickDistinct(random, end - first, maxSize);
+        for (int i = 0; i < picks.length; i++) {
+            picks[i] = songs[first + picks[i]];
+        }
+        return picks;
+    }
+
+    // Returns the first year after the given one that has any songs, or null if there isn't one.
+    @Nullable
+    Integer getNextYear(int year) {
+        if (year == Integer.MAX_VALUE) {
+            return null;
+        }
+        int position = findFirstAtLeast(year + 1);
+        return (position < years.length) ? years[position] : null;
+    }
+
+    // Returns the last year before the given one that has any songs, or null if there isn't one.
+    @Nullable
+    Integer getPreviousYear(int year) {
+        int position = findFirstAtLeast(year) - 1;
+        return (position >= 0) ? years[position] : null;
+    }
+
+    long estimateBytes() {
+        return 4L * (years.length + offsets.length + songs.length);
+    }
+}
@@ -0,0 +1,29 @@
+package su.thepeople.carstereo.lib.data;
+
+/**
+ * How many songs and albums a band has in the collection.
+ */
+public class BandCounts {
+
+    private final long bandId;
+    private final int songCount;
+    private final int albumCount;
+
+    public BandCounts(long bandId, int songCount, int albumCount) {
+        this.bandId = bandId;
+        this.songCount = songCount;
+        this.albumCount = albumCount;
+    }
+
+    public long getBandId() {
+        return bandId;
+    }
+
+    public int getSongCount() {
+        return songCount;
+    }
+
+    public int getAlbumCount() {
+        return albumCount;
+    }
+}
@@ -0,0 +1,65 @@
+package su.thepeople.carstereo.lib.data;
+
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Remembers what an on-disk directory looked like the last time the scanner examined it.
+ *
+ * Each record also remembers which band (and, for album directories, which album) the directory was turned into, so
+ * that the scanner can find the right objects to remove if the directory later disappears.
+ */
+public class DirectoryRecord {
+
+    @NonNull private final String path;
+    @NonNull private final String parentPath;
+    private final long lastModified;
+    private final int entryCount;
+    @Nullable private final Long bandId;
+    @Nullable private final Long albumId;
+
+    public DirectoryRecord(@NonNull String path, @NonNull String parentPath, long lastModified, int entryCount, @Nullable Long bandId, @Nullable Long albumId) {
+        this.path = path;
+        this.parentPath = parentPath;
+        this.lastModified = lastModified;
+        this.entryCount = entryCount;
+        this.bandId = bandId;
+        this.albumId = albumId;
+    }
+
+    @NonNull
+    public String getPath() {
+        return path;
+    }
+
+    @NonNull
+    public String getParentPath() {
+        return parentPath;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    @Nullable
+    public Long getBandId() {
+        return bandId;
+    }
+
+    @Nullable
+    public Long getAlbumId() {
+        return albumId;
+    }
+
+    /**
+     * SD cards are usually FAT-formatted, and FAT does not reliably update a directory's modification time when files
+     * are added to it. So, we only trust that a directory is unchanged if its entry count also matches.
+     */
+    public boolean matches(long lastModified, int entryCount) {
+        return this.lastModified == lastModified && this.entryCount == entryCount;
+    }
+}
@@ -0,0 +1,19 @@
+package su.thepeople.carstereo.lib.data;
+
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Everything needed to create an Album, other than its unique ID (which is assigned at creation time).
+ */
+public class NewAlbum {
+    @NonNull public final String name;
+    public final long bandId;
+    @Nullable public final Integer year;
+
+    public NewAlbum(@NonNull String name, long bandId, @Nullable Integer year) {
+        this.name = name;
+        this.bandId = bandId;
+        this.year = year;
+    }
+}
@@ -0,0 +1,32 @@
+package su.thepeople.carstereo.lib.data;
+
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Everything needed to create a Song, other than its unique ID (which is assigned at creation time).
+ *
+ * If an ID is given, then the existing song with that ID is updated in place instead. That is how a song keeps its ID
+ * when its file is moved, renamed, or re-tagged.
+ */
+public class NewSong {
+    @NonNull public final String name;
+    public final long rootId;
+    @NonNull public final String relativePath;
+    public final long bandId;
+    @Nullable public final Long albumId;
+    @Nullable public final Integer year;
+    @NonNull public final String fingerprint;
+    @Nullable public final Long uid;
+
+    public NewSong(@NonNull String name, long rootId, @NonNull String relativePath, long bandId, @Nullable Long albumId, @Nullable Integer year, @NonNull String fingerprint, @Nullable Long uid) {
+        this.name = name;
+        this.rootId = rootId;
+        this.relativePath = relativePath;
+        this.bandId = bandId;
+        this.albumId = albumId;
+        this.year = year;
+        this.fingerprint = fingerprint;
+        this.uid = uid;
+    }
+}
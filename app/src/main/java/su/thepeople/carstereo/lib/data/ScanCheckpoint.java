@@ -0,0 +1,59 @@
+package su.thepeople.carstereo.lib.data;
+
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Remembers how far the most recent scan got, so that a scan which was interrupted (for example, because Android
+ * killed the app) can be resumed instead of being started over.
+ *
+ * Bands are always committed in path order, so a single cursor is enough to say which band directories are finished.
+ * A band that was only partly committed when the scan stopped is remembered separately, so that its objects can be
+ * thrown away and rebuilt.
+ */
+public class ScanCheckpoint {
+
+    private final long generation;
+    private final boolean complete;
+    @Nullable private final String lastCompletedBand;
+    @Nullable private final String pendingBandPath;
+    @Nullable private final Long pendingBandId;
+
+    public ScanCheckpoint(long generation, boolean complete, @Nullable String lastCompletedBand, @Nullable String pendingBandPath, @Nullable Long pendingBandId) {
+        this.generation = generation;
+        this.complete = complete;
+        this.lastCompletedBand = lastCompletedBand;
+        this.pendingBandPath = pendingBandPath;
+        this.pendingBandId = pendingBandId;
+    }
+
+    // Every scan gets a new generation number. A resumed scan keeps the number of the scan that it is finishing.
+    public long getGeneration() {
+        return generation;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // Path of the last band directory that was fully committed, or null if no band has been committed yet.
+    @Nullable
+    public String getLastCompletedBand() {
+        return lastCompletedBand;
+    }
+
+    // Path of a brand-new band directory that was in the middle of being committed, if any.
+    @Nullable
+    public String getPendingBandPath() {
+        return pendingBandPath;
+    }
+
+    @Nullable
+    public Long getPendingBandId() {
+        return pendingBandId;
+    }
+
+    // Returns true if the given band directory was fully committed before this checkpoint was saved.
+    public boolean isFinished(String bandPath) {
+        return lastCompletedBand != null && bandPath.compareTo(lastCompletedBand) <= 0;
+    }
+}
@@ -0,0 +1,14 @@
+package su.thepeople.carstereo.lib.data;
+
+import java.io.Serializable;
+
+// POJO to express how far along a scan of the on-disk collection has gotten
+public class ScanProgress implements Serializable {
+    public int bandsScanned = 0;
+    public int bandsTotal = 0;
+    public int songsAdded = 0;
+    public boolean isComplete = false;
+
+    // True if this scan is finishing off an earlier, interrupted, scan. The library already holds whatever that scan found.
+    public boolean isResumed = false;
+}
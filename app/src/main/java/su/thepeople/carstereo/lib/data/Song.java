@@ -3,19 +3,24 @@ package su.thepeople.carstereo.lib.data;
 import su.thepeople.carstereo.lib.util.NonNull;
 import su.thepeople.carstereo.lib.util.Nullable;
 
+/**
+ * To save space, songs don't know their full on-disk path. Use a PathResolver to get the full path when needed.
+ */
 public class Song {
 
     private final long uid;
     @NonNull private final String name;
-    @NonNull private final String fullPath;
+    private final long rootId;
+    @NonNull private final String relativePath;
     private final long bandId;
     @Nullable private final Long albumId;
     @Nullable private final Integer year;
 
-    public Song(long uid, @NonNull String name, @NonNull String fullPath, long bandId, @Nullable Long albumId, @Nullable Integer year) {
+    public Song(long uid, @NonNull String name, long rootId, @NonNull String relativePath, long bandId, @Nullable Long albumId, @Nullable Integer year) {
         this.uid = uid;
         this.name = name;
-        this.fullPath = fullPath;
+        this.rootId = rootId;
+        this.relativePath = relativePath;
         this.bandId = bandId;
         this.albumId = albumId;
         this.year = year;
@@ -30,9 +35,13 @@ public class Song {
         return name;
     }
 
+    public long getRootId() {
+        return rootId;
+    }
+
     @NonNull
-    public String getFullPath() {
-        return fullPath;
+    public String getRelativePath() {
+        return relativePath;
     }
 
     public long getBandId() {
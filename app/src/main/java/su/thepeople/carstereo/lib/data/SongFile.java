@@ -0,0 +1,31 @@
+package su.thepeople.carstereo.lib.data;
+
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * A song, along with the fingerprint of its file. The fingerprint identifies the file by its name, size and timestamp,
+ * so that the scanner can recognize a file that has been moved or renamed. Songs from older libraries might not have one.
+ *
+ * Nothing but the scanner needs fingerprints, so they are only read through the scan manifest, and never kept in Song.
+ */
+public class SongFile {
+
+    @NonNull private final Song song;
+    @Nullable private final String fingerprint;
+
+    public SongFile(@NonNull Song song, @Nullable String fingerprint) {
+        this.song = song;
+        this.fingerprint = fingerprint;
+    }
+
+    @NonNull
+    public Song getSong() {
+        return song;
+    }
+
+    @Nullable
+    public String getFingerprint() {
+        return fingerprint;
+    }
+}
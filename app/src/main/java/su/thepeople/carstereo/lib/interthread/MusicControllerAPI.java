@@ -28,6 +28,7 @@ public abstract class MusicControllerAPI extends InterThreadAPI {
         cb_skipBackward = registerCallback(this::onSkipBackward);
         cb_skipForward = registerCallback(this::onSkipForward);
         cb_changeSubMode = registerCallback(this::onChangeSubMode);
+        cb_libraryGrew = registerCallback(this::onLibraryGrew);
     }
 
     // Pauses or unpauses the player.
@@ -76,6 +77,9 @@ public abstract class MusicControllerAPI extends InterThreadAPI {
     // Sends UI a list of the available years that may be locked on.
     public void requestYearList() { callInterThread(cb_requestYears); }
 
+    // Tells the controller that more music has been added to the library, which now holds the given number of bands.
+    public void libraryGrew(int bandCount) { callInterThread(cb_libraryGrew, bandCount); }
+
     // These methods are implements by the Music Controller itself, and will only ever be called on the controller's own thread.
     protected abstract void onTogglePlayPause();
     protected abstract void onSkipAhead();
@@ -93,6 +97,7 @@ public abstract class MusicControllerAPI extends InterThreadAPI {
     protected abstract void onSkipBackward();
     protected abstract void onSkipForward();
     protected abstract void onChangeSubMode();
+    protected abstract void onLibraryGrew(int bandCount);
 
     private final int cb_playPause;
     private final int cb_nextSong;
@@ -110,4 +115,5 @@ public abstract class MusicControllerAPI extends InterThreadAPI {
     private final int cb_skipBackward;
     private final int cb_skipForward;
     private final int cb_changeSubMode;
+    private final int cb_libraryGrew;
 }
@@ -1,5 +1,6 @@
 package su.thepeople.carstereo.lib.platform_interface;
 
+import java.util.Collection;
 import java.util.List;
 
 import su.thepeople.carstereo.lib.data.Album;
@@ -15,6 +16,9 @@ public interface AlbumFetcher {
     // Returns the album with the given ID
     Album lookup(long albumId);
 
+    // Returns the albums with the given IDs, in no particular order. Unknown IDs are skipped.
+    List<Album> lookupAll(Collection<Long> albumIds);
+
     // Returns any album, chosen at random.
     Album getRandom();
 }
@@ -1,8 +1,10 @@
 package su.thepeople.carstereo.lib.platform_interface;
 
+import java.util.Collection;
 import java.util.List;
 
 import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
 
 /**
  * This interface handles lookup of band(s) based on certain criteria
@@ -14,6 +16,12 @@ public interface BandFetcher {
     // Returns the band associated with the given id.
     Band lookup(long bandId);
 
+    // Returns the bands with the given ids, in no particular order. Unknown ids are skipped.
+    List<Band> lookupAll(Collection<Long> bandIds);
+
     // Returns any band, chosen at random.
     Band getRandom();
+
+    // Returns the number of songs and albums for every band, in no particular order.
+    List<BandCounts> getCounts();
 }
@@ -0,0 +1,26 @@
+package su.thepeople.carstereo.lib.platform_interface;
+
+import su.thepeople.carstereo.lib.util.NonNull;
+
+/**
+ * Interface to get notified when on-disk directories change.
+ *
+ * Watching is not recursive. A watched directory only reports changes to its own direct contents (items added,
+ * removed, renamed or rewritten), and to itself being deleted.
+ */
+public interface DirectoryWatcher {
+
+    interface Listener {
+        // Called whenever something changes inside the given directory. This may be called on any thread.
+        void onDirectoryChanged(@NonNull String path);
+    }
+
+    // Starts reporting changes to the given directory. Watching a directory that is already watched does nothing.
+    void watch(@NonNull String path);
+
+    // Stops reporting changes to the given directory.
+    void unwatch(@NonNull String path);
+
+    // Stops watching everything, and releases any resources used for watching.
+    void close();
+}
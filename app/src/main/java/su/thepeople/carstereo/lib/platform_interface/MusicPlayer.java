@@ -14,6 +14,9 @@ public interface MusicPlayer {
     // Loads a list of songs to play. If replaceCurrent is true, then any existing playlist should be thrown away (including any currently-playing song)
     void setPlaylist(List<SongInfo> playlist, boolean replaceCurrent);
 
+    // Returns how many songs are queued up to play after the current one.
+    int getQueuedSongCount();
+
     // Do whatever tasks are necessary to get the next song ready to play.
     void prepareNextSong();
 
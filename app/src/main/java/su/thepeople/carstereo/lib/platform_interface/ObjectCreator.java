@@ -1,5 +1,9 @@
 package su.thepeople.carstereo.lib.platform_interface;
 
+import java.util.List;
+
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
 import su.thepeople.carstereo.lib.util.NonNull;
 import su.thepeople.carstereo.lib.util.Nullable;
 
@@ -14,6 +18,22 @@ public interface ObjectCreator {
     // Returns unique ID for the newly-created Album with the given name and band (and optionally, year of release)
     long createAlbum(@NonNull String name, long bandId, @Nullable Integer year);
 
-    // Returns unique ID for the newly-created Album with the given name, band, and disk location (and optionally, album and year of release)
-    long createSong(@NonNull String name, @NonNull String fullPath, long bandId, @Nullable Long albumId, @Nullable Integer year);
+    // Returns unique ID for the newly-created Song with the given name, band, and disk location (and optionally, album and year of release)
+    long createSong(@NonNull String name, long rootId, @NonNull String relativePath, long bandId, @Nullable Long albumId, @Nullable Integer year);
+
+    /*
+     * Bulk versions of the above. Creating many objects at once can be much cheaper than creating them one at a time.
+     * Returns the unique IDs of the newly-created objects, in the same order as the given list.
+     */
+    List<Long> createAlbums(List<NewAlbum> albums);
+    List<Long> createSongs(List<NewSong> songs);
+
+    // Removes the given band, along with all of its albums and songs
+    void deleteBand(long bandId);
+
+    // Removes the given album, along with all of its songs
+    void deleteAlbum(long albumId);
+
+    // Removes the given song
+    void deleteSong(long songId);
 }
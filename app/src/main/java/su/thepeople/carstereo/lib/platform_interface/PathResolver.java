@@ -0,0 +1,25 @@
+package su.thepeople.carstereo.lib.platform_interface;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Songs do not store their full on-disk path. Instead, each song stores the ID of a "root" directory, plus its path
+ * relative to that root. This interface translates between the two forms.
+ *
+ * There are far fewer roots than songs, so it should be cheap for implementations to remember every root they see.
+ */
+public interface PathResolver {
+
+    // Returns the ID for the given root directory, assigning a new ID if the directory has never been seen before.
+    long getRootId(@NonNull String rootPath);
+
+    // Returns the path of the root directory with the given ID, or null if there is no such root.
+    @Nullable
+    String getRootPath(long rootId);
+
+    // Returns the full path for the given song.
+    @NonNull
+    String getFullPath(@NonNull Song song);
+}
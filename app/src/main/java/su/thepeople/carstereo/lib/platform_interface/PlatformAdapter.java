@@ -6,15 +6,28 @@ import su.thepeople.carstereo.lib.backend.MusicControllerThread;
 public interface PlatformAdapter {
     ObjectCreator getObjectCreator();
 
+    ScanManifest getScanManifest();
+
+    PathResolver getPathResolver();
+
+    DirectoryWatcher createDirectoryWatcher(DirectoryWatcher.Listener listener);
+
     BandFetcher getBandFetcher();
 
     AlbumFetcher getAlbumFetcher();
 
     SongFetcher getSongFetcher();
 
-    MusicPlayer createMusicPlayer(MusicControllerThread controller);
+    // The player should use the given resolver to find each song on disk.
+    MusicPlayer createMusicPlayer(MusicControllerThread controller, PathResolver pathResolver);
 
     LogProvider getLogProvider();
 
     MessagingSystem createMessagingSystemForCurrentThread();
+
+    // Called after a scan has added/removed objects, so that any copies of the library can be brought up-to-date.
+    void onLibraryChanged();
+
+    // Returns a number that changes every time anything is added to or removed from the library.
+    long getLibraryGeneration();
 }
@@ -0,0 +1,45 @@
+package su.thepeople.carstereo.lib.platform_interface;
+
+import java.util.List;
+
+import su.thepeople.carstereo.lib.data.DirectoryRecord;
+import su.thepeople.carstereo.lib.data.ScanCheckpoint;
+import su.thepeople.carstereo.lib.data.SongFile;
+import su.thepeople.carstereo.lib.util.NonNull;
+import su.thepeople.carstereo.lib.util.Nullable;
+
+/**
+ * Interface to persist what each scanned directory looked like, so that later scans can skip over unchanged parts of
+ * the collection.
+ */
+public interface ScanManifest {
+
+    // Returns the record for the given directory, or null if it has never been scanned.
+    @Nullable
+    DirectoryRecord lookup(@NonNull String path);
+
+    // Returns records for all scanned directories that live directly inside the given directory.
+    List<DirectoryRecord> getChildren(@NonNull String parentPath);
+
+    // Stores the given record, replacing any earlier record for the same directory.
+    void record(@NonNull DirectoryRecord record);
+
+    // Throws away the record for the given directory, and the records for everything inside of it.
+    void forget(@NonNull String path);
+
+    // Returns every song whose fingerprint starts with the given prefix.
+    List<SongFile> findSongsByFingerprint(@NonNull String fingerprintPrefix);
+
+    // Returns all of the band's songs (including those on albums), with their fingerprints.
+    List<SongFile> getSongFilesForBand(long bandId);
+
+    // Returns all of the album's songs, with their fingerprints.
+    List<SongFile> getSongFilesForAlbum(long albumId);
+
+    // Returns how far the most recent scan got, or null if no scan has ever been started.
+    @Nullable
+    ScanCheckpoint getCheckpoint();
+
+    // Stores the given checkpoint, replacing the earlier one.
+    void saveCheckpoint(@NonNull ScanCheckpoint checkpoint);
+}
@@ -1,5 +1,6 @@
 package su.thepeople.carstereo.lib.platform_interface;
 
+import java.util.Collection;
 import java.util.List;
 
 import su.thepeople.carstereo.lib.data.Song;
@@ -9,12 +10,18 @@ import su.thepeople.carstereo.lib.data.Song;
  */
 public interface SongFetcher {
 
-    // Returns a list of all songs for the given band, in a random order.
-    List<Song> getAllForBandShuffled(Long bandId);
-
     // Returns a list of all songs for the given band, sorted first chronologically, then by album position.
     List<Song> getAllForBandOrdered(Long bandId);
 
+    // Returns the IDs of every song in the library, in no particular order.
+    List<Long> getAllIds();
+
+    // Returns the IDs of all songs for the given band, in no particular order.
+    List<Long> getIdsForBand(Long bandId);
+
+    // Returns the songs with the given ids, in no particular order. Unknown ids are skipped.
+    List<Song> lookupAll(Collection<Long> songIds);
+
     // Returns a randomly-selected set of songs for the given band. No more than `maxSize` songs should be returned.
     List<Song> getSomeForBand(Long bandId, Integer maxSize);
 
@@ -29,4 +36,10 @@ public interface SongFetcher {
 
     // Returns a list of randomly-selected songs, by any band, on any (or no) album, that were released within the given time period.
     List<Song> getRandomBatchForEra(int startYear, int endYear, int batchSize);
+
+    // Returns the first year after the given one for which we have songs, or null if there isn't one.
+    Integer getNextYear(int year);
+
+    // Returns the last year before the given one for which we have songs, or null if there isn't one.
+    Integer getPreviousYear(int year);
 }
@@ -7,6 +7,7 @@ import java.util.List;
 import su.thepeople.carstereo.lib.data.Album;
 import su.thepeople.carstereo.lib.data.Band;
 import su.thepeople.carstereo.lib.data.BackendStatus;
+import su.thepeople.carstereo.lib.data.ScanProgress;
 import su.thepeople.carstereo.lib.interthread.BackendException;
 import su.thepeople.carstereo.lib.interthread.InterThreadAPI;
 
@@ -24,6 +25,10 @@ public abstract class UINotificationAPI extends InterThreadAPI {
         callInterThread(cb_statusChange, status);
     }
 
+    public void notifyScanProgress(ScanProgress progress) {
+        callInterThread(cb_scanProgress, progress);
+    }
+
     public void fulfillBandListRequest(List<? extends Band> bands) {
         callInterThread(cb_bandList, new BandListWrapper(bands));
     }
@@ -41,6 +46,7 @@ public abstract class UINotificationAPI extends InterThreadAPI {
     }
 
     private final int cb_statusChange;
+    private final int cb_scanProgress;
     private final int cb_bandList;
     private final int cb_albumList;
     private final int cb_yearList;
@@ -48,6 +54,7 @@ public abstract class UINotificationAPI extends InterThreadAPI {
 
     protected UINotificationAPI() {
         cb_statusChange = registerCallback(this::onBackendStatusChange);
+        cb_scanProgress = registerCallback(this::onScanProgress);
         cb_bandList = registerCallback(this::onBandListResponse);
         cb_albumList = registerCallback(this::onAlbumListResponse);
         cb_yearList = registerCallback(this::onYearListResponse);
@@ -80,6 +87,8 @@ public abstract class UINotificationAPI extends InterThreadAPI {
 
     protected abstract void onBackendStatusChange(BackendStatus newStatus);
 
+    protected abstract void onScanProgress(ScanProgress progress);
+
     protected abstract void onBandListResponse(BandListWrapper bands);
 
     protected abstract void onAlbumListResponse(AlbumListWrapper albums);
@@ -0,0 +1,75 @@
+package su.thepeople.carstereo.lib.util;
+
+import java.util.Random;
+
+/**
+ * Picks a random position, where each position's chance of being picked is proportional to its weight.
+ *
+ * This is Walker's alias method (using Vose's way of building the table). Building takes time proportional to the
+ * number of positions, but after that, each pick is just two random numbers and two array reads, no matter how many
+ * positions there are or how uneven their weights are.
+ */
+public class AliasTable {
+
+    // For each column: the chance of keeping this position, and the position to use instead.
+    private final double[] keepChance;
+    private final int[] alias;
+
+    // Weights must not be negative. If all of them are zero, then size() is zero and nothing can be picked.
+    public AliasTable(double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        int size = (total > 0) ? weights.length : 0;
+        keepChance = new double[size];
+        alias = new int[size];
+        if (size == 0) {
+            return;
+        }
+
+        // Scale so that the average column is exactly 1. Then split the columns into ones that are too short and ones
+        // that are too tall, and use the tall ones to top up the short ones.
+        double[] scaled = new double[size];
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < size; i++) {
+            scaled[i] = weights[i] * size / total;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int shortColumn = small[--smallCount];
+            int tallColumn = large[--largeCount];
+            keepChance[shortColumn] = scaled[shortColumn];
+            alias[shortColumn] = tallColumn;
+            scaled[tallColumn] -= 1.0 - scaled[shortColumn];
+            if (scaled[tallColumn] < 1.0) {
+                small[smallCount++] = tallColumn;
+            } else {
+                large[largeCount++] = tallColumn;
+            }
+        }
+        // Anything left over is (give or take rounding errors) exactly full.
+        while (largeCount > 0) {
+            keepChance[large[--largeCount]] = 1.0;
+        }
+        while (smallCount > 0) {
+            keepChance[small[--smallCount]] = 1.0;
+        }
+    }
+
+    public int size() {
+        return keepChance.length;
+    }
+
+    public int pick(Random random) {
+        int column = random.nextInt(keepChance.length);
+        return (random.nextDouble() < keepChance[column]) ? column : alias[column];
+    }
+}
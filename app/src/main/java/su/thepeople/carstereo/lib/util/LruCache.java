@@ -0,0 +1,25 @@
+package su.thepeople.carstereo.lib.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map that holds at most maxSize entries. Once it is full, adding an entry throws away the least recently used one.
+ *
+ * Not thread-safe: callers must do their own locking (note that get() counts as a modification, since it changes the
+ * access order).
+ */
+public class LruCache<K, V> extends LinkedHashMap<K, V> {
+
+    private final int maxSize;
+
+    public LruCache(int maxSize) {
+        super(16, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+    }
+}
@@ -0,0 +1,44 @@
+package su.thepeople.carstereo.lib.util;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Picks random positions out of a population, without repeats.
+ */
+public class RandomSampling {
+
+    /**
+     * Returns min(count, populationSize) distinct positions in [0, populationSize), in random order.
+     *
+     * When only a few positions are wanted from a big population, we pick random positions and skip duplicates.
+     * Otherwise, we do a partial shuffle of the whole population. Either way, we never do more work than the number of
+     * positions involved.
+     */
+    public static int[] pickDistinct(Random random, int populationSize, int count) {
+        int size = Math.min(count, populationSize);
+        int[] picks = new int[size];
+        if (size * 4 < populationSize) {
+            Set<Integer> chosen = new HashSet<>();
+            int picked = 0;
+            while (picked < size) {
+                int position = random.nextInt(populationSize);
+                if (chosen.add(position)) {
+                    picks[picked++] = position;
+                }
+            }
+        } else {
+            int[] positions = new int[populationSize];
+            for (int i = 0; i < populationSize; i++) {
+                positions[i] = i;
+            }
+            for (int i = 0; i < size; i++) {
+                int swap = i + random.nextInt(populationSize - i);
+                picks[i] = positions[swap];
+                positions[swap] = positions[i];
+            }
+        }
+        return picks;
+    }
+}
@@ -0,0 +1,50 @@
+package su.thepeople.carstereo.lib.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the last few IDs that were added, so that we can quickly ask "was this one seen lately?".
+ *
+ * The IDs are kept in a fixed-size ring, oldest first out. Alongside that, each ID in the ring maps to the sequence
+ * number of its latest appearance, so a lookup is a single map read, and the caller can pick how far back to look.
+ */
+public class RecentIds {
+
+    private final long[] ring;
+    private final Map<Long, Long> lastSeen = new HashMap<>();
+    private long added = 0;
+
+    public RecentIds(int capacity) {
+        ring = new long[capacity];
+    }
+
+    public void add(long id) {
+        if (ring.length == 0) {
+            return;
+        }
+        int slot = (int) (added % ring.length);
+        if (added >= ring.length) {
+            // Only forget the old ID if this slot held its latest appearance.
+            long oldId = ring[slot];
+            Long oldSeen = lastSeen.get(oldId);
+            if (oldSeen != null && oldSeen == added - ring.length) {
+                lastSeen.remove(oldId);
+            }
+        }
+        ring[slot] = id;
+        lastSeen.put(id, added);
+        added++;
+    }
+
+    // Returns how many IDs ago this one was added (1 means it was the latest), or Long.MAX_VALUE if it isn't remembered.
+    public long age(long id) {
+        Long seen = lastSeen.get(id);
+        return (seen == null) ? Long.MAX_VALUE : added - seen;
+    }
+
+    // Returns true if the ID was one of the last "window" IDs added. Windows bigger than the capacity are cut down to it.
+    public boolean isWithin(long id, int window) {
+        return age(id) <= Math.min(window, ring.length);
+    }
+}
@@ -0,0 +1,32 @@
+package su.thepeople.carstereo.lib.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Works out the key that a band or album is sorted by, so that it only has to be done once (at scan time) rather than
+ * every time a list is displayed.
+ */
+public class SortKeys {
+
+    private static final String[] LEADING_ARTICLES = {"the ", "a ", "an "};
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Case is ignored, and so is a leading "The", "A" or "An", so that "The Beatles" sorts with the Bs. A name that is
+     * nothing but an article (like the band "The The") keeps what is left after the first one. Accents are dropped, so
+     * that a name starting with an accented letter sorts with that letter rather than after the Zs.
+     */
+    @NonNull
+    public static String forName(@NonNull String name) {
+        String key = Normalizer.normalize(name, Normalizer.Form.NFD);
+        key = ACCENTS.matcher(key).replaceAll("").toLowerCase(Locale.ROOT).trim();
+        for (String article : LEADING_ARTICLES) {
+            if (key.startsWith(article)) {
+                return key.substring(article.length()).trim();
+            }
+        }
+        return key;
+    }
+}
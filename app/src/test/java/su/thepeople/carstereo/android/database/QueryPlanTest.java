@@ -0,0 +1,221 @@
+package su.thepeople.carstereo.android.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on every DAO query, against the current schema, and fails if any query reads through a whole
+ * table (or a whole index) without meaning to.
+ *
+ * Room's annotations aren't visible at runtime, so the queries are read straight out of the DAO source files. That way,
+ * a new query is checked as soon as it is written. The schema is a copy of what Room creates for the current version,
+ * and must be updated by hand whenever the entities change.
+ */
+public class QueryPlanTest {
+
+    private static final File DAO_SOURCE_DIR = new File("src/main/java/su/thepeople/carstereo/android/database");
+
+    private static final int SCHEMA_VERSION = 8;
+    private static final String[] SCHEMA = {
+            "CREATE TABLE `DBBand` (`uid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT NOT NULL, `sortKey` TEXT NOT NULL)",
+            "CREATE INDEX `index_DBBand_sortKey` ON `DBBand` (`sortKey`)",
+            "CREATE TABLE `DBAlbum` (`uid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `year` INTEGER, `name` TEXT NOT NULL, `bandId` INTEGER NOT NULL, `sortKey` TEXT NOT NULL)",
+            "CREATE INDEX `index_DBAlbum_bandId_year_sortKey` ON `DBAlbum` (`bandId`, `year`, `sortKey`)",
+            "CREATE TABLE `DBSong` (`uid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT NOT NULL, `rootId` INTEGER NOT NULL, `relativePath` TEXT NOT NULL, `bandId` INTEGER NOT NULL, `albumId` INTEGER, `year` INTEGER, `fingerprint` TEXT)",
+            "CREATE INDEX `index_DBSong_fingerprint` ON `DBSong` (`fingerprint`)",
+            "CREATE INDEX `index_DBSong_bandId_year` ON `DBSong` (`bandId`, `year`)",
+            "CREATE INDEX `index_DBSong_albumId_relativePath` ON `DBSong` (`albumId`, `relativePath`)",
+            "CREATE INDEX `index_DBSong_year` ON `DBSong` (`year`)",
+            "CREATE TABLE `DBDirectory` (`path` TEXT NOT NULL, `parentPath` TEXT NOT NULL, `lastModified` INTEGER NOT NULL, `entryCount` INTEGER NOT NULL, `bandId` INTEGER, `albumId` INTEGER, PRIMARY KEY(`path`))",
+            "CREATE INDEX `index_DBDirectory_parentPath` ON `DBDirectory` (`parentPath`)",
+            "CREATE TABLE `DBSongRoot` (`uid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `path` TEXT NOT NULL)",
+            "CREATE UNIQUE INDEX `index_DBSongRoot_path` ON `DBSongRoot` (`path`)",
+            "CREATE TABLE `DBScanCheckpoint` (`id` INTEGER NOT NULL, `generation` INTEGER NOT NULL, `complete` INTEGER NOT NULL, `lastCompletedBand` TEXT, `pendingBandPath` TEXT, `pendingBandId` INTEGER, PRIMARY KEY(`id`))",
+    };
+
+    // Queries that really do need every row, and why.
+    private static final Map<String, String> WHOLE_TABLE_READS = new HashMap<>();
+    static {
+        WHOLE_TABLE_READS.put("DBBandDAO.getAll", "the full band list, for the band picker");
+        WHOLE_TABLE_READS.put("DBBandDAO.getCounts", "one row per band, for the band sampler");
+        WHOLE_TABLE_READS.put("DBBandDAO.getAllIds", "loads the band ID sampler");
+        WHOLE_TABLE_READS.put("DBAlbumDAO.getAllIds", "loads the album ID sampler");
+        WHOLE_TABLE_READS.put("DBSongDAO.getAllIds", "loads the song ID sampler and the shuffle cycle");
+        WHOLE_TABLE_READS.put("DBSongRootDAO.getAll", "the path resolver remembers every root");
+    }
+
+    // A table scan looks like "SCAN TABLE DBSong" (or, in newer versions of sqlite, "SCAN DBSong").
+    private static final Pattern TABLE_SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\w+)");
+
+    private static final Pattern QUERY_START = Pattern.compile("@Query\\(");
+    private static final Pattern METHOD_NAME = Pattern.compile("(\\w+)\\s*\\(");
+    private static final Pattern CONSTANT = Pattern.compile("(\\w+)\\.(\\w+)");
+
+    private static class DaoQuery {
+        final String name;
+        final String sql;
+
+        DaoQuery(String name, String sql) {
+            this.name = name;
+            this.sql = sql;
+        }
+    }
+
+    private Connection connection;
+
+    @Before
+    public void createSchema() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : SCHEMA) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void schemaIsUpToDate() {
+        assertEquals("The schema has changed. Update SCHEMA (and SCHEMA_VERSION) to match.", AndroidDatabase.SCHEMA_VERSION, SCHEMA_VERSION);
+    }
+
+    @Test
+    public void everyQueryUsesAnIndex() throws Exception {
+        List<DaoQuery> queries = readAllQueries();
+        assertTrue("Unable to find the DAO queries", queries.size() > 20);
+
+        List<String> problems = new ArrayList<>();
+        for (DaoQuery query : queries) {
+            Set<String> scanned = findTableScans(query.sql);
+            if (!scanned.isEmpty() && !WHOLE_TABLE_READS.containsKey(query.name)) {
+                problems.add(String.format("%s scans %s: %s", query.name, scanned, query.sql));
+            }
+        }
+        if (!problems.isEmpty()) {
+            fail("Queries that read a whole table:\n" + String.join("\n", problems));
+        }
+    }
+
+    @Test
+    public void wholeTableReadsAreStillNeeded() throws Exception {
+        Set<String> found = new HashSet<>();
+        for (DaoQuery query : readAllQueries()) {
+            if (!findTableScans(query.sql).isEmpty()) {
+                found.add(query.name);
+            }
+        }
+        Set<String> unused = new HashSet<>(WHOLE_TABLE_READS.keySet());
+        unused.removeAll(found);
+        assertTrue("These queries no longer read a whole table: " + unused, unused.isEmpty());
+    }
+
+    private Set<String> findTableScans(String sql) throws SQLException {
+        Set<String> tables = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet plan = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (plan.next()) {
+                Matcher matcher = TABLE_SCAN.matcher(plan.getString("detail"));
+                if (matcher.find()) {
+                    tables.add(matcher.group(1));
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static List<DaoQuery> readAllQueries() throws Exception {
+        File[] sources = DAO_SOURCE_DIR.listFiles((dir, name) -> name.endsWith("DAO.java"));
+        assertTrue("Unable to find the DAO sources in " + DAO_SOURCE_DIR.getAbsolutePath(), sources != null && sources.length > 0);
+        List<DaoQuery> queries = new ArrayList<>();
+        for (File source : sources) {
+            queries.addAll(readQueries(source));
+        }
+        return queries;
+    }
+
+    // Finds each @Query annotation in the file, along with the name of the method that it is attached to.
+    private static List<DaoQuery> readQueries(File source) throws IOException, ReflectiveOperationException {
+        String dao = source.getName().replace(".java", "");
+        String text = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+        List<DaoQuery> queries = new ArrayList<>();
+        Matcher start = QUERY_START.matcher(text);
+        while (start.find()) {
+            int end = findClosingParen(text, start.end());
+            String sql = evaluate(text.substring(start.end(), end));
+            Matcher method = METHOD_NAME.matcher(text);
+            assertTrue("No method after query in " + dao, method.find(end + 1));
+            queries.add(new DaoQuery(dao + "." + method.group(1), sql));
+        }
+        return queries;
+    }
+
+    private static int findClosingParen(String text, int from) {
+        boolean inString = false;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inString && c == '\\') {
+                i++;
+            } else if (c == '"') {
+                inString = !inString;
+            } else if (!inString && c == ')') {
+                return i;
+            }
+        }
+        throw new AssertionError("Unterminated @Query");
+    }
+
+    // Joins up the pieces of a string expression. A piece is either a string literal, or a constant in this package.
+    private static String evaluate(String expression) throws ReflectiveOperationException {
+        StringBuilder result = new StringBuilder();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (c == '"') {
+                i++;
+                while (expression.charAt(i) != '"') {
+                    if (expression.charAt(i) == '\\') {
+                        i++;
+                    }
+                    result.append(expression.charAt(i++));
+                }
+                i++;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                Matcher constant = CONSTANT.matcher(expression);
+                assertTrue("Unexpected query expression: " + expression, constant.find(i) && constant.start() == i);
+                Class<?> owner = Class.forName(QueryPlanTest.class.getPackage().getName() + "." + constant.group(1));
+                result.append(owner.getField(constant.group(2)).get(null));
+                i = constant.end();
+            } else {
+                i++;
+            }
+        }
+        return result.toString();
+    }
+}
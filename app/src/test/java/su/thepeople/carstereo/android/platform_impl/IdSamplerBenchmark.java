@@ -0,0 +1,125 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the old way of picking a random batch of songs ("ORDER BY random() LIMIT n", which sorts the whole table)
+ * with IdSampler (pick from an array of IDs, then look up only those rows), on song tables of 10k, 100k and 1M rows.
+ *
+ * The sampler has a one-time cost to load its ID array, which is reported separately. After that, its batches should
+ * cost about the same at every size, while the old query gets slower in step with the table.
+ */
+public class IdSamplerBenchmark {
+
+    private static final int[] SONG_COUNTS = {10_000, 100_000, 1_000_000};
+    private static final int BATCH_SIZE = 10;
+    private static final int OLD_REPEATS = 5;
+    private static final int NEW_REPEATS = 50;
+
+    private static Connection createSongTable(int songCount) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE `DBSong` (`uid` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT NOT NULL, `rootId` INTEGER NOT NULL, `relativePath` TEXT NOT NULL, `bandId` INTEGER NOT NULL, `albumId` INTEGER, `year` INTEGER, `fingerprint` TEXT)");
+        }
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO DBSong (name, rootId, relativePath, bandId, albumId, year) VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < songCount; i++) {
+                insert.setString(1, "Song " + i);
+                insert.setLong(2, i / 10);
+                insert.setString(3, String.format("%02d - Song %d.mp3", i % 10, i));
+                insert.setLong(4, i / 100);
+                insert.setLong(5, i / 10);
+                insert.setInt(6, 1960 + i % 60);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    private static List<Long> readIds(Connection connection, String sql) {
+        List<Long> ids = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet rows = statement.executeQuery(sql)) {
+            while (rows.next()) {
+                ids.add(rows.getLong("uid"));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return ids;
+    }
+
+    private static List<Long> lookupAll(Connection connection, List<Long> ids) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM DBSong WHERE uid IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append((i == 0) ? "?" : ", ?");
+        }
+        sql.append(")");
+        List<Long> found = new ArrayList<>();
+        try (PreparedStatement lookup = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < ids.size(); i++) {
+                lookup.setLong(i + 1, ids.get(i));
+            }
+            try (ResultSet rows = lookup.executeQuery()) {
+                while (rows.next()) {
+                    found.add(rows.getLong("uid"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return found;
+    }
+
+    private static double median(long[] nanos) {
+        Arrays.sort(nanos);
+        return nanos[nanos.length / 2] / 1_000_000.0;
+    }
+
+    @Test
+    public void randomBatchLatency() throws SQLException {
+        for (int songCount : SONG_COUNTS) {
+            try (Connection connection = createSongTable(songCount)) {
+                long[] oldTimes = new long[OLD_REPEATS];
+                for (int i = 0; i < OLD_REPEATS; i++) {
+                    long start = System.nanoTime();
+                    List<Long> batch = readIds(connection, "SELECT * FROM DBSong ORDER BY random() LIMIT " + BATCH_SIZE);
+                    oldTimes[i] = System.nanoTime() - start;
+                    assertEquals(BATCH_SIZE, batch.size());
+                }
+
+                IdSampler sampler = new IdSampler(() -> readIds(connection, "SELECT uid FROM DBSong"));
+                long loadStart = System.nanoTime();
+                sampler.pick(1);
+                long loadMillis = (System.nanoTime() - loadStart) / 1_000_000;
+
+                long[] newTimes = new long[NEW_REPEATS];
+                for (int i = 0; i < NEW_REPEATS; i++) {
+                    long start = System.nanoTime();
+                    List<Long> batch = lookupAll(connection, sampler.pick(BATCH_SIZE));
+                    newTimes[i] = System.nanoTime() - start;
+                    assertEquals(BATCH_SIZE, new HashSet<>(batch).size());
+                }
+
+                System.out.println(String.format("%,d songs: ORDER BY random() %.2f ms, IdSampler %.3f ms (ID array loaded once, in %d ms)",
+                        songCount, median(oldTimes), median(newTimes), loadMillis));
+            }
+        }
+    }
+}
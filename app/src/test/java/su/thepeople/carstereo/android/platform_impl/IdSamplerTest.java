@@ -0,0 +1,58 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class IdSamplerTest {
+
+    @Test
+    public void picksFromTheLoadedIds() {
+        List<Long> table = Arrays.asList(3L, 5L, 8L, 13L);
+        IdSampler sampler = new IdSampler(() -> table);
+        assertEquals(new HashSet<>(table), new HashSet<>(sampler.pick(10)));
+        assertEquals(2, new HashSet<>(sampler.pick(2)).size());
+    }
+
+    @Test
+    public void reloadsOnlyAfterAChange() {
+        List<Long> table = new ArrayList<>(Arrays.asList(1L, 2L, 3L));
+        int[] loads = {0};
+        IdSampler sampler = new IdSampler(() -> {
+            loads[0]++;
+            return new ArrayList<>(table);
+        });
+        sampler.pick(1);
+        sampler.pick(1);
+        assertEquals(1, loads[0]);
+
+        table.remove(1L);
+        sampler.invalidate();
+        assertEquals(new HashSet<>(Arrays.asList(2L, 3L)), new HashSet<>(sampler.pick(10)));
+        assertEquals(2, loads[0]);
+    }
+
+    @Test
+    public void changeDuringLoadIsNotLost() {
+        List<Long> table = new ArrayList<>(Arrays.asList(1L, 2L, 3L));
+        IdSampler[] sampler = new IdSampler[1];
+        boolean[] changeDuringLoad = {true};
+        sampler[0] = new IdSampler(() -> {
+            List<Long> ids = new ArrayList<>(table);
+            if (changeDuringLoad[0]) {
+                // The table changes after we read it, but before the load is finished.
+                changeDuringLoad[0] = false;
+                table.remove(1L);
+                sampler[0].invalidate();
+            }
+            return ids;
+        });
+        sampler[0].pick(1);
+        assertEquals(new HashSet<>(Arrays.asList(2L, 3L)), new HashSet<>(sampler[0].pick(10)));
+    }
+}
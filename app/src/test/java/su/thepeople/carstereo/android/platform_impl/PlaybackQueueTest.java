@@ -0,0 +1,290 @@
+package su.thepeople.carstereo.android.platform_impl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.data.SongInfo;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackQueueTest {
+
+    private static final Band BAND = new Band(1, "Band");
+
+    // Songs are stored at "/music/<name>.mp3", so a player's loaded path says which song it has.
+    private static final PathResolver PATHS = new PathResolver() {
+        @Override public long getRootId(String rootPath) { return 1; }
+        @Override public String getRootPath(long rootId) { return "/music"; }
+        @Override public String getFullPath(Song song) { return "/music/" + song.getRelativePath(); }
+    };
+
+    /**
+     * Stands in for a system player. Nothing happens on its own: the test says when a song has finished loading, or
+     * finished playing, by calling the queue the way the system would.
+     */
+    private static class FakePlayer implements SystemPlayer {
+        String loaded = null;
+        boolean playing = false;
+        SystemPlayer next = null;
+        // Paths that can't be read from disk.
+        final Set<String> unreadable = new HashSet<>();
+
+        @Override
+        public void load(String fullPath) throws IOException {
+            reset();
+            if (unreadable.contains(fullPath)) {
+                throw new IOException("Unreadable: " + fullPath);
+            }
+            loaded = fullPath;
+        }
+
+        @Override public void reset() { loaded = null; playing = false; next = null; }
+        @Override public void start() { playing = true; }
+        @Override public void pause() { playing = false; }
+        @Override public boolean isPlaying() { return playing; }
+        @Override public void restart() { }
+        @Override public void setNext(SystemPlayer next) { this.next = next; }
+    }
+
+    private final FakePlayer first = new FakePlayer();
+    private final FakePlayer second = new FakePlayer();
+    private int advanceCount = 0;
+    private int emptyCount = 0;
+
+    private PlaybackQueue createQueue(boolean gapless) {
+        return new PlaybackQueue(first, gapless ? second : null, PATHS, () -> advanceCount++, () -> emptyCount++);
+    }
+
+    private static SongInfo song(String name) {
+        return new SongInfo(BAND, new Song(name.hashCode(), name, 1, name + ".mp3", BAND.getUid(), null, null));
+    }
+
+    private static List<SongInfo> songs(String... names) {
+        return IntStream.range(0, names.length).mapToObj(i -> song(names[i])).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private static String path(String name) {
+        return "/music/" + name + ".mp3";
+    }
+
+    private static String name(PlaybackQueue queue) {
+        return queue.getCurrentSong().song.getName();
+    }
+
+    @Test
+    public void singlePlayerLoadsOneSongAtATime() {
+        PlaybackQueue queue = createQueue(false);
+        queue.play();
+        queue.setPlaylist(songs("One", "Two"), true);
+        assertEquals(path("One"), first.loaded);
+        assertEquals("One", name(queue));
+        assertEquals(1, queue.getQueuedSongCount());
+        assertEquals(1, advanceCount);
+
+        queue.onPrepared(first);
+        assertTrue(first.playing);
+        assertNull(first.next);
+        assertNull(second.loaded);
+
+        // The last song is loaded, so more songs are asked for straight away.
+        queue.onSongCompleted(first);
+        assertEquals(path("Two"), first.loaded);
+        assertEquals("Two", name(queue));
+        assertEquals(2, advanceCount);
+        assertEquals(1, emptyCount);
+        assertEquals(0, queue.getQueuedSongCount());
+    }
+
+    @Test
+    public void standbyIsLoadedOnceTheCurrentSongIsReady() {
+        PlaybackQueue queue = createQueue(true);
+        queue.play();
+        queue.setPlaylist(songs("One", "Two", "Three"), true);
+        assertEquals(path("One"), first.loaded);
+        // Nothing competes with the current song while it loads.
+        assertNull(second.loaded);
+        assertEquals(2, queue.getQueuedSongCount());
+
+        queue.onPrepared(first);
+        assertTrue(first.playing);
+        assertEquals(path("Two"), second.loaded);
+        assertNull(first.next);
+        assertEquals(2, queue.getQueuedSongCount());
+
+        queue.onPrepared(second);
+        assertSame(second, first.next);
+        assertEquals(0, emptyCount);
+    }
+
+    // In gapless mode, more songs are only asked for once the standby needs one, and not before the current song is ready.
+    @Test
+    public void standbyWaitsForTheCurrentSong() {
+        PlaybackQueue queue = createQueue(true);
+        queue.play();
+        queue.setPlaylist(songs("One"), true);
+        assertEquals(0, emptyCount);
+
+        queue.setPlaylist(songs("Two"), false);
+        assertNull(second.loaded);
+        assertEquals(0, emptyCount);
+
+        queue.onPrepared(first);
+        assertEquals(path("Two"), second.loaded);
+        assertEquals(0, emptyCount);
+        queue.onPrepared(second);
+        queue.onSongCompleted(first);
+        assertEquals("Two", name(queue));
+        assertEquals(1, emptyCount);
+    }
+
+    @Test
+    public void finishedSongSwapsToTheChainedStandby() {
+        PlaybackQueue queue = createQueue(true);
+        queue.play();
+        queue.setPlaylist(songs("One", "Two", "Three"), true);
+        queue.onPrepared(first);
+        queue.onPrepared(second);
+
+        queue.onSongCompleted(first);
+        assertEquals("Two", name(queue));
+        assertTrue(second.playing);
+        assertEquals(2, advanceCount);
+        // The players have swapped roles, so the first one now gets the song after that ready.
+        assertEquals(path("Three"), first.loaded);
+        queue.onPrepared(first);
+        assertSame(first, second.next);
+
+        // A late completion from the old player changes nothing.
+        queue.onSongCompleted(first);
+        assertEquals("Two", name(queue));
+
+        // When the standby has taken the last song, more songs are asked for.
+        queue.onSongCompleted(second);
+        assertEquals("Three", name(queue));
+        assertNull(second.loaded);
+        assertEquals(1, emptyCount);
+    }
+
+    @Test
+    public void skippingWhileStandbyIsLoadingRequeuesItsSong() {
+        PlaybackQueue queue = createQueue(true);
+        queue.play();
+        queue.setPlaylist(songs("One", "Two", "Three"), true);
+        queue.onPrepared(first);
+        assertEquals(path("Two"), second.loaded);
+
+        // The standby isn't ready, so its song goes back in the queue and into the current player instead.
+        queue.prepareNextSong();
+        assertEquals("Two", name(queue));
+        assertEquals(path("Two"), first.loaded);
+        assertNull(second.loaded);
+        assertEquals(1, queue.getQueuedSongCount());
+
+        // The standby's late "ready" is ignored now that it has no song.
+        queue.onPrepared(second);
+        assertNull(first.next);
+
+        queue.onPrepared(first);
+        assertEquals(path("Three"), second.loaded);
+    }
+
+    @Test
+    public void skippingWhileStandbyIsChainedSwaps() {
+        PlaybackQueue queue = createQueue(true);
+        queue.play();
+        queue.setPlaylist(songs("One", "Two", "Three"), true);
+        queue.onPrepared(first);
+        queue.onPrepared(second);
+
+        queue.prepareNextSong();
+        assertEquals("Two", name(queue));
+        assertTrue(second.playing);
+        assertNull(first.next);
+        assertEquals(path("Three"), first.loaded);
+    }
+
+    @Test
+    public void pausedQueueDoesNotStartTheNextSong() {
+        PlaybackQueue queue = createQueue(true);
+        queue.setPlaylist(songs("One", "Two", "Three"), true);
+        queue.onPrepared(first);
+        queue.onPrepared(second);
+        assertFalse(first.playing);
+
+        queue.prepareNextSong();
+        assertEquals("Two", name(queue));
+        assertFalse(second.playing);
+    }
+
+    @Test
+    public void standbyThatFailsToLoadIsSkipped() {
+        PlaybackQueue queue = createQueue(true);
+        queue.play();
+        queue.setPlaylist(songs("One", "Two", "Three", "Four"), true);
+        queue.onPrepared(first);
+        assertEquals(path("Two"), second.loaded);
+
+        assertTrue(queue.onError(second, 1, -1004));
+        assertEquals(path("Three"), second.loaded);
+        assertEquals("One", name(queue));
+        assertTrue(first.playing);
+        assertEquals(2, queue.getQueuedSongCount());
+
+        // An error in the current player is left to the system, which reports the song as finished.
+        assertFalse(queue.onError(first, 1, -1004));
+    }
+
+    @Test
+    public void unreadableUpcomingSongsAreSkipped() {
+        PlaybackQueue queue = createQueue(true);
+        second.unreadable.add(path("Two"));
+        second.unreadable.add(path("Three"));
+        queue.play();
+        queue.setPlaylist(songs("One", "Two", "Three"), true);
+        queue.onPrepared(first);
+        assertNull(second.loaded);
+        assertEquals(0, queue.getQueuedSongCount());
+        assertEquals(1, emptyCount);
+
+        // The next batch fills the standby.
+        queue.setPlaylist(songs("Four"), false);
+        assertEquals(path("Four"), second.loaded);
+        assertEquals("One", name(queue));
+    }
+
+    @Test
+    public void newPlaylistReplacesTheStandby() {
+        PlaybackQueue queue = createQueue(true);
+        queue.play();
+        queue.setPlaylist(songs("One", "Two"), true);
+        queue.onPrepared(first);
+        queue.onPrepared(second);
+        assertSame(second, first.next);
+
+        // The current song plays on, but what comes after it is from the new playlist.
+        queue.setPlaylist(songs("Five", "Six"), false);
+        assertEquals("One", name(queue));
+        assertNull(first.next);
+        assertEquals(path("Five"), second.loaded);
+        assertEquals(2, queue.getQueuedSongCount());
+
+        queue.setPlaylist(songs("Seven"), true);
+        assertEquals("Seven", name(queue));
+        assertEquals(path("Seven"), first.loaded);
+        assertNull(second.loaded);
+    }
+}
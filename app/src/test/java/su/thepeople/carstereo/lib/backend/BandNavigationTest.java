@@ -0,0 +1,129 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks sequential band mode's navigation against the way it used to be done: by splitting the band's song list with
+ * Utils.splitList, after looking up an album's songs.
+ */
+public class BandNavigationTest {
+
+    private static final long MISSING_ID = 999;
+
+    private InMemoryPlatformAdapter library;
+    private long bandId;
+    private long empty;
+    private List<Song> bandSongs;
+    private List<Album> albums;
+    private BandNavigation navigation;
+
+    /**
+     * One band with three albums (the middle one has no songs), plus loose songs from before, between and after the
+     * albums, and one loose song with no year. Album tracks are created out of order.
+     */
+    @Before
+    public void createLibrary() {
+        library = new InMemoryPlatformAdapter();
+        ObjectCreator creator = library.getObjectCreator();
+        long rootId = library.getPathResolver().getRootId("/sdcard/mcotp");
+        bandId = creator.createBand("Band");
+        long first = creator.createAlbum("First", bandId, 1970);
+        empty = creator.createAlbum("Empty", bandId, 1975);
+        long last = creator.createAlbum("Last", bandId, 1980);
+
+        creator.createSong("Demo", rootId, "Demo.mp3", bandId, null, null);
+        creator.createSong("Early", rootId, "1965 - Early.mp3", bandId, null, 1965);
+        creator.createSong("Two", rootId, "1970 - First/02 - Two.mp3", bandId, first, 1970);
+        creator.createSong("One", rootId, "1970 - First/01 - One.mp3", bandId, first, 1970);
+        creator.createSong("Between", rootId, "1977 - Between.mp3", bandId, null, 1977);
+        creator.createSong("Three", rootId, "1980 - Last/03 - Three.mp3", bandId, last, 1980);
+        creator.createSong("One Again", rootId, "1980 - Last/01 - One Again.mp3", bandId, last, 1980);
+        creator.createSong("Two Again", rootId, "1980 - Last/02 - Two Again.mp3", bandId, last, 1980);
+        creator.createSong("Late", rootId, "1990 - Late.mp3", bandId, null, 1990);
+
+        bandSongs = library.getSongFetcher().getAllForBandOrdered(bandId);
+        albums = library.getAlbumFetcher().getAllForBand(bandId);
+        navigation = BandNavigation.build(library, bandId, library.getLibraryGeneration());
+    }
+
+    private List<Long> play(SongIdPlaylist playlist) {
+        List<Long> ids = new ArrayList<>();
+        while (playlist.hasMore()) {
+            playlist.nextWindow(library.getSongFetcher()).forEach(song -> ids.add(song.getUid()));
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(List<Song> songs) {
+        return songs.stream().map(Song::getUid).collect(Collectors.toList());
+    }
+
+    private List<Long> splitAt(long songId, boolean keepSong) {
+        return ids(Utils.splitList(bandSongs, songId, keepSong, Song::getUid));
+    }
+
+    // The old BandSequentialProvider.atAlbumStart(): the album's first track onwards, or the whole band for an empty album.
+    private List<Long> oldAlbumStart(long albumId) {
+        List<Song> albumSongs = library.getSongFetcher().getAllForAlbum(albumId);
+        return albumSongs.isEmpty() ? ids(bandSongs) : splitAt(albumSongs.get(0).getUid(), true);
+    }
+
+    @Test
+    public void playlistFromSongMatchesSplitList() {
+        List<Long> songIds = ids(bandSongs);
+        songIds.add(MISSING_ID);
+        for (long songId : songIds) {
+            for (boolean keepSong : new boolean[] {false, true}) {
+                assertEquals(splitAt(songId, keepSong), play(navigation.getPlaylist(navigation.findSong(songId), keepSong)));
+            }
+        }
+        assertTrue(navigation.findSong(MISSING_ID) < 0);
+    }
+
+    @Test
+    public void albumStartMatchesOldLookup() {
+        for (Album album : albums) {
+            assertEquals(oldAlbumStart(album.getUid()), play(navigation.getPlaylist(navigation.findAlbumStart(album.getUid()), true)));
+        }
+        assertTrue(navigation.findAlbumStart(empty) < 0);
+        assertTrue(navigation.findAlbumStart(MISSING_ID) < 0);
+        assertEquals(ids(bandSongs), play(navigation.getPlaylist(navigation.findAlbumStart(MISSING_ID), true)));
+    }
+
+    @Test
+    public void nextAlbumSkipsAlbumsWithNoSongs() {
+        Album first = albums.get(0);
+        Album last = albums.get(2);
+        assertEquals(empty, albums.get(1).getUid());
+        assertEquals(navigation.findAlbumStart(last.getUid()), navigation.findNextAlbumStart(first.getUid()));
+        assertEquals(navigation.findAlbumStart(last.getUid()), navigation.findNextAlbumStart(empty));
+
+        // There is nothing after the last album, so sequential mode stays where it is, as it always has.
+        assertTrue(navigation.findNextAlbumStart(last.getUid()) < 0);
+        assertTrue(navigation.findNextAlbumStart(MISSING_ID) < 0);
+    }
+
+    @Test
+    public void lastAlbumWrapsToFirst() {
+        Album last = albums.get(2);
+        List<Long> played = play(navigation.getPlaylist(navigation.findAlbumStart(last.getUid()), true));
+        List<String> names = library.getSongFetcher().lookupAll(played).stream().map(Song::getName).collect(Collectors.toList());
+        assertEquals(bandSongs.size(), played.size());
+        assertEquals("One Again", names.get(0));
+        assertEquals("Late", names.get(3));
+        assertEquals(bandSongs.get(0).getName(), names.get(4));
+        assertEquals(oldAlbumStart(last.getUid()), played);
+    }
+}
@@ -0,0 +1,175 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.data.SongInfo;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPrefetcherTest {
+
+    private static final int SONG_COUNT = 20;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryPlatformAdapter library;
+    private ObjectCreator creator;
+    private long rootId;
+    private long bandId;
+    private BatchPrefetcher prefetcher;
+
+    @Before
+    public void createLibrary() {
+        library = new InMemoryPlatformAdapter();
+        creator = library.getObjectCreator();
+        rootId = library.getPathResolver().getRootId("/sdcard/mcotp");
+        bandId = creator.createBand("Band");
+        for (int i = 0; i < SONG_COUNT; i++) {
+            addSong();
+        }
+        prefetcher = new BatchPrefetcher(library, this::hydrate);
+    }
+
+    private long addSong() {
+        String name = "Song " + library.getSongFetcher().getAllIds().size();
+        return creator.createSong(name, rootId, name + ".mp3", bandId, null, null);
+    }
+
+    private List<SongInfo> hydrate(List<? extends Song> songs) {
+        Band band = library.getBandFetcher().lookup(bandId);
+        return songs.stream().map(song -> new SongInfo(band, song)).collect(Collectors.toList());
+    }
+
+    // Remembers every batch that it has picked. By default, each batch is the whole library.
+    private class RecordingProvider extends SongProvider {
+        final List<List<? extends Song>> picked = new CopyOnWriteArrayList<>();
+        private final Semaphore pickedPermits = new Semaphore(0);
+        private int awaited = 0;
+        private final Supplier<List<? extends Song>> picker;
+
+        RecordingProvider(Supplier<List<? extends Song>> picker) {
+            super(library);
+            this.picker = picker;
+        }
+
+        RecordingProvider() {
+            this(() -> library.getSongFetcher().lookupAll(library.getSongFetcher().getAllIds()));
+        }
+
+        @Override
+        public List<? extends Song> getNextBatch() {
+            List<? extends Song> batch = picker.get();
+            picked.add(batch);
+            pickedPermits.release();
+            return batch;
+        }
+
+        // Waits until this many batches have been picked, so that we know a prefetch wasn't just cancelled before it started.
+        void awaitPicks(int count) throws InterruptedException {
+            assertTrue(pickedPermits.tryAcquire(count - awaited, 5, TimeUnit.SECONDS));
+            awaited = count;
+        }
+    }
+
+    @Test
+    public void prefetchedBatchIsUsed() throws InterruptedException {
+        RecordingProvider provider = new RecordingProvider();
+        prefetcher.prefetch(provider);
+        provider.awaitPicks(1);
+        prefetcher.prefetch(provider);
+
+        BatchPrefetcher.PreparedBatch batch = prefetcher.take(provider);
+        assertEquals(1, provider.picked.size());
+        assertSame(provider.picked.get(0), batch.songs);
+        assertEquals(SONG_COUNT, batch.songInfos.size());
+    }
+
+    @Test
+    public void batchIsThrownAwayAfterModeChange() throws InterruptedException {
+        RecordingProvider before = new RecordingProvider();
+        RecordingProvider after = new RecordingProvider();
+        prefetcher.prefetch(before);
+        before.awaitPicks(1);
+
+        List<? extends Song> afterBatch = prefetcher.take(after).songs;
+        assertSame(after.picked.get(0), afterBatch);
+        // Going back to the first provider picks a fresh batch, rather than the one that was thrown away.
+        List<? extends Song> beforeBatch = prefetcher.take(before).songs;
+        assertEquals(2, before.picked.size());
+        assertSame(before.picked.get(1), beforeBatch);
+    }
+
+    @Test
+    public void batchIsThrownAwayAfterLibraryChange() throws InterruptedException {
+        RecordingProvider provider = new RecordingProvider();
+        prefetcher.prefetch(provider);
+        provider.awaitPicks(1);
+        long added = addSong();
+
+        BatchPrefetcher.PreparedBatch batch = prefetcher.take(provider);
+        assertEquals(2, provider.picked.size());
+        assertSame(provider.picked.get(1), batch.songs);
+        assertTrue(batch.songs.stream().anyMatch(song -> song.getUid() == added));
+    }
+
+    /**
+     * Plays shuffle batches the way the music controller does, committing each batch as it is played. Part-way through,
+     * the user locks onto something else, which throws away a prefetched shuffle batch. The thrown-away batch is played
+     * later instead of being skipped, and committing an old batch after that changes nothing.
+     */
+    @Test
+    public void shuffleBatchesAreCommittedOnce() throws InterruptedException {
+        ShuffleCycle cycle = new ShuffleCycle(library, new File(folder.getRoot(), "shuffle"));
+        SongProvider.ShuffleProvider shuffleSource = new SongProvider.ShuffleProvider(library, cycle);
+        RecordingProvider shuffle = new RecordingProvider(shuffleSource::getNextBatch);
+        RecordingProvider other = new RecordingProvider();
+        List<Long> played = new ArrayList<>();
+
+        BatchPrefetcher.PreparedBatch first = prefetcher.take(shuffle);
+        cycle.commit(first.songs);
+        first.songs.forEach(song -> played.add(song.getUid()));
+        prefetcher.prefetch(shuffle);
+        shuffle.awaitPicks(2);
+        List<? extends Song> discarded = shuffle.picked.get(1);
+
+        cycle.commit(prefetcher.take(other).songs);
+        BatchPrefetcher.PreparedBatch second = prefetcher.take(shuffle);
+        assertNotSame(discarded, second.songs);
+        assertEquals(ids(discarded), ids(second.songs));
+        cycle.commit(second.songs);
+        second.songs.forEach(song -> played.add(song.getUid()));
+
+        assertEquals(SONG_COUNT, played.size());
+        assertEquals(new HashSet<>(library.getSongFetcher().getAllIds()), new HashSet<>(played));
+
+        // Neither old batch moves the next cycle along, so the next batch is handed out again.
+        List<Long> next = ids(prefetcher.take(shuffle).songs);
+        cycle.commit(discarded);
+        cycle.commit(second.songs);
+        assertEquals(next, ids(prefetcher.take(shuffle).songs));
+    }
+
+    private static List<Long> ids(List<? extends Song> songs) {
+        return songs.stream().map(Song::getUid).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,165 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CachingPlatformAdapterTest {
+
+    private static final long MISSING_ID = 999;
+
+    private InMemoryPlatformAdapter library;
+    private CachingPlatformAdapter cache;
+    private long bandId;
+
+    /**
+     * A library whose bulk band lookups come back in the opposite order to the one asked for, since a database query
+     * doesn't promise any particular order.
+     */
+    private static class ReversingLibrary extends InMemoryPlatformAdapter {
+        @Override
+        public BandFetcher getBandFetcher() {
+            BandFetcher fetcher = super.getBandFetcher();
+            return new BandFetcher() {
+                @Override public List<Band> getAll() { return fetcher.getAll(); }
+                @Override public Band lookup(long bandId) { return fetcher.lookup(bandId); }
+                @Override public Band getRandom() { return fetcher.getRandom(); }
+                @Override public List<BandCounts> getCounts() { return fetcher.getCounts(); }
+
+                @Override
+                public List<Band> lookupAll(Collection<Long> ids) {
+                    List<Band> bands = new ArrayList<>(fetcher.lookupAll(ids));
+                    Collections.reverse(bands);
+                    return bands;
+                }
+            };
+        }
+    }
+
+    @Before
+    public void createLibrary() {
+        library = new ReversingLibrary();
+        bandId = library.getObjectCreator().createBand("Band");
+        cache = new CachingPlatformAdapter(library);
+    }
+
+    private List<Long> createBands(int count) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(library.getObjectCreator().createBand("Band " + i));
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(List<Band> bands) {
+        return bands.stream().map(Band::getUid).collect(Collectors.toList());
+    }
+
+    @Test
+    public void repeatedLookupIsAHit() {
+        Band band = cache.getBandFetcher().lookup(bandId);
+        assertSame(band, cache.getBandFetcher().lookup(bandId));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void trimEmptiesTheCache() {
+        cache.getBandFetcher().lookup(bandId);
+        cache.trimMemory();
+        cache.getBandFetcher().lookup(bandId);
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void lookupInProgressDuringTrimIsNotCached() {
+        library.setBandLookupListener(cache::trimMemory);
+        cache.getBandFetcher().lookup(bandId);
+        library.setBandLookupListener(() -> {});
+
+        cache.getBandFetcher().lookup(bandId);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    // A write through the cache bumps its generation, so a lookup that started before the write is thrown away.
+    @Test
+    public void lookupInProgressDuringWriteIsNotCached() {
+        List<Long> wanted = Arrays.asList(bandId);
+        library.setBandLookupListener(() -> cache.getObjectCreator().createBand("Other"));
+        cache.getBandFetcher().lookup(bandId);
+        cache.getBandFetcher().lookupAll(wanted);
+        library.setBandLookupListener(() -> {});
+
+        cache.getBandFetcher().lookupAll(wanted);
+        assertEquals(3, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+        cache.getBandFetcher().lookup(bandId);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedBandIsEvicted() {
+        // One more band than the cache holds, including the one made in createLibrary().
+        List<Long> others = createBands(255);
+        cache.getBandFetcher().lookup(bandId);
+        others.forEach(cache.getBandFetcher()::lookup);
+        assertEquals(256, cache.getMissCount());
+
+        long newest = library.getObjectCreator().createBand("Newest");
+        cache.getBandFetcher().lookup(newest);
+        cache.getBandFetcher().lookup(others.get(0));
+        assertEquals(1, cache.getHitCount());
+        cache.getBandFetcher().lookup(bandId);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(258, cache.getMissCount());
+    }
+
+    @Test
+    public void bulkLookupKeepsTheOrderAndDropsMissingIds() {
+        List<Long> bandIds = createBands(5);
+        cache.getBandFetcher().lookup(bandIds.get(1));
+        cache.getBandFetcher().lookup(bandIds.get(3));
+
+        List<Long> wanted = Arrays.asList(bandIds.get(4), bandIds.get(1), MISSING_ID, bandIds.get(0), bandIds.get(3), bandIds.get(2));
+        List<Long> expected = Arrays.asList(bandIds.get(4), bandIds.get(1), bandIds.get(0), bandIds.get(3), bandIds.get(2));
+        assertEquals(expected, ids(cache.getBandFetcher().lookupAll(wanted)));
+        // Two hits, and one bulk lookup for the other four.
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+
+        // The missing ID is looked for again, and everything else is now cached.
+        assertEquals(expected, ids(cache.getBandFetcher().lookupAll(wanted)));
+        assertEquals(7, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertNull(cache.getBandFetcher().lookup(MISSING_ID));
+    }
+
+    @Test
+    public void bandListIsFetchedAgainAfterAnyLibraryChange() {
+        List<Band> first = cache.getBandFetcher().getAll();
+        assertSame(first, cache.getBandFetcher().getAll());
+
+        // A change made underneath the cache, rather than through it.
+        library.getObjectCreator().createBand("Aardvarks");
+        List<Band> second = cache.getBandFetcher().getAll();
+        assertNotSame(first, second);
+        assertEquals("Aardvarks", second.get(0).getName());
+        assertEquals(2, second.size());
+    }
+}
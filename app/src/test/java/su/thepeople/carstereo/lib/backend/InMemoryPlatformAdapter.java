@@ -0,0 +1,443 @@
+package su.thepeople.carstereo.lib.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
+import su.thepeople.carstereo.lib.data.DirectoryRecord;
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
+import su.thepeople.carstereo.lib.data.ScanCheckpoint;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.data.SongFile;
+import su.thepeople.carstereo.lib.platform_interface.AlbumFetcher;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+import su.thepeople.carstereo.lib.platform_interface.DirectoryWatcher;
+import su.thepeople.carstereo.lib.platform_interface.LogProvider;
+import su.thepeople.carstereo.lib.platform_interface.MessagingSystem;
+import su.thepeople.carstereo.lib.platform_interface.MusicPlayer;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.PathResolver;
+import su.thepeople.carstereo.lib.platform_interface.PlatformAdapter;
+import su.thepeople.carstereo.lib.platform_interface.ScanManifest;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+import su.thepeople.carstereo.lib.util.SortKeys;
+
+/**
+ * A library that lives entirely in memory, for running the backend on a plain JVM.
+ *
+ * Each table hands out IDs in order, starting from 1, the same as sqlite does. Every method is synchronized on the adapter,
+ * since the scanner reads the manifest from several threads at once. There is no music player, directory watcher or
+ * messaging system.
+ */
+class InMemoryPlatformAdapter implements PlatformAdapter {
+
+    private final Random random = new Random();
+    private long generation = 0;
+    private long nextBandId = 1;
+    private long nextAlbumId = 1;
+    private long nextSongId = 1;
+    private long nextRootId = 1;
+
+    private final Map<Long, Band> bands = new TreeMap<>();
+    private final Map<Long, Album> albums = new TreeMap<>();
+    private final Map<Long, Song> songs = new TreeMap<>();
+    // The same albums and songs, grouped by band, so that a big library can be read one band at a time.
+    private final Map<Long, Map<Long, Album>> albumsByBand = new HashMap<>();
+    private final Map<Long, Map<Long, Song>> songsByBand = new HashMap<>();
+    // Fingerprints are only the scan manifest's business, so they are kept apart from the songs, as the database does.
+    private final Map<Long, String> fingerprints = new HashMap<>();
+    private final Map<String, DirectoryRecord> directories = new HashMap<>();
+    private final Map<String, Long> rootIds = new HashMap<>();
+    private final Map<Long, String> rootPaths = new HashMap<>();
+    private ScanCheckpoint checkpoint = null;
+
+    // Called at the start of every band lookup, outside of the lock, so that a test can do something in the middle of one.
+    private volatile Runnable bandLookupListener = () -> {};
+
+    void setBandLookupListener(Runnable listener) {
+        bandLookupListener = listener;
+    }
+
+    private synchronized long addSong(NewSong song) {
+        long uid = (song.uid == null) ? nextSongId++ : song.uid;
+        generation++;
+        removeSong(uid);
+        Song added = new Song(uid, song.name, song.rootId, song.relativePath, song.bandId, song.albumId, song.year);
+        songs.put(uid, added);
+        if (!song.fingerprint.isEmpty()) {
+            // Songs made up by tests mostly have no fingerprint, and the benchmarks make a million of them.
+            fingerprints.put(uid, song.fingerprint);
+        }
+        songsByBand.computeIfAbsent(song.bandId, band -> new TreeMap<>()).put(uid, added);
+        return uid;
+    }
+
+    private synchronized void removeSong(long uid) {
+        Song removed = songs.remove(uid);
+        fingerprints.remove(uid);
+        if (removed != null) {
+            songsByBand.get(removed.getBandId()).remove(uid);
+        }
+    }
+
+    private synchronized List<Song> getSongsForBand(long bandId) {
+        return new ArrayList<>(songsByBand.getOrDefault(bandId, Collections.emptyMap()).values());
+    }
+
+    private synchronized List<SongFile> toSongFiles(Collection<Song> songList) {
+        return songList.stream().map(song -> new SongFile(song, fingerprints.get(song.getUid()))).collect(Collectors.toList());
+    }
+
+    private synchronized <T> List<T> pickRandom(Collection<T> items, int count) {
+        List<T> shuffled = new ArrayList<>(items);
+        Collections.shuffle(shuffled, random);
+        return new ArrayList<>(shuffled.subList(0, Math.min(count, shuffled.size())));
+    }
+
+    private final ObjectCreator objectCreator = new ObjectCreator() {
+        @Override
+        public long createBand(String bandName) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                generation++;
+                long uid = nextBandId++;
+                bands.put(uid, new Band(uid, bandName));
+                return uid;
+            }
+        }
+
+        @Override
+        public long createAlbum(String name, long bandId, Integer year) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                generation++;
+                long uid = nextAlbumId++;
+                Album album = new Album(uid, name, bandId, year);
+                albums.put(uid, album);
+                albumsByBand.computeIfAbsent(bandId, band -> new TreeMap<>()).put(uid, album);
+                return uid;
+            }
+        }
+
+        @Override
+        public long createSong(String name, long rootId, String relativePath, long bandId, Long albumId, Integer year) {
+            return addSong(new NewSong(name, rootId, relativePath, bandId, albumId, year, "", null));
+        }
+
+        @Override
+        public List<Long> createAlbums(List<NewAlbum> newAlbums) {
+            return newAlbums.stream().map(album -> createAlbum(album.name, album.bandId, album.year)).collect(Collectors.toList());
+        }
+
+        @Override
+        public List<Long> createSongs(List<NewSong> newSongs) {
+            return newSongs.stream().map(InMemoryPlatformAdapter.this::addSong).collect(Collectors.toList());
+        }
+
+        @Override
+        public void deleteBand(long bandId) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                generation++;
+                bands.remove(bandId);
+                albums.values().removeIf(album -> album.getBandId() == bandId);
+                albumsByBand.remove(bandId);
+                getSongsForBand(bandId).forEach(song -> removeSong(song.getUid()));
+            }
+        }
+
+        @Override
+        public void deleteAlbum(long albumId) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                generation++;
+                Album removed = albums.remove(albumId);
+                if (removed != null) {
+                    albumsByBand.get(removed.getBandId()).remove(albumId);
+                }
+                songs.values().stream()
+                        .filter(song -> Objects.equals(song.getAlbumId(), albumId))
+                        .map(Song::getUid)
+                        .collect(Collectors.toList())
+                        .forEach(InMemoryPlatformAdapter.this::removeSong);
+            }
+        }
+
+        @Override
+        public void deleteSong(long songId) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                generation++;
+                removeSong(songId);
+            }
+        }
+    };
+
+    private final ScanManifest scanManifest = new ScanManifest() {
+        @Override
+        public DirectoryRecord lookup(String path) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return directories.get(path);
+            }
+        }
+
+        @Override
+        public List<DirectoryRecord> getChildren(String parentPath) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return directories.values().stream().filter(record -> record.getParentPath().equals(parentPath)).collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public void record(DirectoryRecord record) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                directories.put(record.getPath(), record);
+            }
+        }
+
+        @Override
+        public void forget(String path) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                directories.keySet().removeIf(key -> key.equals(path) || key.startsWith(path + "/"));
+            }
+        }
+
+        @Override
+        public List<SongFile> findSongsByFingerprint(String fingerprintPrefix) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return toSongFiles(songs.values()).stream()
+                        .filter(file -> file.getFingerprint() != null && file.getFingerprint().startsWith(fingerprintPrefix))
+                        .collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public List<SongFile> getSongFilesForBand(long bandId) {
+            return toSongFiles(songFetcher.getAllForBandOrdered(bandId));
+        }
+
+        @Override
+        public List<SongFile> getSongFilesForAlbum(long albumId) {
+            return toSongFiles(songFetcher.getAllForAlbum(albumId));
+        }
+
+        @Override
+        public ScanCheckpoint getCheckpoint() {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return checkpoint;
+            }
+        }
+
+        @Override
+        public void saveCheckpoint(ScanCheckpoint newCheckpoint) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                checkpoint = newCheckpoint;
+            }
+        }
+    };
+
+    private final PathResolver pathResolver = new PathResolver() {
+        @Override
+        public long getRootId(String rootPath) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return rootIds.computeIfAbsent(rootPath, path -> {
+                    long uid = nextRootId++;
+                    rootPaths.put(uid, path);
+                    return uid;
+                });
+            }
+        }
+
+        @Override
+        public String getRootPath(long rootId) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return rootPaths.get(rootId);
+            }
+        }
+
+        @Override
+        public String getFullPath(Song song) {
+            return getRootPath(song.getRootId()) + "/" + song.getRelativePath();
+        }
+    };
+
+    private final BandFetcher bandFetcher = new BandFetcher() {
+        @Override
+        public List<Band> getAll() {
+            synchronized (InMemoryPlatformAdapter.this) {
+                List<Band> all = new ArrayList<>(bands.values());
+                all.sort(Comparator.comparing(band -> SortKeys.forName(band.getName())));
+                return all;
+            }
+        }
+
+        @Override
+        public Band lookup(long bandId) {
+            bandLookupListener.run();
+            synchronized (InMemoryPlatformAdapter.this) {
+                return bands.get(bandId);
+            }
+        }
+
+        @Override
+        public List<Band> lookupAll(Collection<Long> bandIds) {
+            bandLookupListener.run();
+            synchronized (InMemoryPlatformAdapter.this) {
+                return bandIds.stream().map(bands::get).filter(Objects::nonNull).collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public Band getRandom() {
+            List<Band> picked = pickRandom(bands.values(), 1);
+            return picked.isEmpty() ? null : picked.get(0);
+        }
+
+        @Override
+        public List<BandCounts> getCounts() {
+            synchronized (InMemoryPlatformAdapter.this) {
+                Map<Long, Integer> songCounts = new HashMap<>();
+                songs.values().forEach(song -> songCounts.merge(song.getBandId(), 1, Integer::sum));
+                Map<Long, Integer> albumCounts = new HashMap<>();
+                albums.values().forEach(album -> albumCounts.merge(album.getBandId(), 1, Integer::sum));
+                return bands.keySet().stream()
+                        .map(uid -> new BandCounts(uid, songCounts.getOrDefault(uid, 0), albumCounts.getOrDefault(uid, 0)))
+                        .collect(Collectors.toList());
+            }
+        }
+    };
+
+    private final AlbumFetcher albumFetcher = new AlbumFetcher() {
+        @Override
+        public List<Album> getAllForBand(long bandId) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return new ArrayList<>(albumsByBand.getOrDefault(bandId, Collections.emptyMap()).values());
+            }
+        }
+
+        @Override
+        public Album lookup(long albumId) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return albums.get(albumId);
+            }
+        }
+
+        @Override
+        public List<Album> lookupAll(Collection<Long> albumIds) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return albumIds.stream().map(albums::get).filter(Objects::nonNull).collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public Album getRandom() {
+            List<Album> picked = pickRandom(albums.values(), 1);
+            return picked.isEmpty() ? null : picked.get(0);
+        }
+    };
+
+    private final SongFetcher songFetcher = new SongFetcher() {
+        private List<Song> matching(Predicate<Song> filter) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return songs.values().stream().filter(filter).collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public List<Song> getAllForBandOrdered(Long bandId) {
+            List<Song> bandSongs = getSongsForBand(bandId);
+            bandSongs.sort(Comparator.comparing((Song song) -> song.getYear(), Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(song -> pathResolver.getRootPath(song.getRootId()))
+                    .thenComparing(Song::getRelativePath));
+            return bandSongs;
+        }
+
+        @Override
+        public List<Long> getAllIds() {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return new ArrayList<>(songs.keySet());
+            }
+        }
+
+        @Override
+        public List<Long> getIdsForBand(Long bandId) {
+            return getSongsForBand(bandId).stream().map(Song::getUid).collect(Collectors.toList());
+        }
+
+        @Override
+        public List<Song> lookupAll(Collection<Long> songIds) {
+            synchronized (InMemoryPlatformAdapter.this) {
+                return songIds.stream().map(songs::get).filter(Objects::nonNull).collect(Collectors.toList());
+            }
+        }
+
+        @Override
+        public List<Song> getSomeForBand(Long bandId, Integer maxSize) {
+            return pickRandom(getSongsForBand(bandId), maxSize);
+        }
+
+        @Override
+        public List<Song> getAllForAlbum(Long albumId) {
+            List<Song> albumSongs = matching(song -> Objects.equals(song.getAlbumId(), albumId));
+            albumSongs.sort(Comparator.comparing(Song::getRelativePath));
+            return albumSongs;
+        }
+
+        @Override
+        public List<Song> getRandomBatch(int batchSize) {
+            return pickRandom(matching(song -> true), batchSize);
+        }
+
+        @Override
+        public List<Integer> getYears() {
+            return matching(song -> song.getYear() != null).stream().map(Song::getYear).distinct().sorted().collect(Collectors.toList());
+        }
+
+        @Override
+        public List<Song> getRandomBatchForEra(int startYear, int endYear, int batchSize) {
+            return pickRandom(matching(song -> song.getYear() != null && song.getYear() >= startYear && song.getYear() <= endYear), batchSize);
+        }
+
+        @Override
+        public Integer getNextYear(int year) {
+            return getYears().stream().filter(y -> y > year).findFirst().orElse(null);
+        }
+
+        @Override
+        public Integer getPreviousYear(int year) {
+            return getYears().stream().filter(y -> y < year).reduce((first, second) -> second).orElse(null);
+        }
+    };
+
+    @Override public ObjectCreator getObjectCreator() { return objectCreator; }
+
+    @Override public ScanManifest getScanManifest() { return scanManifest; }
+
+    @Override public PathResolver getPathResolver() { return pathResolver; }
+
+    @Override public DirectoryWatcher createDirectoryWatcher(DirectoryWatcher.Listener listener) { return null; }
+
+    @Override public BandFetcher getBandFetcher() { return bandFetcher; }
+
+    @Override public AlbumFetcher getAlbumFetcher() { return albumFetcher; }
+
+    @Override public SongFetcher getSongFetcher() { return songFetcher; }
+
+    @Override public MusicPlayer createMusicPlayer(MusicControllerThread controller, PathResolver pathResolver) { return null; }
+
+    @Override public LogProvider getLogProvider() { return null; }
+
+    @Override public MessagingSystem createMessagingSystemForCurrentThread() { return null; }
+
+    @Override public void onLibraryChanged() { }
+
+    @Override public synchronized long getLibraryGeneration() { return generation; }
+}
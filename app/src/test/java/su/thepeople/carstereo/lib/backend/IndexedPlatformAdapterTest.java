@@ -0,0 +1,117 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class IndexedPlatformAdapterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path bandDir;
+    private FailingPlatformAdapter library;
+    private IndexedPlatformAdapter indexed;
+    private MusicScanner scanner;
+
+    // A library whose song writes can be made to fail.
+    private static class FailingPlatformAdapter extends InMemoryPlatformAdapter {
+        private volatile boolean failWrites = false;
+
+        private final ObjectCreator failingCreator = new ObjectCreator() {
+            private ObjectCreator target() {
+                return FailingPlatformAdapter.super.getObjectCreator();
+            }
+
+            @Override public long createBand(String bandName) { return target().createBand(bandName); }
+
+            @Override public long createAlbum(String name, long bandId, Integer year) { return target().createAlbum(name, bandId, year); }
+
+            @Override public long createSong(String name, long rootId, String relativePath, long bandId, Long albumId, Integer year) {
+                return target().createSong(name, rootId, relativePath, bandId, albumId, year);
+            }
+
+            @Override public List<Long> createAlbums(List<NewAlbum> albums) { return target().createAlbums(albums); }
+
+            @Override public List<Long> createSongs(List<NewSong> songs) {
+                if (failWrites) {
+                    throw new IllegalStateException("Disk full");
+                }
+                return target().createSongs(songs);
+            }
+
+            @Override public void deleteBand(long bandId) { target().deleteBand(bandId); }
+
+            @Override public void deleteAlbum(long albumId) { target().deleteAlbum(albumId); }
+
+            @Override public void deleteSong(long songId) { target().deleteSong(songId); }
+        };
+
+        @Override public ObjectCreator getObjectCreator() { return failingCreator; }
+    }
+
+    @Before
+    public void createCollection() throws IOException {
+        Path card = folder.getRoot().toPath();
+        bandDir = Files.createDirectories(card.resolve("mcotp/Band"));
+        writeSong("1980 - First/01 - Opener.mp3");
+        File searchDir = Files.createDirectories(card.resolve("Android/media")).toFile();
+
+        library = new FailingPlatformAdapter();
+        indexed = new IndexedPlatformAdapter(library);
+        scanner = new MusicScanner(indexed, () -> Stream.of(searchDir), 2, 2, new NioDirectoryReader());
+        scanner.scan();
+    }
+
+    private void writeSong(String relativePath) throws IOException {
+        Path file = bandDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[1]);
+    }
+
+    @Test
+    public void indexIsUsedAfterAScan() {
+        assertNotSame(library.getSongFetcher(), indexed.getSongFetcher());
+        assertEquals(1, indexed.getSongFetcher().getAllIds().size());
+    }
+
+    @Test
+    public void indexIsUsedAgainAfterAFailedScan() throws IOException {
+        writeSong("1990 - Second/01 - Closer.mp3");
+        library.failWrites = true;
+        try {
+            scanner.rescan();
+            fail("Scan should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+
+        // The album was written before the songs failed, and the new index has it.
+        assertNotSame(library.getSongFetcher(), indexed.getSongFetcher());
+        assertEquals(2, indexed.getAlbumFetcher().getAllForBand(indexed.getBandFetcher().getAll().get(0).getUid()).size());
+        assertEquals(1, indexed.getSongFetcher().getAllIds().size());
+
+        // And the next scan picks up where the failed one left off.
+        library.failWrites = false;
+        scanner.rescan();
+        assertNotSame(library.getSongFetcher(), indexed.getSongFetcher());
+        assertEquals(2, indexed.getSongFetcher().getAllIds().size());
+    }
+}
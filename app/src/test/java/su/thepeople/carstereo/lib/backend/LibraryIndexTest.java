@@ -0,0 +1,218 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Album;
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.BandCounts;
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.BandFetcher;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the index against the library it was built from. The data classes have no equals(), so everything is compared
+ * by description.
+ */
+public class LibraryIndexTest {
+
+    private InMemoryPlatformAdapter library;
+    private long zebras;
+    private long aardvarks;
+    private long nobodies;
+    private long stripes;
+    private long spots;
+    private long silence;
+    private LibraryIndex index;
+
+    /**
+     * Three bands: one with albums and loose songs (spread over two roots), one with only loose songs and an empty
+     * album, and one with nothing at all. The album songs are created out of path order.
+     */
+    @Before
+    public void createLibrary() {
+        library = new InMemoryPlatformAdapter();
+        ObjectCreator creator = library.getObjectCreator();
+        long mainRoot = library.getPathResolver().getRootId("/sdcard/mcotp");
+        long otherRoot = library.getPathResolver().getRootId("/sdcard/other");
+
+        zebras = creator.createBand("The Zebras");
+        aardvarks = creator.createBand("Aardvarks");
+        nobodies = creator.createBand("Nobodies");
+        stripes = creator.createAlbum("Stripes", zebras, 1975);
+        spots = creator.createAlbum("Spots", zebras, null);
+        silence = creator.createAlbum("Silence", aardvarks, 1991);
+
+        creator.createSong("Third", mainRoot, "03 - Third.mp3", zebras, stripes, 1975);
+        creator.createSong("First", mainRoot, "01 - First.mp3", zebras, stripes, 1975);
+        creator.createSong("Second", mainRoot, "02 - Second.mp3", zebras, stripes, 1975);
+        creator.createSong("Dot", mainRoot, "01 - Dot.mp3", zebras, spots, null);
+        creator.createSong("Single", otherRoot, "1980 - Single.mp3", zebras, null, 1980);
+        creator.createSong("Demo", otherRoot, "Demo.mp3", zebras, null, null);
+        creator.createSong("Burrow", mainRoot, "1990 - Burrow.mp3", aardvarks, null, 1990);
+        creator.createSong("Anthill", mainRoot, "1985 - Anthill.mp3", aardvarks, null, 1985);
+
+        index = LibraryIndex.build(library);
+    }
+
+    private static String describe(Band band) {
+        return band.getUid() + " " + band.getName();
+    }
+
+    private static String describe(Album album) {
+        return album.getUid() + " " + album.getName() + " " + album.getBandId() + " " + album.getYear();
+    }
+
+    private static String describe(Song song) {
+        return song.getUid() + " " + song.getName() + " " + song.getRootId() + " " + song.getRelativePath() + " "
+                + song.getBandId() + " " + song.getAlbumId() + " " + song.getYear();
+    }
+
+    private static String describe(BandCounts counts) {
+        return counts.getBandId() + " " + counts.getSongCount() + " " + counts.getAlbumCount();
+    }
+
+    private static List<String> describeBands(List<Band> bands) {
+        return bands.stream().map(LibraryIndexTest::describe).collect(Collectors.toList());
+    }
+
+    private static List<String> describeAlbums(List<Album> albums) {
+        return albums.stream().map(LibraryIndexTest::describe).collect(Collectors.toList());
+    }
+
+    private static List<String> describeSongs(List<Song> songs) {
+        return songs.stream().map(LibraryIndexTest::describe).collect(Collectors.toList());
+    }
+
+    private static List<String> describeCounts(BandFetcher fetcher) {
+        List<BandCounts> counts = new ArrayList<>(fetcher.getCounts());
+        counts.sort(Comparator.comparingLong(BandCounts::getBandId));
+        return counts.stream().map(LibraryIndexTest::describe).collect(Collectors.toList());
+    }
+
+    private static Set<Long> ids(List<Song> songs) {
+        return songs.stream().map(Song::getUid).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void fetchersMatchTheSource() {
+        SongFetcher source = library.getSongFetcher();
+        SongFetcher indexed = index.getSongFetcher();
+        assertEquals(describeBands(library.getBandFetcher().getAll()), describeBands(index.getBandFetcher().getAll()));
+        assertEquals(source.getAllIds(), indexed.getAllIds());
+        assertEquals(source.getYears(), indexed.getYears());
+        for (long bandId : Arrays.asList(zebras, aardvarks, nobodies)) {
+            assertEquals(describeBands(Collections.singletonList(library.getBandFetcher().lookup(bandId))),
+                    describeBands(Collections.singletonList(index.getBandFetcher().lookup(bandId))));
+            assertEquals(describeAlbums(library.getAlbumFetcher().getAllForBand(bandId)),
+                    describeAlbums(index.getAlbumFetcher().getAllForBand(bandId)));
+            assertEquals(describeSongs(source.getAllForBandOrdered(bandId)), describeSongs(indexed.getAllForBandOrdered(bandId)));
+            assertEquals(new HashSet<>(source.getIdsForBand(bandId)), new HashSet<>(indexed.getIdsForBand(bandId)));
+        }
+        for (long albumId : Arrays.asList(stripes, spots, silence)) {
+            assertEquals(describeAlbums(Collections.singletonList(library.getAlbumFetcher().lookup(albumId))),
+                    describeAlbums(Collections.singletonList(index.getAlbumFetcher().lookup(albumId))));
+            assertEquals(describeSongs(source.getAllForAlbum(albumId)), describeSongs(indexed.getAllForAlbum(albumId)));
+        }
+    }
+
+    @Test
+    public void offsetsGiveEachOwnerItsOwnItems() {
+        assertEquals(Arrays.asList(zebras + " 6 2", aardvarks + " 2 1", nobodies + " 0 0"), describeCounts(index.getBandFetcher()));
+        assertEquals(describeCounts(library.getBandFetcher()), describeCounts(index.getBandFetcher()));
+
+        // Album songs are in path order, whatever order they were created in.
+        List<String> stripesSongs = index.getSongFetcher().getAllForAlbum(stripes).stream().map(Song::getName).collect(Collectors.toList());
+        assertEquals(Arrays.asList("First", "Second", "Third"), stripesSongs);
+        assertTrue(index.getSongFetcher().getAllForAlbum(silence).isEmpty());
+        assertTrue(index.getSongFetcher().getAllForBandOrdered(nobodies).isEmpty());
+        assertTrue(index.getAlbumFetcher().getAllForBand(nobodies).isEmpty());
+    }
+
+    @Test
+    public void missingIdsAreSkipped() {
+        List<Song> all = library.getSongFetcher().lookupAll(library.getSongFetcher().getAllIds());
+        long first = all.get(0).getUid();
+        long last = all.get(all.size() - 1).getUid();
+        List<Song> found = index.getSongFetcher().lookupAll(Arrays.asList(last, 999L, first));
+        assertEquals(Arrays.asList(last, first), found.stream().map(Song::getUid).collect(Collectors.toList()));
+
+        assertNull(index.getBandFetcher().lookup(999L));
+        assertNull(index.getAlbumFetcher().lookup(999L));
+        assertEquals(describeBands(Collections.singletonList(library.getBandFetcher().lookup(nobodies))),
+                describeBands(index.getBandFetcher().lookupAll(Arrays.asList(999L, nobodies))));
+        assertEquals(describeAlbums(Collections.singletonList(library.getAlbumFetcher().lookup(spots))),
+                describeAlbums(index.getAlbumFetcher().lookupAll(Arrays.asList(spots, 999L))));
+        assertTrue(index.getSongFetcher().getAllForBandOrdered(999L).isEmpty());
+        assertTrue(index.getSongFetcher().getIdsForBand(999L).isEmpty());
+        assertTrue(index.getSongFetcher().getSomeForBand(999L, 5).isEmpty());
+        assertTrue(index.getSongFetcher().getAllForAlbum(999L).isEmpty());
+        assertTrue(index.getAlbumFetcher().getAllForBand(999L).isEmpty());
+    }
+
+    @Test
+    public void yearsMatchTheSource() {
+        SongFetcher source = library.getSongFetcher();
+        SongFetcher indexed = index.getSongFetcher();
+        for (int year = 1970; year <= 1995; year++) {
+            assertEquals(source.getNextYear(year), indexed.getNextYear(year));
+            assertEquals(source.getPreviousYear(year), indexed.getPreviousYear(year));
+        }
+
+        // Asking for more songs than there are returns every song in the era, and nothing else.
+        assertEquals(ids(source.getRandomBatchForEra(1975, 1985, 100)), ids(indexed.getRandomBatchForEra(1975, 1985, 100)));
+        assertEquals(5, indexed.getRandomBatchForEra(1975, 1985, 100).size());
+        assertTrue(indexed.getRandomBatchForEra(1981, 1984, 100).isEmpty());
+        assertEquals(new HashSet<>(source.getAllIds()), ids(indexed.getRandomBatch(100)));
+        assertEquals(ids(source.getAllForBandOrdered(zebras)), ids(indexed.getSomeForBand(zebras, 100)));
+    }
+
+    /**
+     * Songs named and laid out the way a real collection is: each album directory is its own root, and a song's
+     * relative path is just its file name.
+     */
+    @Test
+    public void staysWithinMemoryBudget() {
+        InMemoryPlatformAdapter big = new InMemoryPlatformAdapter();
+        ObjectCreator bigCreator = big.getObjectCreator();
+        for (int band = 0; band < 20; band++) {
+            long bandId = bigCreator.createBand(String.format("Band Number %02d", band));
+            List<NewAlbum> albums = new ArrayList<>();
+            for (int album = 0; album < 10; album++) {
+                albums.add(new NewAlbum(String.format("Album Title %02d", album), bandId, 1960 + band + album));
+            }
+            List<Long> albumIds = bigCreator.createAlbums(albums);
+            List<NewSong> songs = new ArrayList<>();
+            for (int album = 0; album < albums.size(); album++) {
+                String albumPath = String.format("/sdcard/mcotp/Band Number %02d/%d - Album Title %02d", band, albums.get(album).year, album);
+                long rootId = big.getPathResolver().getRootId(albumPath);
+                for (int song = 1; song <= 12; song++) {
+                    String name = String.format("Song Title Number %02d", song);
+                    songs.add(new NewSong(name, rootId, String.format("%02d - %s.mp3", song, name), bandId, albumIds.get(album),
+                            albums.get(album).year, "", null));
+                }
+            }
+            bigCreator.createSongs(songs);
+        }
+        LibraryIndex bigIndex = LibraryIndex.build(big);
+        assertEquals(20 * 10 * 12, bigIndex.getSongCount());
+        long bytesPerSong = bigIndex.estimateBytesPerSong();
+        assertTrue(String.format("%d bytes per song", bytesPerSong), bytesPerSong <= LibraryIndex.BYTES_PER_SONG_BUDGET);
+    }
+}
@@ -0,0 +1,113 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.backend.MusicControllerThread.PlayModeEnum;
+import su.thepeople.carstereo.lib.data.Band;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.data.SongInfo;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LockSpeculatorTest {
+
+    private InMemoryPlatformAdapter library;
+    private Band band;
+    private SongInfo song;
+    private LockSpeculator speculator;
+
+    // Every mode that the speculator has built, in order.
+    private final List<PlayModeEnum> built = new CopyOnWriteArrayList<>();
+    // Band mode is held up until this is released, so that the other guesses queue up behind it.
+    private final CountDownLatch bandStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseBand = new CountDownLatch(1);
+    private final CountDownLatch yearBuilt = new CountDownLatch(1);
+
+    @Before
+    public void createLibrary() {
+        library = new InMemoryPlatformAdapter();
+        ObjectCreator creator = library.getObjectCreator();
+        long rootId = library.getPathResolver().getRootId("/sdcard/mcotp");
+        long bandId = creator.createBand("Band");
+        for (int i = 0; i < 5; i++) {
+            creator.createSong("Song " + i, rootId, "Song " + i + ".mp3", bandId, null, null);
+        }
+        band = library.getBandFetcher().lookup(bandId);
+        song = new SongInfo(band, library.getSongFetcher().getAllForBandOrdered(bandId).get(0));
+        speculator = new LockSpeculator(library, this::makeSelector, this::hydrate);
+    }
+
+    private MusicSelector makeSelector(PlayModeEnum mode, SongInfo current) {
+        built.add(mode);
+        if (mode == PlayModeEnum.YEAR) {
+            yearBuilt.countDown();
+        } else if (mode == PlayModeEnum.BAND) {
+            bandStarted.countDown();
+            try {
+                releaseBand.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new MusicSelector.BandMode(library, current.band.getUid());
+    }
+
+    private List<SongInfo> hydrate(List<? extends Song> songs) {
+        return songs.stream().map(s -> new SongInfo(band, s)).collect(Collectors.toList());
+    }
+
+    // Lets band mode finish, a little while from now.
+    private void releaseBandLater() {
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            releaseBand.countDown();
+        }).start();
+    }
+
+    @Test(timeout = 5000)
+    public void lockThatIsBeingBuiltIsWaitedFor() throws InterruptedException {
+        speculator.speculate(song, Collections.singletonList(PlayModeEnum.BAND));
+        assertTrue(bandStarted.await(5, TimeUnit.SECONDS));
+        releaseBandLater();
+
+        LockSpeculator.Speculation ready = speculator.take(PlayModeEnum.BAND, song);
+        assertNotNull(ready);
+        assertEquals(PlayModeEnum.BAND, ready.selector.getModeType());
+        assertEquals(5, ready.batch.songs.size());
+    }
+
+    @Test(timeout = 5000)
+    public void queuedLockIsLeftToTheCaller() throws InterruptedException {
+        speculator.speculate(song, Arrays.asList(PlayModeEnum.BAND, PlayModeEnum.ALBUM));
+        assertTrue(bandStarted.await(5, TimeUnit.SECONDS));
+        releaseBandLater();
+
+        // Album mode is stuck behind band mode, so waiting for it would also mean waiting for band mode.
+        assertNull(speculator.take(PlayModeEnum.ALBUM, song));
+
+        // Once band mode is done, the cancelled album guess is skipped rather than built. Guesses are built one at a
+        // time, in order, so by the time the next song's guess is built, the album guess has had its turn.
+        assertNotNull(speculator.take(PlayModeEnum.BAND, song));
+        Song other = library.getSongFetcher().getAllForBandOrdered(band.getUid()).get(1);
+        speculator.speculate(new SongInfo(band, other), Collections.singletonList(PlayModeEnum.YEAR));
+        assertTrue(yearBuilt.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(PlayModeEnum.BAND, PlayModeEnum.YEAR), built);
+    }
+}
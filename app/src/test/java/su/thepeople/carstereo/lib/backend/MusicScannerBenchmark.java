@@ -0,0 +1,126 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import su.thepeople.carstereo.lib.data.Song;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times a full scan of a synthetic collection at 1, 2, 4 and 8 threads.
+ *
+ * The collection is read twice: straight off the local disk, and through a reader that waits a little before each
+ * directory, like a slow SD card does. The scanner's threads are there to hide that wait, so the second set of numbers
+ * is the one that matters. Every scan must also build exactly the same library, whatever the thread count.
+ */
+public class MusicScannerBenchmark {
+
+    private static final int BAND_COUNT = 100;
+    private static final int ALBUMS_PER_BAND = 4;
+    private static final int SONGS_PER_ALBUM = 10;
+    private static final int LOOSE_SONGS_PER_BAND = 2;
+    private static final int SONG_COUNT = BAND_COUNT * (ALBUMS_PER_BAND * SONGS_PER_ALBUM + LOOSE_SONGS_PER_BAND);
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final long SLOW_CARD_DELAY_MS = 2;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static File searchDir;
+
+    @BeforeClass
+    public static void buildCollection() throws IOException {
+        Path card = folder.getRoot().toPath();
+        Path mcotp = Files.createDirectories(card.resolve("mcotp"));
+        for (int band = 0; band < BAND_COUNT; band++) {
+            Path bandDir = Files.createDirectories(mcotp.resolve(String.format("Band %03d", band)));
+            for (int album = 0; album < ALBUMS_PER_BAND; album++) {
+                Path albumDir = Files.createDirectories(bandDir.resolve(String.format("%d - Album %d", 1970 + album, album)));
+                for (int song = 0; song < SONGS_PER_ALBUM; song++) {
+                    Files.write(albumDir.resolve(String.format("%02d - Song %d.mp3", song + 1, song)), new byte[] {1});
+                }
+            }
+            for (int song = 0; song < LOOSE_SONGS_PER_BAND; song++) {
+                Files.write(bandDir.resolve(String.format("%d - Single %d.mp3", 1990 + song, song)), new byte[] {1});
+            }
+        }
+        searchDir = Files.createDirectories(card.resolve("Android/media")).toFile();
+    }
+
+    private static class SlowReader implements DirectoryReader {
+        private final DirectoryReader reader = new NioDirectoryReader();
+
+        @Override
+        public DirectoryListing read(String path) {
+            try {
+                Thread.sleep(SLOW_CARD_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return reader.read(path);
+        }
+    }
+
+    // Describes every song, with all of its IDs, so that two libraries can be compared.
+    private static List<String> describe(InMemoryPlatformAdapter adapter) {
+        List<Long> ids = adapter.getSongFetcher().getAllIds();
+        return adapter.getSongFetcher().lookupAll(ids).stream()
+                .map((Song song) -> String.format("%d %d %s %s %s", song.getUid(), song.getBandId(), song.getAlbumId(),
+                        adapter.getBandFetcher().lookup(song.getBandId()).getName(), song.getRelativePath()))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static long timeScan(int threadCount, DirectoryReader reader, List<String> expected) {
+        InMemoryPlatformAdapter adapter = new InMemoryPlatformAdapter();
+        MusicScanner scanner = new MusicScanner(adapter, () -> Stream.of(searchDir), threadCount, threadCount, reader);
+        long start = System.nanoTime();
+        scanner.scan();
+        long elapsed = System.nanoTime() - start;
+
+        List<String> library = describe(adapter);
+        assertEquals(SONG_COUNT, library.size());
+        if (expected != null) {
+            assertEquals(String.format("Library built with %d threads differs", threadCount), expected, library);
+        }
+        return elapsed / 1_000_000;
+    }
+
+    private static void run(String label, DirectoryReader reader, int repeats) {
+        // The first scan warms up the JIT (and the disk cache), and gives us a library to compare the others against.
+        InMemoryPlatformAdapter reference = new InMemoryPlatformAdapter();
+        new MusicScanner(reference, () -> Stream.of(searchDir), 1, 1, reader).scan();
+        List<String> expected = describe(reference);
+
+        System.out.println(String.format("Scan of %d bands, %d songs (%s):", BAND_COUNT, SONG_COUNT, label));
+        for (int threadCount : THREAD_COUNTS) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < repeats; i++) {
+                best = Math.min(best, timeScan(threadCount, reader, expected));
+            }
+            System.out.println(String.format("  %d threads: %d ms", threadCount, best));
+        }
+    }
+
+    @Test
+    public void localDisk() {
+        run("local disk", new NioDirectoryReader(), 3);
+    }
+
+    @Test
+    public void slowCard() {
+        run(String.format("%d ms per directory", SLOW_CARD_DELAY_MS), new SlowReader(), 1);
+    }
+}
@@ -0,0 +1,120 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import su.thepeople.carstereo.lib.data.Song;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs several scans, one after another, with the same scanner (as the collection watcher does), changing the collection
+ * on disk in between.
+ */
+public class MusicScannerTest {
+
+    private static final FileTime SONG_TIME = FileTime.fromMillis(1500000000000L);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path bandDir;
+    private InMemoryPlatformAdapter library;
+    private MusicScanner scanner;
+
+    @Before
+    public void createCollection() throws IOException {
+        Path card = folder.getRoot().toPath();
+        bandDir = Files.createDirectories(card.resolve("mcotp/Band"));
+        writeSong("1980 - First/01 - Opener.mp3", 1);
+        writeSong("1990 - Second/01 - Mover.mp3", 2);
+        writeSong("1990 - Second/02 - Stayer.mp3", 3);
+        File searchDir = Files.createDirectories(card.resolve("Android/media")).toFile();
+
+        library = new InMemoryPlatformAdapter();
+        scanner = new MusicScanner(library, () -> Stream.of(searchDir), 2, 2, new NioDirectoryReader());
+        scanner.scan();
+        assertEquals(3, songs().size());
+    }
+
+    // Songs with the same size (and timestamp) look like the same file, wherever they are.
+    private Path writeSong(String relativePath, int size) throws IOException {
+        Path file = bandDir.resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, SONG_TIME);
+        return file;
+    }
+
+    private List<Song> songs() {
+        return library.getSongFetcher().lookupAll(library.getSongFetcher().getAllIds());
+    }
+
+    private Song findSong(String fileName) {
+        List<Song> found = songs().stream().filter(s -> s.getRelativePath().endsWith(fileName)).collect(Collectors.toList());
+        assertEquals(1, found.size());
+        return found.get(0);
+    }
+
+    private Song moveSong(String from, String to) throws IOException {
+        Song song = findSong(new File(from).getName());
+        Files.move(bandDir.resolve(from), bandDir.resolve(to));
+        scanner.rescan();
+        Song moved = findSong(new File(to).getName());
+        assertEquals(song.getUid(), moved.getUid());
+        assertTrue(library.getPathResolver().getFullPath(moved).endsWith(to));
+        return moved;
+    }
+
+    @Test
+    public void deletingMovedSongRemovesIt() throws IOException {
+        // The new location is committed before the old one, so the scanner has to remember not to delete the song.
+        Song moved = moveSong("1990 - Second/01 - Mover.mp3", "1980 - First/01 - Mover.mp3");
+        assertEquals(3, songs().size());
+
+        Files.delete(bandDir.resolve("1980 - First/01 - Mover.mp3"));
+        scanner.rescan();
+        assertEquals(2, songs().size());
+        assertTrue(library.getSongFetcher().lookupAll(Collections.singletonList(moved.getUid())).isEmpty());
+    }
+
+    @Test
+    public void deletingSongMovedTheOtherWayRemovesIt() throws IOException {
+        // Here, the old location is committed first, so the song is deleted and then brought back.
+        Song moved = moveSong("1980 - First/01 - Opener.mp3", "1990 - Second/01 - Opener.mp3");
+
+        Files.delete(bandDir.resolve("1990 - Second/01 - Opener.mp3"));
+        scanner.rescan();
+        assertEquals(2, songs().size());
+        assertFalse(songs().stream().anyMatch(s -> s.getUid() == moved.getUid()));
+    }
+
+    @Test
+    public void deletedSongsAreNotBroughtBackLater() throws IOException {
+        long deletedId = findSong("02 - Stayer.mp3").getUid();
+        Files.delete(bandDir.resolve("1990 - Second/02 - Stayer.mp3"));
+        scanner.rescan();
+        assertEquals(2, songs().size());
+
+        // A new file that looks just like the deleted one, in a later scan, is a new song.
+        writeSong("1980 - First/02 - Stayer.mp3", 3);
+        scanner.rescan();
+        assertEquals(3, songs().size());
+        assertNotEquals(deletedId, findSong("02 - Stayer.mp3").getUid());
+    }
+}
@@ -0,0 +1,98 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Supplier;
+
+import su.thepeople.carstereo.lib.data.NewAlbum;
+import su.thepeople.carstereo.lib.data.NewSong;
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times the random song getters of the in-memory index and the library snapshot, on libraries of 10k, 100k and 1M
+ * songs. Both pick positions with RandomSampling, so a batch should cost about the same at every size.
+ */
+public class RandomBatchBenchmark {
+
+    private static final int[] SONG_COUNTS = {10_000, 100_000, 1_000_000};
+    private static final int SONGS_PER_ALBUM = 10;
+    private static final int ALBUMS_PER_BAND = 10;
+    private static final int BATCH_SIZE = 10;
+    private static final int REPEATS = 200;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static InMemoryPlatformAdapter buildLibrary(int songCount) {
+        InMemoryPlatformAdapter adapter = new InMemoryPlatformAdapter();
+        ObjectCreator creator = adapter.getObjectCreator();
+        long rootId = adapter.getPathResolver().getRootId("/sdcard/mcotp");
+        int bandCount = songCount / (SONGS_PER_ALBUM * ALBUMS_PER_BAND);
+        for (int band = 0; band < bandCount; band++) {
+            long bandId = creator.createBand("Band " + band);
+            List<NewAlbum> albums = new ArrayList<>();
+            for (int album = 0; album < ALBUMS_PER_BAND; album++) {
+                albums.add(new NewAlbum("Album " + album, bandId, 1960 + (band + album) % 60));
+            }
+            List<Long> albumIds = creator.createAlbums(albums);
+            List<NewSong> songs = new ArrayList<>();
+            for (int album = 0; album < ALBUMS_PER_BAND; album++) {
+                for (int song = 0; song < SONGS_PER_ALBUM; song++) {
+                    songs.add(new NewSong("Song " + song, rootId, String.format("%d/%02d.mp3", album, song), bandId,
+                            albumIds.get(album), albums.get(album).year, "", null));
+                }
+            }
+            creator.createSongs(songs);
+        }
+        return adapter;
+    }
+
+    private static double medianMillis(Supplier<List<Song>> picker) {
+        // Untimed calls first, so that the smallest library isn't charged for warming up the JIT.
+        for (int i = 0; i < REPEATS; i++) {
+            picker.get();
+        }
+        long[] nanos = new long[REPEATS];
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            List<Song> batch = picker.get();
+            nanos[i] = System.nanoTime() - start;
+            assertEquals(BATCH_SIZE, new HashSet<>(batch).size());
+        }
+        Arrays.sort(nanos);
+        return nanos[REPEATS / 2] / 1_000_000.0;
+    }
+
+    private static void report(String label, int songCount, SongFetcher fetcher) {
+        System.out.println(String.format("%,d songs, %s: getRandomBatch %.4f ms, getRandomBatchForEra %.4f ms", songCount, label,
+                medianMillis(() -> fetcher.getRandomBatch(BATCH_SIZE)),
+                medianMillis(() -> fetcher.getRandomBatchForEra(1970, 1979, BATCH_SIZE))));
+    }
+
+    @Test
+    public void randomBatchLatency() throws IOException {
+        for (int songCount : SONG_COUNTS) {
+            InMemoryPlatformAdapter library = buildLibrary(songCount);
+            File snapshotFile = folder.newFile();
+            new SnapshotWriter(library).write(snapshotFile);
+            LibraryIndex index = LibraryIndex.build(library);
+            // The source library isn't needed any more, and the biggest one takes up a lot of memory.
+            library = null;
+
+            report("index", songCount, index.getSongFetcher());
+            report("snapshot", songCount, LibrarySnapshot.open(snapshotFile).getSongFetcher());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Song;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecentlyPlayedTest {
+
+    private static Song song(long uid, long bandId) {
+        return new Song(uid, "Song " + uid, 1, uid + ".mp3", bandId, null, null);
+    }
+
+    private static List<Song> songs(long... uids) {
+        return Arrays.stream(uids).mapToObj(uid -> song(uid, uid)).collect(Collectors.toList());
+    }
+
+    private static List<Long> ids(List<Song> songs) {
+        return songs.stream().map(Song::getUid).collect(Collectors.toList());
+    }
+
+    @Test
+    public void freshSongsArePreferred() {
+        RecentlyPlayed recentlyPlayed = new RecentlyPlayed();
+        recentlyPlayed.record(songs(1, 2, 3, 4, 5));
+        Iterator<List<Song>> draws = Arrays.asList(songs(1, 2, 6, 7), songs(3, 8, 9)).iterator();
+        assertEquals(Arrays.asList(6L, 7L, 8L), ids(recentlyPlayed.pickSongs(draws::next, 3, 10)));
+    }
+
+    @Test
+    public void recentSongsAreReusedOldestFirst() {
+        RecentlyPlayed recentlyPlayed = new RecentlyPlayed();
+        recentlyPlayed.record(songs(1, 2, 3));
+        assertEquals(Arrays.asList(1L, 2L), ids(recentlyPlayed.pickSongs(() -> songs(3, 2, 1), 2, 10)));
+        // Outside of the window, nothing counts as recent.
+        assertEquals(Arrays.asList(3L, 2L), ids(recentlyPlayed.pickSongs(() -> songs(3, 2, 1), 2, 0)));
+    }
+
+    @Test
+    public void recentBandIsRedrawn() {
+        RecentlyPlayed recentlyPlayed = new RecentlyPlayed();
+        recentlyPlayed.record(Arrays.asList(song(1, 10), song(2, 10), song(3, 20)));
+        Iterator<Long> draws = Arrays.asList(20L, 10L, 30L).iterator();
+        assertEquals(Optional.of(30L), recentlyPlayed.pickBand(() -> Optional.of(draws.next()), 5));
+    }
+
+    @Test(timeout = 5000)
+    public void recordDoesNotWaitForADraw() throws InterruptedException {
+        RecentlyPlayed recentlyPlayed = new RecentlyPlayed();
+        CountDownLatch drawStarted = new CountDownLatch(1);
+        CountDownLatch drawMayFinish = new CountDownLatch(1);
+        List<Song> picked = new ArrayList<>();
+        Thread picker = new Thread(() -> picked.addAll(recentlyPlayed.pickSongs(() -> {
+            drawStarted.countDown();
+            try {
+                drawMayFinish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return songs(1, 2);
+        }, 1, 10)));
+        picker.start();
+        drawStarted.await();
+
+        // The draw is stuck (as a slow query on a low-priority thread might be), but recording still goes ahead.
+        recentlyPlayed.record(songs(1));
+        drawMayFinish.countDown();
+        picker.join();
+        assertEquals(Arrays.asList(2L), ids(picked));
+    }
+}
@@ -0,0 +1,151 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShuffleCycleTest {
+
+    private static final int SONG_COUNT = 25;
+    private static final int BATCH_SIZE = 5;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryPlatformAdapter library;
+    private ObjectCreator creator;
+    private long rootId;
+    private long bandId;
+    private File file;
+
+    @Before
+    public void createLibrary() throws IOException {
+        library = new InMemoryPlatformAdapter();
+        creator = library.getObjectCreator();
+        rootId = library.getPathResolver().getRootId("/sdcard/mcotp");
+        bandId = creator.createBand("Band");
+        for (int i = 0; i < SONG_COUNT; i++) {
+            addSong();
+        }
+        file = new File(folder.getRoot(), "shuffle");
+    }
+
+    private long addSong() {
+        String name = "Song " + library.getSongFetcher().getAllIds().size();
+        return creator.createSong(name, rootId, name + ".mp3", bandId, null, null);
+    }
+
+    private static List<Long> ids(List<Song> batch) {
+        return batch.stream().map(Song::getUid).collect(Collectors.toList());
+    }
+
+    // Picks and commits the next batch, as the music controller does.
+    private static List<Long> play(ShuffleCycle cycle, int batchSize) {
+        List<Song> batch = cycle.nextBatch(batchSize);
+        cycle.commit(batch);
+        return ids(batch);
+    }
+
+    @Test
+    public void playsEverySongOncePerCycle() {
+        ShuffleCycle cycle = new ShuffleCycle(library, file);
+        for (int round = 0; round < 2; round++) {
+            List<Long> played = new ArrayList<>();
+            for (int i = 0; i < SONG_COUNT / BATCH_SIZE; i++) {
+                played.addAll(play(cycle, BATCH_SIZE));
+            }
+            assertEquals(SONG_COUNT, played.size());
+            assertEquals(new HashSet<>(library.getSongFetcher().getAllIds()), new HashSet<>(played));
+        }
+    }
+
+    @Test
+    public void uncommittedBatchIsPickedAgain() {
+        ShuffleCycle cycle = new ShuffleCycle(library, file);
+        List<Song> discarded = cycle.nextBatch(BATCH_SIZE);
+        List<Song> again = cycle.nextBatch(BATCH_SIZE);
+        assertEquals(ids(discarded), ids(again));
+
+        // Committing a batch that was replaced by a newer pick does nothing.
+        cycle.commit(discarded);
+        assertEquals(ids(again), play(cycle, BATCH_SIZE));
+        assertFalse(ids(cycle.nextBatch(BATCH_SIZE)).equals(ids(again)));
+    }
+
+    @Test
+    public void patchKeepsThePlayedSongsPlayed() {
+        ShuffleCycle cycle = new ShuffleCycle(library, file);
+        List<Long> played = new ArrayList<>();
+        played.addAll(play(cycle, BATCH_SIZE));
+        played.addAll(play(cycle, BATCH_SIZE));
+        List<Long> unplayed = new ArrayList<>(library.getSongFetcher().getAllIds());
+        unplayed.removeAll(played);
+
+        // Remove one song from each side of the cursor, and add some new ones.
+        long removedPlayed = played.get(3);
+        long removedUnplayed = unplayed.get(7);
+        creator.deleteSong(removedPlayed);
+        creator.deleteSong(removedUnplayed);
+        unplayed.remove(removedUnplayed);
+        Set<Long> added = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            added.add(addSong());
+        }
+
+        // The rest of the cycle is exactly the unplayed songs, plus the new ones.
+        int remaining = unplayed.size() + added.size();
+        List<Long> rest = play(cycle, remaining);
+        assertEquals(remaining, rest.size());
+        Set<Long> expected = new HashSet<>(unplayed);
+        expected.addAll(added);
+        assertEquals(expected, new HashSet<>(rest));
+
+        // After which a new cycle starts, with everything in it.
+        List<Long> nextCycle = play(cycle, SONG_COUNT + 1);
+        assertEquals(SONG_COUNT + 1, nextCycle.size());
+        assertFalse(nextCycle.contains(removedPlayed));
+        assertFalse(nextCycle.contains(removedUnplayed));
+        assertTrue(nextCycle.containsAll(added));
+    }
+
+    @Test
+    public void resumesAfterReload() {
+        ShuffleCycle cycle = new ShuffleCycle(library, file);
+        Set<Long> played = new HashSet<>();
+        played.addAll(play(cycle, BATCH_SIZE));
+        played.addAll(play(cycle, BATCH_SIZE));
+        List<Long> upNext = ids(cycle.nextBatch(BATCH_SIZE));
+
+        ShuffleCycle reloaded = new ShuffleCycle(library, file);
+        assertEquals(upNext, play(reloaded, BATCH_SIZE));
+        played.addAll(upNext);
+
+        List<Long> rest = play(reloaded, SONG_COUNT);
+        assertEquals(SONG_COUNT - played.size(), rest.size());
+        played.addAll(rest);
+        assertEquals(SONG_COUNT, played.size());
+    }
+
+    @Test
+    public void ignoresUnreadableFile() throws IOException {
+        assertTrue(file.createNewFile());
+        ShuffleCycle cycle = new ShuffleCycle(library, file);
+        assertEquals(SONG_COUNT, new HashSet<>(play(cycle, SONG_COUNT)).size());
+    }
+}
@@ -0,0 +1,117 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import su.thepeople.carstereo.lib.data.Song;
+import su.thepeople.carstereo.lib.platform_interface.ObjectCreator;
+import su.thepeople.carstereo.lib.platform_interface.SongFetcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SongIdPlaylistTest {
+
+    private static final int SONG_COUNT = 25;
+    private static final long MISSING_ID = 999;
+
+    private InMemoryPlatformAdapter library;
+    private ObjectCreator creator;
+    private SongFetcher fetcher;
+    // Every song ID, in reverse order, so that playlist order is never the same as ID order.
+    private List<Long> songIds;
+
+    @Before
+    public void createLibrary() {
+        library = new InMemoryPlatformAdapter();
+        creator = library.getObjectCreator();
+        fetcher = library.getSongFetcher();
+        long rootId = library.getPathResolver().getRootId("/sdcard/mcotp");
+        long bandId = creator.createBand("Band");
+        songIds = new ArrayList<>();
+        for (int i = 0; i < SONG_COUNT; i++) {
+            songIds.add(creator.createSong("Song " + i, rootId, "Song " + i + ".mp3", bandId, null, null));
+        }
+        Collections.reverse(songIds);
+    }
+
+    private static long[] toArray(List<Long> ids) {
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static List<Long> ids(List<Song> songs) {
+        return songs.stream().map(Song::getUid).collect(Collectors.toList());
+    }
+
+    @Test
+    public void windowsComeInPlaylistOrder() {
+        SongIdPlaylist playlist = new SongIdPlaylist(toArray(songIds));
+        assertTrue(playlist.hasMore());
+        assertEquals(songIds.subList(0, 10), ids(playlist.nextWindow(fetcher)));
+        assertEquals(songIds.subList(10, 20), ids(playlist.nextWindow(fetcher)));
+        assertTrue(playlist.hasMore());
+        assertEquals(songIds.subList(20, 25), ids(playlist.nextWindow(fetcher)));
+        assertFalse(playlist.hasMore());
+        assertTrue(playlist.nextWindow(fetcher).isEmpty());
+    }
+
+    @Test
+    public void emptyPlaylistHasNothing() {
+        SongIdPlaylist playlist = new SongIdPlaylist(new long[0]);
+        assertFalse(playlist.hasMore());
+        assertTrue(playlist.nextWindow(fetcher).isEmpty());
+    }
+
+    @Test
+    public void deletedSongsAreSkipped() {
+        SongIdPlaylist playlist = new SongIdPlaylist(toArray(songIds));
+        creator.deleteSong(songIds.get(1));
+        creator.deleteSong(songIds.get(8));
+        List<Long> expected = new ArrayList<>(songIds.subList(0, 10));
+        expected.remove(songIds.get(1));
+        expected.remove(songIds.get(8));
+        assertEquals(expected, ids(playlist.nextWindow(fetcher)));
+    }
+
+    // A window whose songs are all gone doesn't end the playlist early. We just move on to the next window.
+    @Test
+    public void windowWithNoSongsLeftIsPassedOver() {
+        SongIdPlaylist playlist = new SongIdPlaylist(toArray(songIds));
+        songIds.subList(0, 10).forEach(creator::deleteSong);
+        assertEquals(songIds.subList(10, 20), ids(playlist.nextWindow(fetcher)));
+
+        songIds.subList(20, 25).forEach(creator::deleteSong);
+        assertTrue(playlist.hasMore());
+        assertTrue(playlist.nextWindow(fetcher).isEmpty());
+        assertFalse(playlist.hasMore());
+    }
+
+    @Test
+    public void lookupKeepsTheOrderAndDropsUnknownIds() {
+        creator.deleteSong(songIds.get(3));
+        List<Long> wanted = Arrays.asList(songIds.get(5), MISSING_ID, songIds.get(3), songIds.get(0), songIds.get(7));
+        List<Long> expected = Arrays.asList(songIds.get(5), songIds.get(0), songIds.get(7));
+        assertEquals(expected, ids(SongIdPlaylist.lookupInOrder(fetcher, wanted)));
+        assertTrue(SongIdPlaylist.lookupInOrder(fetcher, Collections.singletonList(MISSING_ID)).isEmpty());
+    }
+
+    @Test
+    public void shuffledPlaylistHasEverySongOnce() {
+        SongIdPlaylist playlist = SongIdPlaylist.shuffled(songIds, new Random(42));
+        List<Long> played = new ArrayList<>();
+        while (playlist.hasMore()) {
+            played.addAll(ids(playlist.nextWindow(fetcher)));
+        }
+        assertEquals(SONG_COUNT, played.size());
+        assertEquals(new HashSet<>(songIds), new HashSet<>(played));
+    }
+}
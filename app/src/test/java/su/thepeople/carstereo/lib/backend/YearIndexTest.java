@@ -0,0 +1,100 @@
+package su.thepeople.carstereo.lib.backend;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class YearIndexTest {
+
+    private static final int NO_YEAR = YearIndex.NO_YEAR;
+
+    // Years by song index, deliberately out of order, with gaps, repeats and songs that have no year.
+    private static final int[] SONG_YEARS = {1985, NO_YEAR, 1970, 1985, 2001, 1970, NO_YEAR, 1979, 1985, 2001};
+
+    private final Random random = new Random(42);
+    private final YearIndex index = new YearIndex(SONG_YEARS);
+
+    // The indexes of every song from the given years, inclusive.
+    private static Set<Integer> songsBetween(int startYear, int endYear) {
+        return IntStream.range(0, SONG_YEARS.length)
+                .filter(song -> SONG_YEARS[song] != NO_YEAR && SONG_YEARS[song] >= startYear && SONG_YEARS[song] <= endYear)
+                .boxed()
+                .collect(Collectors.toSet());
+    }
+
+    private Set<Integer> pickAll(int startYear, int endYear) {
+        int[] picks = index.pickSongs(random, startYear, endYear, SONG_YEARS.length + 1);
+        Set<Integer> picked = Arrays.stream(picks).boxed().collect(Collectors.toSet());
+        assertEquals("Picks should not repeat", picks.length, picked.size());
+        return picked;
+    }
+
+    @Test
+    public void yearsAreSortedAndDistinct() {
+        assertEquals(Arrays.asList(1970, 1979, 1985, 2001), index.getYears());
+    }
+
+    // Every span of years is checked, so each year's range of songs has to start and end in exactly the right place.
+    @Test
+    public void everySpanHasExactlyItsOwnSongs() {
+        int[] edges = {1960, 1969, 1970, 1971, 1978, 1979, 1980, 1985, 1990, 2000, 2001, 2010};
+        for (int startYear : edges) {
+            for (int endYear : edges) {
+                assertEquals(startYear + "-" + endYear, songsBetween(startYear, endYear), pickAll(startYear, endYear));
+            }
+        }
+    }
+
+    @Test
+    public void openEndedSpansReachTheLastYear() {
+        assertEquals(songsBetween(1979, Integer.MAX_VALUE), pickAll(1979, Integer.MAX_VALUE));
+        assertEquals(songsBetween(2001, Integer.MAX_VALUE), pickAll(2001, Integer.MAX_VALUE));
+        assertEquals(songsBetween(Integer.MIN_VALUE + 1, Integer.MAX_VALUE), pickAll(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertTrue(pickAll(2002, Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void spansWithNoSongsAreEmpty() {
+        assertTrue(pickAll(1971, 1978).isEmpty());
+        assertTrue(pickAll(1986, 2000).isEmpty());
+        assertTrue(pickAll(1900, 1969).isEmpty());
+        assertTrue(pickAll(1985, 1970).isEmpty());
+        assertEquals(0, new YearIndex(new int[] {NO_YEAR, NO_YEAR}).pickSongs(random, 1900, 2100, 10).length);
+    }
+
+    @Test
+    public void smallBatchComesFromTheSpan() {
+        Set<Integer> span = songsBetween(1970, 1985);
+        for (int i = 0; i < 20; i++) {
+            int[] picks = index.pickSongs(random, 1970, 1985, 3);
+            Set<Integer> picked = Arrays.stream(picks).boxed().collect(Collectors.toCollection(HashSet::new));
+            assertEquals(3, picked.size());
+            assertTrue(span.containsAll(picked));
+        }
+    }
+
+    @Test
+    public void nextAndPreviousYearSkipEmptyYears() {
+        assertEquals(Integer.valueOf(1970), index.getNextYear(1900));
+        assertEquals(Integer.valueOf(1979), index.getNextYear(1970));
+        assertEquals(Integer.valueOf(1985), index.getNextYear(1980));
+        assertEquals(Integer.valueOf(2001), index.getNextYear(1985));
+        assertNull(index.getNextYear(2001));
+        assertNull(index.getNextYear(Integer.MAX_VALUE));
+
+        assertEquals(Integer.valueOf(1985), index.getPreviousYear(2001));
+        assertEquals(Integer.valueOf(1985), index.getPreviousYear(1999));
+        assertEquals(Integer.valueOf(1970), index.getPreviousYear(1979));
+        assertNull(index.getPreviousYear(1970));
+        assertNull(index.getPreviousYear(Integer.MIN_VALUE));
+    }
+}
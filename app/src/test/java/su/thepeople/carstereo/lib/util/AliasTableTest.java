@@ -0,0 +1,71 @@
+package su.thepeople.carstereo.lib.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AliasTableTest {
+
+    private static final int TRIALS = 200000;
+
+    // Picks many times, and checks that each position comes up about as often as its weight says it should.
+    private static void assertMatchesWeights(double[] weights, long seed) {
+        AliasTable table = new AliasTable(weights);
+        assertEquals(weights.length, table.size());
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+
+        Random random = new Random(seed);
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < TRIALS; i++) {
+            counts[table.pick(random)]++;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            double expected = weights[i] / total;
+            double actual = (double) counts[i] / TRIALS;
+            if (weights[i] == 0) {
+                assertEquals("Zero weight picked: " + i, 0, counts[i]);
+            } else {
+                assertEquals("Wrong frequency for " + i, expected, actual, 0.005);
+            }
+        }
+    }
+
+    @Test
+    public void frequenciesMatchWeights() {
+        assertMatchesWeights(new double[] {1, 2, 3, 0, 4, 10}, 1);
+        assertMatchesWeights(new double[] {0, 0, 1, 0, 0, 1, 0}, 2);
+        assertMatchesWeights(new double[] {0.001, 1000, 1, 50, 0.5}, 3);
+    }
+
+    @Test
+    public void allZeroWeightsPickNothing() {
+        assertEquals(0, new AliasTable(new double[] {0, 0, 0}).size());
+        assertEquals(0, new AliasTable(new double[0]).size());
+    }
+
+    @Test
+    public void singleColumn() {
+        AliasTable table = new AliasTable(new double[] {3.5});
+        assertEquals(1, table.size());
+        Random random = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, table.pick(random));
+        }
+    }
+
+    @Test
+    public void leftoverColumns() {
+        // Every column is exactly full, so they are all left over as "tall" ones.
+        assertMatchesWeights(new double[] {2, 2, 2, 2}, 5);
+        // Topping up the short columns leaves the tall one a rounding error short of full, so it is left over as a
+        // "short" one.
+        assertMatchesWeights(new double[] {0.1, 0.2, 0.3}, 6);
+        // A bigger mix that has to be balanced out before anything is left over.
+        assertMatchesWeights(new double[] {0.1, 0.2, 0.3, 0.4, 0.1, 0.2, 0.3}, 7);
+    }
+}
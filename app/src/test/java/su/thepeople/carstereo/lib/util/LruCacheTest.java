@@ -0,0 +1,53 @@
+package su.thepeople.carstereo.lib.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LruCacheTest {
+
+    @Test
+    public void oldestEntryIsEvictedOnceFull() {
+        LruCache<Long, String> cache = new LruCache<>(3);
+        cache.put(1L, "one");
+        cache.put(2L, "two");
+        cache.put(3L, "three");
+        assertEquals(3, cache.size());
+
+        cache.put(4L, "four");
+        assertEquals(3, cache.size());
+        assertFalse(cache.containsKey(1L));
+        assertEquals(Arrays.asList(2L, 3L, 4L), new ArrayList<>(cache.keySet()));
+    }
+
+    @Test
+    public void getCountsAsAUse() {
+        LruCache<Long, String> cache = new LruCache<>(3);
+        cache.put(1L, "one");
+        cache.put(2L, "two");
+        cache.put(3L, "three");
+        assertEquals("one", cache.get(1L));
+
+        cache.put(4L, "four");
+        assertTrue(cache.containsKey(1L));
+        assertNull(cache.get(2L));
+        assertEquals(Arrays.asList(3L, 1L, 4L), new ArrayList<>(cache.keySet()));
+    }
+
+    @Test
+    public void replacingAnEntryDoesNotEvict() {
+        LruCache<Long, String> cache = new LruCache<>(2);
+        cache.put(1L, "one");
+        cache.put(2L, "two");
+        cache.put(1L, "uno");
+        assertEquals(2, cache.size());
+        assertEquals("uno", cache.get(1L));
+        assertEquals("two", cache.get(2L));
+    }
+}
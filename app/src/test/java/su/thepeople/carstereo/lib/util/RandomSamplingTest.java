@@ -0,0 +1,83 @@
+package su.thepeople.carstereo.lib.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RandomSamplingTest {
+
+    private static final int TRIALS = 20000;
+
+    private static void assertDistinctInRange(int[] picks, int populationSize) {
+        Set<Integer> seen = new HashSet<>();
+        for (int pick : picks) {
+            assertTrue("Out of range: " + pick, pick >= 0 && pick < populationSize);
+            assertTrue("Picked twice: " + pick, seen.add(pick));
+        }
+    }
+
+    @Test
+    public void picksAreDistinct() {
+        Random random = new Random(1);
+        // The first two only want a few positions (so they skip duplicates), the others shuffle.
+        int[][] cases = {{1000000, 10}, {1000, 200}, {1000, 250}, {20, 10}, {20, 20}, {5, 1}};
+        for (int[] sizes : cases) {
+            for (int i = 0; i < 100; i++) {
+                int[] picks = RandomSampling.pickDistinct(random, sizes[0], sizes[1]);
+                assertEquals(sizes[1], picks.length);
+                assertDistinctInRange(picks, sizes[0]);
+            }
+        }
+    }
+
+    @Test
+    public void smallPopulationGivesEverything() {
+        int[] picks = RandomSampling.pickDistinct(new Random(2), 7, 10);
+        assertEquals(7, picks.length);
+        assertDistinctInRange(picks, 7);
+    }
+
+    @Test
+    public void emptyCases() {
+        assertEquals(0, RandomSampling.pickDistinct(new Random(3), 0, 10).length);
+        assertEquals(0, RandomSampling.pickDistinct(new Random(3), 10, 0).length);
+    }
+
+    /*
+     * Every position should be picked equally often, and should be equally likely to come first. With this many trials,
+     * a fair sampler stays well inside the tolerance (and the fixed seed keeps the result the same every time).
+     */
+    private static void assertUniform(int populationSize, int count) {
+        Random random = new Random(4);
+        int[] picked = new int[populationSize];
+        int[] first = new int[populationSize];
+        for (int i = 0; i < TRIALS; i++) {
+            int[] picks = RandomSampling.pickDistinct(random, populationSize, count);
+            for (int pick : picks) {
+                picked[pick]++;
+            }
+            first[picks[0]]++;
+        }
+        double expectedPicked = (double) TRIALS * count / populationSize;
+        double expectedFirst = (double) TRIALS / populationSize;
+        for (int position = 0; position < populationSize; position++) {
+            assertEquals("Position " + position + " picked", expectedPicked, picked[position], expectedPicked * 0.1);
+            assertEquals("Position " + position + " first", expectedFirst, first[position], expectedFirst * 0.25);
+        }
+    }
+
+    @Test
+    public void skippingDuplicatesIsUniform() {
+        assertUniform(100, 5);
+    }
+
+    @Test
+    public void partialShuffleIsUniform() {
+        assertUniform(20, 8);
+    }
+}
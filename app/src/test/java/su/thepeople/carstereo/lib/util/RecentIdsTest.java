@@ -0,0 +1,86 @@
+package su.thepeople.carstereo.lib.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecentIdsTest {
+
+    @Test
+    public void agesCountBackFromTheLatest() {
+        RecentIds recent = new RecentIds(5);
+        recent.add(10);
+        recent.add(20);
+        recent.add(30);
+        assertEquals(1, recent.age(30));
+        assertEquals(2, recent.age(20));
+        assertEquals(3, recent.age(10));
+        assertEquals(Long.MAX_VALUE, recent.age(40));
+    }
+
+    @Test
+    public void oldestIsForgottenOnceTheRingIsFull() {
+        RecentIds recent = new RecentIds(3);
+        for (long id = 1; id <= 5; id++) {
+            recent.add(id);
+        }
+        assertEquals(Long.MAX_VALUE, recent.age(1));
+        assertEquals(Long.MAX_VALUE, recent.age(2));
+        assertEquals(3, recent.age(3));
+        assertEquals(1, recent.age(5));
+        assertFalse(recent.isWithin(2, 3));
+    }
+
+    @Test
+    public void duplicateSurvivesItsOldSlotBeingOverwritten() {
+        RecentIds recent = new RecentIds(3);
+        recent.add(7);
+        recent.add(8);
+        recent.add(7);
+        // This overwrites the slot holding the first 7, but the second 7 is still in the ring.
+        recent.add(9);
+        assertEquals(2, recent.age(7));
+        // And this one overwrites the second 7.
+        recent.add(1);
+        recent.add(2);
+        assertEquals(Long.MAX_VALUE, recent.age(7));
+    }
+
+    @Test
+    public void repeatedIdWrapsAroundTheRing() {
+        RecentIds recent = new RecentIds(2);
+        for (int i = 0; i < 10; i++) {
+            recent.add(4);
+            assertEquals(1, recent.age(4));
+        }
+        recent.add(5);
+        assertEquals(2, recent.age(4));
+        recent.add(6);
+        assertEquals(Long.MAX_VALUE, recent.age(4));
+    }
+
+    @Test
+    public void windowIsCappedToCapacity() {
+        RecentIds recent = new RecentIds(4);
+        for (long id = 1; id <= 4; id++) {
+            recent.add(id);
+        }
+        assertTrue(recent.isWithin(1, 4));
+        assertFalse(recent.isWithin(1, 3));
+        assertTrue(recent.isWithin(4, 1));
+        assertTrue(recent.isWithin(1, 1000));
+        recent.add(5);
+        assertFalse(recent.isWithin(1, 1000));
+        assertFalse(recent.isWithin(5, 0));
+    }
+
+    @Test
+    public void zeroCapacityRemembersNothing() {
+        RecentIds recent = new RecentIds(0);
+        recent.add(1);
+        assertEquals(Long.MAX_VALUE, recent.age(1));
+        assertFalse(recent.isWithin(1, 10));
+    }
+}
@@ -0,0 +1,80 @@
+package su.thepeople.carstereo.lib.util;
+
+import org.junit.Test;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SortKeysTest {
+
+    // Band names in the order that they should be listed.
+    private static final List<String> NAMES_IN_ORDER = Arrays.asList(
+            "Anathema", "Anthrax", "\u00c1sgeir", "The Beatles", "the Cure", "THE DOORS", "Eagles", "eels",
+            "\u00c9milie Simon", "An Horse", "Nirvana", "\u00d3lafur Arnalds", "Opeth", "A Perfect Circle", "The The",
+            "Theatre of Tragedy", "Zebra");
+
+    /**
+     * The ordering that we are aiming for, worked out the slow way: drop a leading article, then compare with a
+     * collator that only looks at the base letters, so that case and accents make no difference.
+     */
+    private static Comparator<String> referenceOrder() {
+        Collator collator = Collator.getInstance(Locale.ROOT);
+        collator.setStrength(Collator.PRIMARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+        return Comparator.comparing(name -> name.replaceFirst("(?i)^(the|a|an) ", ""), collator);
+    }
+
+    // The database sorts on the stored keys with a plain comparison, which is what String.compareTo does here.
+    private static List<String> sortedByKey(List<String> names) {
+        List<String> sorted = new ArrayList<>(names);
+        sorted.sort(Comparator.comparing(SortKeys::forName));
+        return sorted;
+    }
+
+    @Test
+    public void articlesAreIgnored() {
+        assertEquals("beatles", SortKeys.forName("The Beatles"));
+        assertEquals("tribe called quest", SortKeys.forName("A Tribe Called Quest"));
+        assertEquals("albatross", SortKeys.forName("An Albatross"));
+        assertEquals("the", SortKeys.forName("The The"));
+        // Only whole words count as articles.
+        assertEquals("theatre of tragedy", SortKeys.forName("Theatre of Tragedy"));
+        assertEquals("them", SortKeys.forName("Them"));
+        assertEquals("anathema", SortKeys.forName("Anathema"));
+        assertEquals("abba", SortKeys.forName("  ABBA "));
+    }
+
+    @Test
+    public void caseIsIgnored() {
+        assertEquals(SortKeys.forName("abba"), SortKeys.forName("ABBA"));
+        assertEquals(SortKeys.forName("the cure"), SortKeys.forName("THE CURE"));
+        assertEquals(-1, Integer.signum(SortKeys.forName("a-ha").compareTo(SortKeys.forName("ZZ Top"))));
+        assertEquals(-1, Integer.signum(SortKeys.forName("zebra").compareTo(SortKeys.forName("ZZ Top"))));
+    }
+
+    @Test
+    public void accentsAreIgnored() {
+        assertEquals("motley crue", SortKeys.forName("M\u00f6tley Cr\u00fce"));
+        // The same name, with the accents written as separate combining characters.
+        assertEquals("motley crue", SortKeys.forName("Mo\u0308tley Cru\u0308e"));
+        assertEquals("emilie simon", SortKeys.forName("\u00c9milie Simon"));
+    }
+
+    @Test
+    public void keysSortLikeTheReferenceOrder() {
+        List<String> shuffled = new ArrayList<>(NAMES_IN_ORDER);
+        Collections.shuffle(shuffled, new Random(42));
+        List<String> expected = new ArrayList<>(shuffled);
+        expected.sort(referenceOrder());
+        assertEquals(NAMES_IN_ORDER, expected);
+        assertEquals(NAMES_IN_ORDER, sortedByKey(shuffled));
+    }
+}